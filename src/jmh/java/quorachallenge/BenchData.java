@@ -0,0 +1,124 @@
+package quorachallenge;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic commands for the benchmarks. Words are drawn from a vocabulary
+ * of made-up words by a Zipf distribution, so a few words and their
+ * prefixes are in most entries, like real titles and names; scores follow
+ * a Zipf distribution too, most entries scoring low. Seeded, so every run
+ * sees the same data.
+ */
+class BenchData {
+
+	private static final String[] TYPES = { "user", "topic", "question",
+			"board" };
+	private static final int SCORE_LEVELS = 100;
+	private static final int MAX_WORDS_PER_ENTRY = 8;
+
+	private final Random rand;
+	private final String[] vocabulary;
+	private final Zipf words;
+	private final Zipf scores;
+	private int nextId;
+
+	/**
+	 * @param skew
+	 *            Zipf exponent of the word and score distributions
+	 */
+	BenchData(long seed, int vocabularySize, double skew) {
+		rand = new Random(seed);
+		vocabulary = new String[vocabularySize];
+		for (int i = 0; i < vocabularySize; ++i) {
+			char[] word = new char[2 + rand.nextInt(9)];
+			for (int j = 0; j < word.length; ++j) {
+				word[j] = (char) ('a' + rand.nextInt(26));
+			}
+			vocabulary[i] = new String(word);
+		}
+		words = new Zipf(vocabularySize, skew);
+		scores = new Zipf(SCORE_LEVELS, skew);
+	}
+
+	/**
+	 * ADD of an entry with a new id, "e0", "e1", ...
+	 */
+	String add() {
+		StringBuilder sb = new StringBuilder("ADD ");
+		sb.append(TYPES[rand.nextInt(TYPES.length)]).append(" e")
+				.append(nextId++).append(' ')
+				.append(scores.next(rand) / (float) SCORE_LEVELS);
+		for (int i = 1 + rand.nextInt(MAX_WORDS_PER_ENTRY); i > 0; --i) {
+			sb.append(' ').append(word());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * DEL of one of the ids added so far
+	 */
+	String del() {
+		return "DEL e" + rand.nextInt(Math.max(1, nextId));
+	}
+
+	/**
+	 * QUERY for the given number of word prefixes
+	 */
+	String query(int terms) {
+		StringBuilder sb = new StringBuilder("QUERY 10");
+		appendTerms(sb, terms);
+		return sb.toString();
+	}
+
+	/**
+	 * WQUERY with boosts on types and on ids added so far
+	 */
+	String wquery(int terms, int boosts) {
+		StringBuilder sb = new StringBuilder("WQUERY 10 ").append(boosts);
+		for (int i = 0; i < boosts; ++i) {
+			if (rand.nextInt(4) == 0) {
+				sb.append(' ').append(TYPES[rand.nextInt(TYPES.length)]);
+			} else {
+				sb.append(" e").append(rand.nextInt(Math.max(1, nextId)));
+			}
+			sb.append(':').append(1 + rand.nextInt(40) / 10f);
+		}
+		appendTerms(sb, terms);
+		return sb.toString();
+	}
+
+	private void appendTerms(StringBuilder sb, int terms) {
+		for (int i = 0; i < terms; ++i) {
+			String word = word();
+			// a prefix of the word, as typed so far
+			sb.append(' ').append(word, 0, 1 + rand.nextInt(word.length()));
+		}
+	}
+
+	private String word() {
+		return vocabulary[words.next(rand) - 1];
+	}
+
+	// ranks 1..n, rank k with probability proportional to 1 / k^skew
+	private static class Zipf {
+		private final double[] cdf;
+
+		Zipf(int n, double skew) {
+			cdf = new double[n];
+			double sum = 0;
+			for (int k = 1; k <= n; ++k) {
+				sum += 1 / Math.pow(k, skew);
+				cdf[k - 1] = sum;
+			}
+			for (int k = 0; k < n; ++k) {
+				cdf[k] /= sum;
+			}
+		}
+
+		int next(Random rand) {
+			int i = Arrays.binarySearch(cdf, rand.nextDouble());
+			return Math.min(cdf.length, (i < 0 ? -i - 1 : i) + 1);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package quorachallenge;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of single commands against an index of synthetic entries, see
+ * BenchData. Every command goes through executeInput, parsing and
+ * printing included, so the numbers are what a client sees.
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar TypeaheadBenchmark -p entries=100000
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeaheadBenchmark {
+
+	// commands of each kind, cycled through
+	private static final int COMMANDS = 1 << 12;
+	// queries per executeBatch
+	private static final int BATCH = 256;
+
+	@Param({ "10000", "100000" })
+	public int entries;
+
+	@Param({ "50000" })
+	public int vocabulary;
+
+	@Param({ "1.1" })
+	public double skew;
+
+	// names, as the generated code lives outside the package
+	@Param({ "ENTRY_ID", "SCORE" })
+	public String order;
+
+	@Param({ "PREFIX" })
+	public String index;
+
+	private TypeaheadSearch search;
+	private final PrintStream out = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private String[] adds;
+	private String[] readds;
+	private String[] dels;
+	private String[] singleTermQueries;
+	private String[] multiTermQueries;
+	private String[] boostedQueries;
+	private String[] mixed;
+	private List<String>[] multiTermBatches;
+	private List<String>[] keystrokeBatches;
+	private int next;
+
+	// a fresh index per iteration, so ADDs do not pile up across them
+	@Setup(Level.Iteration)
+	public void setUp() {
+		BenchData data = new BenchData(42, vocabulary, skew);
+		search = new TypeaheadSearch(new IndexOptions().setPostingOrder(
+				PostingOrder.valueOf(order)).setIndexMode(
+				IndexMode.valueOf(index)));
+		String[] initial = new String[entries];
+		for (int i = 0; i < entries; ++i) {
+			initial[i] = data.add();
+			search.executeInput(initial[i], out);
+		}
+
+		adds = new String[COMMANDS];
+		readds = new String[COMMANDS];
+		dels = new String[COMMANDS];
+		singleTermQueries = new String[COMMANDS];
+		multiTermQueries = new String[COMMANDS];
+		boostedQueries = new String[COMMANDS];
+		mixed = new String[COMMANDS];
+		for (int i = 0; i < COMMANDS; ++i) {
+			adds[i] = data.add();
+			String entry = initial[i % entries];
+			readds[i] = entry;
+			dels[i] = "DEL " + entry.split(" ")[2];
+			singleTermQueries[i] = data.query(1);
+			multiTermQueries[i] = data.query(2 + (i & 1));
+			boostedQueries[i] = data.wquery(2, 20);
+		}
+		for (int i = 0; i < COMMANDS; ++i) {
+			// mostly reads, like typeahead traffic
+			int kind = i % 20;
+			if (kind < 2) {
+				mixed[i] = adds[i];
+			} else if (kind < 3) {
+				mixed[i] = dels[i];
+			} else if (kind < 12) {
+				mixed[i] = singleTermQueries[i];
+			} else if (kind < 17) {
+				mixed[i] = multiTermQueries[i];
+			} else {
+				mixed[i] = boostedQueries[i];
+			}
+		}
+		@SuppressWarnings("unchecked")
+		List<String>[] batches = new List[COMMANDS / BATCH];
+		for (int b = 0; b < batches.length; ++b) {
+			batches[b] = Arrays.asList(multiTermQueries).subList(b * BATCH,
+					(b + 1) * BATCH);
+		}
+		multiTermBatches = batches;
+		keystrokeBatches = keystrokeBatches(batches.length);
+		next = 0;
+	}
+
+	/*
+	 * What a front end collects from clients typing at once: every keystroke
+	 * of a few queries, "QUERY 10 ab", "QUERY 10 abc", "QUERY 10 abc d", ...,
+	 * each typed by a few clients at the same time.
+	 */
+	private List<String>[] keystrokeBatches(int count) {
+		final int clients = 4;
+		@SuppressWarnings("unchecked")
+		List<String>[] batches = new List[count];
+		int q = 0;
+		for (int b = 0; b < count; ++b) {
+			String[] batch = new String[BATCH];
+			int n = 0;
+			while (n < BATCH) {
+				String query = multiTermQueries[q++ % COMMANDS];
+				int from = "QUERY 10 ".length();
+				for (int end = from + 1; end <= query.length(); ++end) {
+					if (query.charAt(end - 1) == ' ') {
+						continue;
+					}
+					for (int c = 0; c < clients && n < BATCH; ++c) {
+						batch[n++] = query.substring(0, end);
+					}
+				}
+			}
+			batches[b] = Arrays.asList(batch);
+		}
+		return batches;
+	}
+
+	private int next() {
+		return next++ & (COMMANDS - 1);
+	}
+
+	@Benchmark
+	public void add() {
+		search.executeInput(adds[next()], out);
+	}
+
+	/**
+	 * DEL of a live entry, then its ADD, so that the index keeps its size;
+	 * take add() off for the DEL alone
+	 */
+	@Benchmark
+	public void delAndReAdd() {
+		int i = next();
+		search.executeInput(dels[i], out);
+		search.executeInput(readds[i], out);
+	}
+
+	@Benchmark
+	public void querySingleTerm() {
+		search.executeInput(singleTermQueries[next()], out);
+	}
+
+	@Benchmark
+	public void queryMultiTerm() {
+		search.executeInput(multiTermQueries[next()], out);
+	}
+
+	/**
+	 * per query, to compare with queryMultiTerm()
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String[] queryMultiTermBatch() {
+		return search.executeBatch(multiTermBatches[next()
+				% multiTermBatches.length]);
+	}
+
+	/**
+	 * per query of keystroke batches, which overlap a lot
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String[] queryKeystrokeBatch() {
+		return search.executeBatch(keystrokeBatches[next()
+				% keystrokeBatches.length]);
+	}
+
+	/**
+	 * the same keystrokes one by one
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void queryKeystrokes() {
+		for (String query : keystrokeBatches[next() % keystrokeBatches.length]) {
+			search.executeInput(query, out);
+		}
+	}
+
+	@Benchmark
+	public void wqueryManyBoosts() {
+		search.executeInput(boostedQueries[next()], out);
+	}
+
+	@Benchmark
+	public void mixed() {
+		search.executeInput(mixed[next()], out);
+	}
+}
@@ -0,0 +1,107 @@
+package quorachallenge;
+
+import java.util.Arrays;
+
+/**
+ * The boosts of one WQUERY, resolved once before its candidates are scored:
+ * a factor per entry type, indexed by ordinal, and the factors of boosted ids
+ * as a sorted array of internal doc ids. Scoring a candidate then reads
+ * primitives only instead of hashing its type name and id.
+ *
+ * Same rules as a map from boost key to factor: a type boost wins over an id
+ * boost, a key given twice counts with its last factor, and ids match
+ * exactly, case included. Immutable, so it is safe to share.
+ */
+class Boosts {
+
+	private static final DataEntryType[] TYPES = DataEntryType.values();
+
+	// NaN for types without a boost
+	private final float[] typeBoosts;
+	// sorted
+	private final int[] docs;
+	private final float[] docBoosts;
+
+	private Boosts(float[] typeBoosts, int[] docs, float[] docBoosts) {
+		this.typeBoosts = typeBoosts;
+		this.docs = docs;
+		this.docBoosts = docBoosts;
+	}
+
+	/**
+	 * @return the boosts of the WQUERY parser holds, or null if it has none
+	 */
+	static Boosts resolve(CommandParser parser, QuoraIndexer indexer) {
+		int n = parser.getNumBoosts();
+		// a negative count has always meant no boosts
+		if (n <= 0) {
+			return null;
+		}
+		float[] typeBoosts = new float[TYPES.length];
+		Arrays.fill(typeBoosts, Float.NaN);
+		// doc << 32 | boost index, so that sorting keeps the boosts of a doc
+		// in query order
+		long[] hits = new long[n];
+		int count = 0;
+		for (int i = 0; i < n; ++i) {
+			int from = parser.getBoostKeyFrom(i);
+			int to = parser.getBoostKeyTo(i);
+			for (DataEntryType type : TYPES) {
+				if (regionEquals(parser, from, to, type.toString())) {
+					typeBoosts[type.ordinal()] = parser.getBoostValue(i);
+				}
+			}
+			// the id table ignores case, boost keys do not
+			int doc = indexer.findDoc(parser, from, to);
+			if (doc >= 0 && regionEquals(parser, from, to, indexer.getId(doc))) {
+				hits[count++] = (long) doc << 32 | i;
+			}
+		}
+		Arrays.sort(hits, 0, count);
+
+		int[] docs = new int[count];
+		float[] docBoosts = new float[count];
+		int k = 0;
+		for (int j = 0; j < count; ++j) {
+			int doc = (int) (hits[j] >>> 32);
+			if (j + 1 < count && (int) (hits[j + 1] >>> 32) == doc) {
+				// a later boost of the same doc
+				continue;
+			}
+			docs[k] = doc;
+			docBoosts[k++] = parser.getBoostValue((int) hits[j]);
+		}
+		return new Boosts(typeBoosts, Arrays.copyOf(docs, k), Arrays.copyOf(
+				docBoosts, k));
+	}
+
+	/**
+	 * score of the entry eIdInt, boosted
+	 */
+	public float apply(QuoraIndexer indexer, int eIdInt, float score) {
+		float boost = typeBoosts[indexer.getType(eIdInt).ordinal()];
+		if (Float.isNaN(boost) == false) {
+			return score * boost;
+		}
+		if (docs.length > 0) {
+			int k = Arrays.binarySearch(docs, eIdInt);
+			if (k >= 0) {
+				return score * docBoosts[k];
+			}
+		}
+		return score;
+	}
+
+	private static boolean regionEquals(CharSequence s, int from, int to,
+			String key) {
+		if (key.length() != to - from) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); ++i) {
+			if (s.charAt(from + i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
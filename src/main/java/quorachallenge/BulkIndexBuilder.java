@@ -0,0 +1,187 @@
+package quorachallenge;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the posting lists for a batch of new entries on a fork/join pool,
+ * for TermIndex.addAll.
+ *
+ * The batch is cut into chunks of consecutive entries and every chunk is
+ * tokenized on its own into partial dictionaries, one per partition of the
+ * key hash. Every partition then unions the lists of each of its keys across
+ * the chunks and with the list the index already holds. Only publishing the
+ * merged lists is left to the calling writer, one put per key.
+ *
+ * Ids grow with the position in the batch, so the lists come out the same as
+ * the ones that adding the entries one by one would leave behind.
+ */
+class BulkIndexBuilder {
+
+	// fewest entries worth a task of their own
+	static final int MIN_CHUNK_SIZE = 1024;
+	// tasks per worker, so that uneven chunks even out
+	private static final int TASKS_PER_THREAD = 2;
+
+	private final TermIndex index;
+	private final String[] data;
+	private final int[] docs;
+	private final int count;
+	private final int chunkSize;
+	private final int chunks;
+	private final int partitions;
+
+	// [chunk][partition]: key -> ids of the chunk
+	private final TermDictionary[][] partials;
+	// [partition]: key -> merged list
+	private final TermDictionary[] merged;
+
+	BulkIndexBuilder(TermIndex index, String[] data, int[] docs, int count,
+			int parallelism) {
+		this.index = index;
+		this.data = data;
+		this.docs = docs;
+		this.count = count;
+		int tasks = TASKS_PER_THREAD * parallelism;
+		chunkSize = Math.max(MIN_CHUNK_SIZE, (count + tasks - 1) / tasks);
+		chunks = (count + chunkSize - 1) / chunkSize;
+		int p = 1;
+		while (p < tasks) {
+			p <<= 1;
+		}
+		partitions = p;
+		partials = new TermDictionary[chunks][];
+		merged = new TermDictionary[partitions];
+	}
+
+	void build(ForkJoinPool pool) {
+		pool.invoke(new Split(true, 0, chunks));
+		pool.invoke(new Split(false, 0, partitions));
+		try {
+			for (TermDictionary keys : merged) {
+				keys.forEach(new TermDictionary.Visitor() {
+					@Override
+					public void visit(CharSequence key, PostingList postings) {
+						index.putKey(key, postings);
+					}
+				});
+			}
+		} catch (IOException e) {
+			// the visitors do no I/O
+			throw new AssertionError(e);
+		}
+	}
+
+	private void tokenize(int chunk) {
+		final TermDictionary[] parts = new TermDictionary[partitions];
+		for (int p = 0; p < partitions; ++p) {
+			parts[p] = new TermDictionary();
+		}
+		int end = Math.min(count, (chunk + 1) * chunkSize);
+		for (int i = chunk * chunkSize; i < end; ++i) {
+			final int doc = docs[i];
+			index.collectKeys(data[i], new TermIndex.KeySink() {
+				@Override
+				public void key(CharSequence text, int from, int to) {
+					TermDictionary part = parts[partition(text, from, to)];
+					PostingList ids = part.get(text, from, to);
+					if (ids == null) {
+						ids = new PostingList(index.order);
+					}
+					// an entry repeats a key for repeated words and shared
+					// prefixes; with() then returns the same list
+					PostingList updated = ids.with(doc);
+					if (updated != ids) {
+						part.put(text, from, to, updated);
+					}
+				}
+			});
+		}
+		partials[chunk] = parts;
+	}
+
+	private void merge(final int partition) {
+		final TermDictionary keys = new TermDictionary();
+		final ArrayList<PostingList> lists = new ArrayList<>();
+		try {
+			for (int c = 0; c < chunks; ++c) {
+				final int first = c;
+				partials[c][partition].forEach(new TermDictionary.Visitor() {
+					@Override
+					public void visit(CharSequence key, PostingList postings) {
+						if (keys.get(key) != null) {
+							// merged when an earlier chunk had it
+							return;
+						}
+						lists.clear();
+						lists.add(postings);
+						for (int c = first + 1; c < chunks; ++c) {
+							PostingList later = partials[c][partition].get(key);
+							if (later != null) {
+								lists.add(later);
+							}
+						}
+						keys.put(key, 0, key.length(), merge(index.getKey(key),
+								lists));
+					}
+				});
+			}
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		merged[partition] = keys;
+	}
+
+	// existing followed by the new ids; for ASCENDING those all come after
+	// the existing ones and are appended, like sequential adds would
+	private PostingList merge(PostingList existing, ArrayList<PostingList> lists) {
+		PostingList added = lists.size() == 1 ? lists.get(0) : PostingList
+				.union(index.order, lists.toArray(new PostingList[lists.size()]));
+		if (existing == null || existing.isEmpty()) {
+			return added;
+		}
+		if (index.order.compare(existing.get(existing.size() - 1),
+				added.get(0)) < 0) {
+			return existing.withAll(added);
+		}
+		return PostingList.union(index.order, new PostingList[] { existing,
+				added });
+	}
+
+	// other bits of the hash than the ones that pick a dictionary slot
+	private int partition(CharSequence text, int from, int to) {
+		int h = TermDictionary.hash(text, from, to);
+		return (h ^ (h >>> 16)) & (partitions - 1);
+	}
+
+	// runs one phase for every chunk or partition in [from, to), splitting
+	// the range in halves
+	private class Split extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean tokenize;
+		private final int from;
+		private final int to;
+
+		Split(boolean tokenize, int from, int to) {
+			this.tokenize = tokenize;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Split(tokenize, from, mid), new Split(tokenize,
+						mid, to));
+			} else if (to - from == 1 && tokenize) {
+				tokenize(from);
+			} else if (to - from == 1) {
+				merge(from);
+			}
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package quorachallenge;
+
+/**
+ * Hand-written parser for the ADD/DEL/QUERY/WQUERY line protocol. It works in
+ * place over a char buffer: fields are reported as offsets into the line and
+ * numbers are parsed without creating substrings, so parsing a command
+ * allocates nothing. Not thread-safe; every executing thread uses its own.
+ *
+ * Parses what the former regular expressions and Float.parseFloat accepted
+ * into the same fields and bit-identical numbers: the verb ends at the first
+ * whitespace char and the body starts one char after it. What they rejected
+ * is rejected with an IllegalArgumentException, where the regular
+ * expressions also threw IllegalStateException or an index error. One
+ * difference: data and query text may hold \u0085, \u2028 and \u2029, which
+ * the expressions' '.' did not match.
+ *
+ * The parser is also a CharSequence view of the current line, so query terms
+ * can be looked up by offset without copying them out.
+ */
+class CommandParser implements CharSequence {
+
+	enum Command {
+		ADD, DEL, QUERY, WQUERY, UNKNOWN
+	}
+
+	private static final DataEntryType[] TYPES = DataEntryType.values();
+	private static final int INITIAL_BOOSTS = 16;
+
+	// 10^i, all exact as floats
+	private static final float[] POWERS_OF_TEN = { 1e0f, 1e1f, 1e2f, 1e3f,
+			1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+	// largest mantissa whose float conversion is exact
+	private static final int MAX_EXACT_MANTISSA = 1 << 24;
+
+	private char[] scratch = new char[256];
+	private char[] line;
+	private int length;
+	private int pos;
+
+	private Command command;
+	private int verbEnd;
+
+	// ADD
+	private DataEntryType type;
+	private int idFrom, idTo;
+	private float score;
+	private int dataFrom;
+
+	// QUERY, WQUERY
+	private int numResult;
+	private int queryFrom;
+	private int numBoosts;
+	private int[] boostKeyFrom = new int[INITIAL_BOOSTS];
+	private int[] boostKeyTo = new int[INITIAL_BOOSTS];
+	private float[] boostValues = new float[INITIAL_BOOSTS];
+
+	/**
+	 * Parses a line held in a String; its chars are copied into a reused
+	 * buffer.
+	 */
+	public Command parse(String input) {
+		int len = input.length();
+		if (len > scratch.length) {
+			scratch = new char[Math.max(len, scratch.length << 1)];
+		}
+		input.getChars(0, len, scratch, 0);
+		return parse(scratch, len);
+	}
+
+	/**
+	 * Parses buf[0..len), which must stay untouched while the results are
+	 * used.
+	 */
+	public Command parse(char[] buf, int len) {
+		line = buf;
+		length = len;
+		pos = 0;
+		numBoosts = 0;
+
+		while (pos < length && isWhiteSpace(line[pos]) == false) {
+			++pos;
+		}
+		verbEnd = pos;
+		if (pos == length) {
+			// no body at all
+			command = Command.UNKNOWN;
+			return command;
+		}
+		command = verb();
+		pos = verbEnd + 1;
+		switch (command) {
+		case ADD:
+			parseAdd();
+			break;
+		case DEL:
+			idFrom = pos;
+			idTo = length;
+			break;
+		case QUERY:
+			parseQuery();
+			break;
+		case WQUERY:
+			parseWquery();
+			break;
+		default:
+			break;
+		}
+		return command;
+	}
+
+	public Command getCommand() {
+		return command;
+	}
+
+	/**
+	 * the verb as written, for error messages
+	 */
+	public String getVerb() {
+		return new String(line, 0, verbEnd);
+	}
+
+	public DataEntryType getType() {
+		return type;
+	}
+
+	public String getId() {
+		return new String(line, idFrom, idTo - idFrom);
+	}
+
+	public float getScore() {
+		return score;
+	}
+
+	public String getData() {
+		return new String(line, dataFrom, length - dataFrom);
+	}
+
+	public int getNumResult() {
+		return numResult;
+	}
+
+	/**
+	 * the query text runs from here to length()
+	 */
+	public int getQueryFrom() {
+		return queryFrom;
+	}
+
+	public int getNumBoosts() {
+		return numBoosts;
+	}
+
+	/**
+	 * boost key i runs from getBoostKeyFrom(i) to getBoostKeyTo(i)
+	 */
+	public int getBoostKeyFrom(int i) {
+		return boostKeyFrom[i];
+	}
+
+	public int getBoostKeyTo(int i) {
+		return boostKeyTo[i];
+	}
+
+	public String getBoostKey(int i) {
+		return new String(line, boostKeyFrom[i], boostKeyTo[i]
+				- boostKeyFrom[i]);
+	}
+
+	public float getBoostValue(int i) {
+		return boostValues[i];
+	}
+
+	private Command verb() {
+		if (regionEquals(0, verbEnd, "ADD")) {
+			return Command.ADD;
+		} else if (regionEquals(0, verbEnd, "DEL")) {
+			return Command.DEL;
+		} else if (regionEquals(0, verbEnd, "QUERY")) {
+			return Command.QUERY;
+		} else if (regionEquals(0, verbEnd, "WQUERY")) {
+			return Command.WQUERY;
+		}
+		return Command.UNKNOWN;
+	}
+
+	// <type> <id> <score> <data...>
+	private void parseAdd() {
+		int typeFrom = pos;
+		int typeTo = nonWhiteSpace();
+		requireWhiteSpace();
+		idFrom = pos;
+		idTo = nonWhiteSpace();
+		requireWhiteSpace();
+		int scoreFrom = pos;
+		int scoreTo = nonWhiteSpace();
+		skipWhiteSpace();
+		dataFrom = pos;
+
+		type = null;
+		for (DataEntryType t : TYPES) {
+			if (regionEquals(typeFrom, typeTo, t.name())) {
+				type = t;
+				break;
+			}
+		}
+		if (type == null) {
+			throw new IllegalArgumentException("unknown type: "
+					+ new String(line, typeFrom, typeTo - typeFrom));
+		}
+		score = parseFloat(scoreFrom, scoreTo);
+	}
+
+	// <digits> <query...>
+	private void parseQuery() {
+		int from = pos;
+		while (pos < length && line[pos] >= '0' && line[pos] <= '9') {
+			++pos;
+		}
+		if (pos == from) {
+			throw malformed();
+		}
+		numResult = parseInt(from, pos);
+		skipWhiteSpace();
+		queryFrom = pos;
+	}
+
+	// <numResult> <numBoosts> <key:value>... <query...>
+	private void parseWquery() {
+		int from = pos;
+		numResult = parseInt(from, nextWhiteSpace());
+		skipWhiteSpace();
+		from = pos;
+		int numBoost = parseInt(from, nextWhiteSpace());
+		skipWhiteSpace();
+		ensureBoostCapacity(numBoost);
+		for (int i = 0; i < numBoost; ++i) {
+			from = pos;
+			int to = nonWhiteSpace();
+			skipWhiteSpace();
+			int colon = from;
+			while (colon < to && line[colon] != ':') {
+				++colon;
+			}
+			if (colon == to) {
+				throw malformed();
+			}
+			int valueTo = colon + 1;
+			while (valueTo < to && line[valueTo] != ':') {
+				++valueTo;
+			}
+			boostKeyFrom[i] = from;
+			boostKeyTo[i] = colon;
+			boostValues[i] = parseFloat(colon + 1, valueTo);
+		}
+		numBoosts = numBoost;
+		queryFrom = pos;
+	}
+
+	// the numeric field must be followed by whitespace
+	private int nextWhiteSpace() {
+		int end = nonWhiteSpace();
+		if (pos == length) {
+			throw malformed();
+		}
+		return end;
+	}
+
+	private int nonWhiteSpace() {
+		while (pos < length && isWhiteSpace(line[pos]) == false) {
+			++pos;
+		}
+		return pos;
+	}
+
+	private void requireWhiteSpace() {
+		if (pos == length) {
+			throw malformed();
+		}
+		skipWhiteSpace();
+	}
+
+	private void skipWhiteSpace() {
+		while (pos < length && isWhiteSpace(line[pos])) {
+			++pos;
+		}
+	}
+
+	private void ensureBoostCapacity(int n) {
+		if (n > boostValues.length) {
+			boostKeyFrom = new int[n];
+			boostKeyTo = new int[n];
+			boostValues = new float[n];
+		}
+	}
+
+	private boolean regionEquals(int from, int to, String s) {
+		if (to - from != s.length()) {
+			return false;
+		}
+		for (int i = from; i < to; ++i) {
+			if (line[i] != s.charAt(i - from)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private IllegalArgumentException malformed() {
+		return new IllegalArgumentException("malformed command: "
+				+ new String(line, 0, length));
+	}
+
+	// same result as Integer.parseInt on the region
+	private int parseInt(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (line[i] == '-' || line[i] == '+')) {
+			negative = line[i] == '-';
+			++i;
+		}
+		// up to 9 digits cannot overflow
+		if (i == to || to - i > 9) {
+			return Integer.parseInt(new String(line, from, to - from));
+		}
+		int value = 0;
+		for (; i < to; ++i) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return Integer.parseInt(new String(line, from, to - from));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/*
+	 * Same result as Float.parseFloat on the region. Plain decimals with at
+	 * most 7 significant digits and 10 fractional digits are computed as one
+	 * correctly rounded float division of two exact floats; anything else
+	 * falls back to Float.parseFloat.
+	 */
+	private float parseFloat(int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (line[i] == '-' || line[i] == '+')) {
+			negative = line[i] == '-';
+			++i;
+		}
+		int mantissa = 0;
+		int fractionDigits = 0;
+		boolean seenDot = false;
+		boolean seenDigit = false;
+		for (; i < to; ++i) {
+			char c = line[i];
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa > MAX_EXACT_MANTISSA) {
+					return slowParseFloat(from, to);
+				}
+				seenDigit = true;
+				if (seenDot) {
+					fractionDigits++;
+				}
+			} else if (c == '.' && seenDot == false) {
+				seenDot = true;
+			} else {
+				return slowParseFloat(from, to);
+			}
+		}
+		if (seenDigit == false || fractionDigits >= POWERS_OF_TEN.length) {
+			return slowParseFloat(from, to);
+		}
+		float value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
+	private float slowParseFloat(int from, int to) {
+		return Float.parseFloat(new String(line, from, to - from));
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return line[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new String(line, start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		return new String(line, 0, length);
+	}
+
+	static boolean isWhiteSpace(char c) {
+		return DataEntry.isWhiteSpace(c);
+	}
+}
@@ -0,0 +1,82 @@
+package quorachallenge;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class DataEntry {
+
+	private DataEntryType type;
+	private String id;
+	private float score;
+	private String data;
+	private long timeStamp;
+
+	public DataEntryType getType() {
+		return type;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public float getScore() {
+		return score;
+	}
+
+	public String getData() {
+		return data;
+	}
+
+	// last time stamp handed out; time stamps only order entries
+	private static final AtomicLong clock = new AtomicLong(Long.MIN_VALUE);
+
+	public DataEntry(DataEntryType type, String id, float score, String data) {
+		this(type, id, score, data, nextTimeStamp());
+	}
+
+	/**
+	 * An entry that keeps the time stamp it was given, e.g. from a snapshot.
+	 */
+	DataEntry(DataEntryType type, String id, float score, String data,
+			long timeStamp) {
+		this.type = type;
+		this.id = id;
+		this.score = score;
+		this.data = data;
+		this.timeStamp = timeStamp;
+	}
+
+	// System.nanoTime(), but strictly increasing and past every restored one
+	private static long nextTimeStamp() {
+		while (true) {
+			long last = clock.get();
+			long next = Math.max(System.nanoTime(), last + 1);
+			if (clock.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Makes entries created from now on newer than timeStamp, which may come
+	 * from another process whose nanoTime() ran ahead.
+	 */
+	static void advanceClockPast(long timeStamp) {
+		while (true) {
+			long last = clock.get();
+			if (last >= timeStamp || clock.compareAndSet(last, timeStamp)) {
+				return;
+			}
+		}
+	}
+
+	// the \s class that used to split data into words
+	public static boolean isWhiteSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+				|| c == '\f' || c == '\r';
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+}
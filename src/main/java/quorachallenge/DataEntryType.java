@@ -0,0 +1,5 @@
+package quorachallenge;
+
+enum DataEntryType {
+	user, topic, question, board
+}
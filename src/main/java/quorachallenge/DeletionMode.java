@@ -0,0 +1,22 @@
+package quorachallenge;
+
+/**
+ * What a DEL, or the ADD that replaces an entry, does to the posting lists
+ * of the entry it removes.
+ */
+enum DeletionMode {
+	/**
+	 * takes the entry out of the list of every prefix of its words at once
+	 */
+	EAGER,
+
+	/**
+	 * only marks the entry dead, which queries already skip; a background
+	 * compactor takes dead entries out of the lists in batches, once they
+	 * are a large enough share of the index. The lists are not touched, but
+	 * a prefix top-K or a result cache, when on, is still updated at once,
+	 * which costs O(k) per prefix of up to PrefixTopK.MAX_PREFIX_LENGTH
+	 * letters and O(length) of the entry's data, not O(1).
+	 */
+	LAZY
+}
@@ -0,0 +1,17 @@
+package quorachallenge;
+
+/**
+ * Where an EntryStore keeps the id and data text of its entries.
+ */
+enum EntryStorage {
+	/**
+	 * byte[] pages on the Java heap
+	 */
+	HEAP,
+
+	/**
+	 * direct buffers outside the Java heap, so a large index does not need
+	 * a large heap
+	 */
+	OFF_HEAP
+}
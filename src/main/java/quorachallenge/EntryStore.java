@@ -0,0 +1,513 @@
+package quorachallenge;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The entries of a QuoraIndexer by internal doc id, kept in columns rather
+ * than as one DataEntry object each: type, score and time stamp in primitive
+ * arrays, and id and data packed into large text pages, one byte per char
+ * when every char fits (two otherwise). With EntryStorage.OFF_HEAP the pages
+ * are direct buffers outside the Java heap. DataEntry objects are only
+ * created on lookup.
+ *
+ * The id -> doc table is an open-addressed int array whose keys are read
+ * back from the pages, so ids are not held a second time either.
+ *
+ * Single writer, lock-free readers, like the rest of the indexer: columns
+ * and the pages they point into are published together through a volatile
+ * field, and the text of an entry is never overwritten. A slot of the id
+ * table only ever goes from empty to a doc to deleted, so a reader probing
+ * it while the writer maps ids sees an id either mapped or not, never
+ * wrongly.
+ *
+ * A deleted entry keeps its text until the indexer releases it, once no
+ * posting list it may be taken out of holds it anymore. When released text
+ * is half of all, the text still held is copied into new pages, which are
+ * published with a new texts column; readers of the old columns keep the
+ * old pages until they let go of them, and off-heap pages are freed when
+ * collected. The columns, a few dozen bytes per doc, are indexed by doc and
+ * so grow with every doc ever stored, as doc ids are not reused.
+ *
+ * A store restored from a snapshot starts out with pages that are slices of
+ * the mapped file (see IndexSnapshot), so its text is read in place until
+ * compacting copies what is left of it into pages of its own.
+ */
+class EntryStore {
+
+	private static final int INITIAL_DOCS = 1024;
+	private static final int INITIAL_ID_SLOTS = 1024;
+	// bytes per text page; longer texts get a page of their own
+	static final int PAGE_SIZE = 1 << 20;
+
+	// flags next to the type ordinal in the types column
+	private static final byte WIDE = 0x20;
+	// unset for deleted docs and for docs never stored, e.g. ids a
+	// snapshot skipped
+	private static final byte LIVE = 0x40;
+	private static final byte TYPE_MASK = 0x1f;
+	private static final DataEntryType[] TYPES = DataEntryType.values();
+
+	private static final int EMPTY = 0;
+	private static final int TOMBSTONE = -1;
+
+	// in the texts column, for text released after a delete
+	private static final long NO_TEXT = -1;
+
+	private final boolean offHeap;
+
+	private volatile Columns columns = new Columns(INITIAL_DOCS);
+	// the pages being written to; readers use those of their columns
+	private ByteBuffer[] pages = new ByteBuffer[0];
+	private int pagePosition;
+	private int live;
+	// docs stored so far are below it
+	private int docLimit;
+	// text bytes in pages, and how many of them have been released
+	private long textBytes;
+	private long releasedBytes;
+
+	// lower-cased id hash -> doc + 1, EMPTY or TOMBSTONE; replaced when
+	// rehashed
+	private volatile IdTable ids = new IdTable(INITIAL_ID_SLOTS);
+	private int idUsed;
+
+	EntryStore(EntryStorage storage) {
+		offHeap = storage == EntryStorage.OFF_HEAP;
+	}
+
+	/**
+	 * Stores entry under doc, which must not hold a live entry, and maps its
+	 * id to doc. Writer only.
+	 */
+	public void put(int doc, DataEntry entry) {
+		String id = entry.getId();
+		String data = entry.getData();
+		boolean wide = isWide(id) || isWide(data);
+		int bytes = (id.length() + data.length()) * (wide ? 2 : 1);
+		long text = allocate(bytes);
+		ByteBuffer page = pages[(int) (text >>> 32)];
+		int pos = (int) text;
+		pos = write(page, pos, id, wide);
+		write(page, pos, data, wide);
+		store(doc, (byte) (entry.getType().ordinal() | LIVE | (wide ? WIDE
+				: 0)), entry.getScore(), entry.getTimeStamp(), text,
+				id.length(), data.length(), TermDictionary.hash(id, 0,
+						id.length()));
+	}
+
+	/**
+	 * Takes over pages of text mapped from a snapshot, for restore() to
+	 * point into; text put later goes to new pages. Writer only, before
+	 * anything is stored.
+	 */
+	public void restorePages(ByteBuffer[] mapped) {
+		pages = mapped.clone();
+		// the last one is full
+		pagePosition = mapped.length == 0 ? 0 : mapped[mapped.length - 1]
+				.capacity();
+	}
+
+	/**
+	 * Stores an entry whose id and data are in page (an index into
+	 * restorePages) from offset on, one byte per char unless wide, and maps
+	 * its id, whose TermDictionary.hash is idHash. Neither is read. Writer
+	 * only.
+	 */
+	public void restore(int doc, DataEntryType type, float score,
+			long timeStamp, boolean wide, int page, int offset, int idLength,
+			int dataLength, int idHash) {
+		textBytes += (idLength + dataLength) * (wide ? 2 : 1);
+		store(doc, (byte) (type.ordinal() | LIVE | (wide ? WIDE : 0)), score,
+				timeStamp, (long) page << 32 | offset, idLength, dataLength,
+				idHash);
+	}
+
+	private void store(int doc, byte type, float score, long timeStamp,
+			long text, int idLength, int dataLength, int idHash) {
+		Columns cols = columns;
+		while (doc >= cols.types.length) {
+			cols = cols.grow();
+		}
+		if (cols.pages != pages) {
+			cols = cols.withTexts(cols.texts, pages);
+		}
+		cols.types[doc] = type;
+		cols.scores[doc] = score;
+		cols.timeStamps[doc] = timeStamp;
+		cols.texts[doc] = text;
+		cols.idLengths[doc] = idLength;
+		cols.dataLengths[doc] = dataLength;
+		// volatile write: the entry is complete before any list holding doc
+		// is published
+		columns = cols;
+		mapId(doc, idHash);
+		live++;
+		docLimit = Math.max(docLimit, doc + 1);
+	}
+
+	/**
+	 * Marks doc deleted and unmaps its id. Score and time stamp stay, as
+	 * older versions of posting lists still rank by them. Writer only.
+	 */
+	public void delete(int doc) {
+		Columns cols = columns;
+		if ((cols.types[doc] & LIVE) == 0) {
+			return;
+		}
+		unmapId(doc);
+		cols.types[doc] &= ~LIVE;
+		// volatile write: with lazy deletes no new list tells readers
+		columns = cols;
+		live--;
+	}
+
+	/**
+	 * Drops the text of doc, a deleted entry, which the indexer will not
+	 * read anymore: getId and getData return "" from now on, and get()
+	 * null as for any deleted doc. Writer only.
+	 */
+	public void release(int doc) {
+		Columns cols = columns;
+		if ((cols.types[doc] & LIVE) != 0 || cols.texts[doc] == NO_TEXT) {
+			return;
+		}
+		releasedBytes += textBytes(cols, doc);
+		// a reader reads the column once, and gets the text or none
+		cols.texts[doc] = NO_TEXT;
+		if (releasedBytes >= PAGE_SIZE && releasedBytes * 2 > textBytes) {
+			compactPages();
+		}
+	}
+
+	/**
+	 * live doc whose id equals id, ignoring case, or -1
+	 */
+	public int find(CharSequence id) {
+		return find(id, 0, id.length());
+	}
+
+	/**
+	 * same as find(id.subSequence(from, to))
+	 */
+	public int find(CharSequence id, int from, int to) {
+		IdTable table = ids;
+		int h = TermDictionary.hash(id, from, to);
+		int mask = table.docs.length - 1;
+		for (int i = home(h, mask);; i = (i + 1) & mask) {
+			int slot = table.docs[i];
+			if (slot == EMPTY) {
+				return -1;
+			}
+			if (slot != TOMBSTONE && table.hashes[i] == h
+					&& idEquals(slot - 1, id, from, to)) {
+				return slot - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return the entry, or null if it has been deleted
+	 */
+	public DataEntry get(int doc) {
+		// one columns and one text for both id and data: the writer may
+		// release the text or compact the pages meanwhile
+		Columns cols = columns;
+		byte type = cols.types[doc];
+		long text = cols.texts[doc];
+		if ((type & LIVE) == 0 || text == NO_TEXT) {
+			return null;
+		}
+		int idLength = cols.idLengths[doc];
+		String id = read(cols, text, type, 0, idLength);
+		String data = read(cols, text, type, idLength, cols.dataLengths[doc]);
+		// deleted since: its text may have been released before it was read
+		if ((cols.types[doc] & LIVE) == 0) {
+			return null;
+		}
+		return new DataEntry(TYPES[type & TYPE_MASK], id, cols.scores[doc],
+				data, cols.timeStamps[doc]);
+	}
+
+	public boolean isLive(int doc) {
+		return (columns.types[doc] & LIVE) != 0;
+	}
+
+	public DataEntryType getType(int doc) {
+		return TYPES[columns.types[doc] & TYPE_MASK];
+	}
+
+	public float getScore(int doc) {
+		return columns.scores[doc];
+	}
+
+	public long getTimeStamp(int doc) {
+		return columns.timeStamps[doc];
+	}
+
+	/**
+	 * the id of doc, "" once a deleted doc's text has been released
+	 */
+	public String getId(int doc) {
+		Columns cols = columns;
+		return read(cols, cols.texts[doc], cols.types[doc], 0,
+				cols.idLengths[doc]);
+	}
+
+	/**
+	 * the data of doc, "" once a deleted doc's text has been released
+	 */
+	public String getData(int doc) {
+		Columns cols = columns;
+		return read(cols, cols.texts[doc], cols.types[doc],
+				cols.idLengths[doc], cols.dataLengths[doc]);
+	}
+
+	/**
+	 * number of live entries
+	 */
+	public int size() {
+		return live;
+	}
+
+	// length chars of text, read from cols, from char from on
+	private static String read(Columns cols, long text, byte type, int from,
+			int length) {
+		if (text == NO_TEXT) {
+			return "";
+		}
+		ByteBuffer page = cols.pages[(int) (text >>> 32)];
+		char[] chars = new char[length];
+		if ((type & WIDE) != 0) {
+			int pos = (int) text + 2 * from;
+			for (int i = 0; i < length; ++i) {
+				chars[i] = page.getChar(pos + 2 * i);
+			}
+		} else {
+			int pos = (int) text + from;
+			for (int i = 0; i < length; ++i) {
+				chars[i] = (char) (page.get(pos + i) & 0xff);
+			}
+		}
+		return new String(chars);
+	}
+
+	private boolean idEquals(int doc, CharSequence id, int from, int to) {
+		Columns cols = columns;
+		// a reader may see a slot mapped after its columns were read
+		if (doc >= cols.types.length) {
+			return false;
+		}
+		int length = cols.idLengths[doc];
+		if (length != to - from) {
+			return false;
+		}
+		long text = cols.texts[doc];
+		if (text == NO_TEXT) {
+			return false;
+		}
+		ByteBuffer page = cols.pages[(int) (text >>> 32)];
+		int pos = (int) text;
+		boolean wide = (cols.types[doc] & WIDE) != 0;
+		for (int i = 0; i < length; ++i) {
+			char c = wide ? page.getChar(pos + 2 * i) : (char) (page
+					.get(pos + i) & 0xff);
+			if (Character.toLowerCase(c) != Character.toLowerCase(id
+					.charAt(from + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// whether s takes two bytes per char in a page
+	static boolean isWide(String s) {
+		for (int i = 0; i < s.length(); ++i) {
+			if (s.charAt(i) > 0xff) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// writes s to page from pos on, in two bytes per char if wide; returns
+	// the position after it
+	static int write(ByteBuffer page, int pos, String s, boolean wide) {
+		for (int i = 0; i < s.length(); ++i) {
+			if (wide) {
+				page.putChar(pos, s.charAt(i));
+				pos += 2;
+			} else {
+				page.put(pos++, (byte) s.charAt(i));
+			}
+		}
+		return pos;
+	}
+
+	private static int textBytes(Columns cols, int doc) {
+		return (cols.idLengths[doc] + cols.dataLengths[doc])
+				* ((cols.types[doc] & WIDE) != 0 ? 2 : 1);
+	}
+
+	// room for bytes in a page: page index << 32 | position in the page
+	private long allocate(int bytes) {
+		ByteBuffer[] p = pages;
+		if (p.length == 0 || pagePosition + bytes > p[p.length - 1].capacity()) {
+			ByteBuffer page = offHeap ? ByteBuffer.allocateDirect(Math.max(
+					PAGE_SIZE, bytes)) : ByteBuffer.allocate(Math.max(
+					PAGE_SIZE, bytes));
+			p = Arrays.copyOf(p, p.length + 1);
+			p[p.length - 1] = page;
+			pages = p;
+			pagePosition = 0;
+		}
+		long text = (long) (p.length - 1) << 32 | pagePosition;
+		pagePosition += bytes;
+		textBytes += bytes;
+		return text;
+	}
+
+	// copies the text not released into new pages
+	private void compactPages() {
+		Columns cols = columns;
+		long[] texts = new long[cols.texts.length];
+		Arrays.fill(texts, NO_TEXT);
+		pages = new ByteBuffer[0];
+		pagePosition = 0;
+		textBytes = 0;
+		for (int doc = 0; doc < docLimit; ++doc) {
+			long old = cols.texts[doc];
+			int bytes = textBytes(cols, doc);
+			if (old == NO_TEXT || bytes == 0) {
+				continue;
+			}
+			long text = allocate(bytes);
+			ByteBuffer from = cols.pages[(int) (old >>> 32)].duplicate();
+			from.position((int) old).limit((int) old + bytes);
+			ByteBuffer to = pages[(int) (text >>> 32)].duplicate();
+			to.position((int) text);
+			to.put(from);
+			texts[doc] = text;
+		}
+		releasedBytes = 0;
+		columns = cols.withTexts(texts, pages);
+	}
+
+	// ids are case-insensitive, like terms
+	private static int home(int h, int mask) {
+		int x = h * 0x9E3779B9;
+		return (x ^ (x >>> 16)) & mask;
+	}
+
+	private void mapId(int doc, int h) {
+		IdTable table = ids;
+		if ((idUsed + 1) > table.docs.length * 3L / 4) {
+			table = rehashIds(table);
+		}
+		int mask = table.docs.length - 1;
+		int i = home(h, mask);
+		while (table.docs[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		// the hash before the doc, which makes the slot visible
+		table.hashes[i] = h;
+		table.docs[i] = doc + 1;
+		idUsed++;
+		ids = table;
+	}
+
+	private void unmapId(int doc) {
+		IdTable table = ids;
+		int mask = table.docs.length - 1;
+		String id = getId(doc);
+		for (int i = home(TermDictionary.hash(id, 0, id.length()), mask);; i = (i + 1)
+				& mask) {
+			if (table.docs[i] == EMPTY) {
+				return;
+			}
+			if (table.docs[i] == doc + 1) {
+				table.docs[i] = TOMBSTONE;
+				return;
+			}
+		}
+	}
+
+	// drops the tombstones, growing the table if live ids need it; readers
+	// still probing the old table are not disturbed
+	private IdTable rehashIds(IdTable old) {
+		int slots = INITIAL_ID_SLOTS;
+		while (slots * 3L / 8 < live + 1) {
+			slots <<= 1;
+		}
+		IdTable table = new IdTable(slots);
+		int mask = slots - 1;
+		for (int k = 0; k < old.docs.length; ++k) {
+			if (old.docs[k] > 0) {
+				int i = home(old.hashes[k], mask);
+				while (table.docs[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				table.hashes[i] = old.hashes[k];
+				table.docs[i] = old.docs[k];
+			}
+		}
+		idUsed = live;
+		return table;
+	}
+
+	private static class IdTable {
+		final int[] hashes;
+		final int[] docs;
+
+		IdTable(int slots) {
+			hashes = new int[slots];
+			docs = new int[slots];
+		}
+	}
+
+	private static class Columns {
+		final byte[] types;
+		final float[] scores;
+		final long[] timeStamps;
+		// page index << 32 | position of the id, followed by the data
+		final long[] texts;
+		final int[] idLengths;
+		final int[] dataLengths;
+		// what texts point into
+		final ByteBuffer[] pages;
+
+		Columns(int capacity) {
+			this(new byte[capacity], new float[capacity], new long[capacity],
+					new long[capacity], new int[capacity], new int[capacity],
+					new ByteBuffer[0]);
+		}
+
+		private Columns(byte[] types, float[] scores, long[] timeStamps,
+				long[] texts, int[] idLengths, int[] dataLengths,
+				ByteBuffer[] pages) {
+			this.types = types;
+			this.scores = scores;
+			this.timeStamps = timeStamps;
+			this.texts = texts;
+			this.idLengths = idLengths;
+			this.dataLengths = dataLengths;
+			this.pages = pages;
+		}
+
+		Columns grow() {
+			int capacity = types.length << 1;
+			return new Columns(Arrays.copyOf(types, capacity), Arrays.copyOf(
+					scores, capacity), Arrays.copyOf(timeStamps, capacity),
+					Arrays.copyOf(texts, capacity), Arrays.copyOf(idLengths,
+							capacity), Arrays.copyOf(dataLengths, capacity),
+					pages);
+		}
+
+		// the other columns are shared: the writer only ever adds to them
+		// or clears LIVE, which readers of either see alike
+		Columns withTexts(long[] texts, ByteBuffer[] pages) {
+			return new Columns(types, scores, timeStamps, texts, idLengths,
+					dataLengths, pages);
+		}
+	}
+}
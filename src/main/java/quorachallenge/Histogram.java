@@ -0,0 +1,102 @@
+package quorachallenge;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts of non-negative values in log-linear buckets, like HdrHistogram:
+ * every power of two is split into SUB_BUCKETS / 2 equal buckets, so a
+ * percentile is off by at most 1 / 32 of its value, whatever its magnitude.
+ * Values below SUB_BUCKETS are counted exactly.
+ *
+ * Lock-free: recording is an atomic increment of one bucket, so any number
+ * of threads can record while another one reads percentiles.
+ */
+class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS >>> 1;
+	private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS)
+			* HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		sum.addAndGet(value);
+		long m = max.get();
+		while (value > m && max.compareAndSet(m, value) == false) {
+			m = max.get();
+		}
+	}
+
+	public long count() {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			n += counts.get(i);
+		}
+		return n;
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		long n = count();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * the value that percent of the recorded values do not exceed, rounded
+	 * up to the top of its bucket; 0 if nothing was recorded
+	 */
+	public long percentile(double percent) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percent / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int bucket(long value) {
+		int bits = 64 - Long.numberOfLeadingZeros(value);
+		if (bits <= SUB_BUCKET_BITS) {
+			return (int) value;
+		}
+		int shift = bits - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF);
+	}
+
+	// largest value counted in bucket i
+	static long highest(int i) {
+		if (i < SUB_BUCKETS) {
+			return i;
+		}
+		int shift = (i - SUB_BUCKETS) / HALF + 1;
+		long sub = (i - SUB_BUCKETS) % HALF + HALF;
+		long high = ((sub + 1) << shift) - 1;
+		// the top bucket ends at Long.MAX_VALUE
+		return high < 0 ? Long.MAX_VALUE : high;
+	}
+}
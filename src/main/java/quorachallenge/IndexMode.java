@@ -0,0 +1,19 @@
+package quorachallenge;
+
+/**
+ * Which terms QuoraIndexer keeps posting lists for. Chosen once at startup.
+ */
+enum IndexMode {
+	/**
+	 * every prefix of every word; a query term is one lookup
+	 */
+	PREFIX,
+
+	/**
+	 * whole words only, in sorted order, plus the lists of the hot one- and
+	 * two-letter prefixes; longer prefixes union the lists of the words in
+	 * their range. Index size and ADD cost grow with the number of words
+	 * rather than the number of characters.
+	 */
+	WORD
+}
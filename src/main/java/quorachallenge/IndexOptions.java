@@ -0,0 +1,330 @@
+package quorachallenge;
+
+import java.io.File;
+
+/**
+ * Startup settings of a TypeaheadSearch and its QuoraIndexer.
+ */
+class IndexOptions implements Cloneable {
+
+	// --order=entry_id|score
+	private static final String ORDER_OPTION = "--order=";
+	// --index=prefix|word
+	private static final String INDEX_OPTION = "--index=";
+	// --bulk-load=<batch size>, 0 for off
+	private static final String BULK_LOAD_OPTION = "--bulk-load=";
+	// --entries=heap|off_heap
+	private static final String ENTRIES_OPTION = "--entries=";
+	// --postings=plain|packed|roaring
+	private static final String POSTINGS_OPTION = "--postings=";
+	// --deletes=eager|lazy
+	private static final String DELETES_OPTION = "--deletes=";
+	// --compact-ratio=<dead share of entries>
+	private static final String COMPACT_RATIO_OPTION = "--compact-ratio=";
+	// --shards=<shards>
+	private static final String SHARDS_OPTION = "--shards=";
+	// --cache=<results>, 0 for off
+	private static final String CACHE_OPTION = "--cache=";
+	// --top-k=<entries per prefix>, 0 for off
+	private static final String TOP_K_OPTION = "--top-k=";
+	// --sessions=<sessions>, 0 for off
+	private static final String SESSIONS_OPTION = "--sessions=";
+	// --metrics=on|off
+	private static final String METRICS_OPTION = "--metrics=";
+	// --metrics-interval=<milliseconds>, 0 for at exit only
+	private static final String METRICS_INTERVAL_OPTION = "--metrics-interval=";
+	// --port=<port>, serve TCP clients instead of stdin
+	private static final String PORT_OPTION = "--port=";
+	// --snapshot=<file>
+	private static final String SNAPSHOT_OPTION = "--snapshot=";
+	// --wal=<file>
+	private static final String WAL_OPTION = "--wal=";
+	// --fsync-interval=<milliseconds>
+	private static final String FSYNC_INTERVAL_OPTION = "--fsync-interval=";
+
+	private PostingOrder postingOrder = PostingOrder.ENTRY_ID;
+	private IndexMode indexMode = IndexMode.PREFIX;
+	private EntryStorage entryStorage = EntryStorage.HEAP;
+	private PostingFormat postingFormat = PostingFormat.PLAIN;
+	private int bulkLoadSize = 0;
+	private DeletionMode deletionMode = DeletionMode.EAGER;
+	private double compactRatio = 0.2;
+	private int shardCount = 1;
+	private int cacheSize = 0;
+	private int topK = 0;
+	private int sessionCount = 0;
+	private boolean metricsEnabled = false;
+	private long metricsIntervalMillis = 0;
+	private int port = -1;
+	private File snapshotFile;
+	private File logFile;
+	private long fsyncIntervalMillis = WriteAheadLog.DEFAULT_FSYNC_INTERVAL_MILLIS;
+
+	public PostingOrder getPostingOrder() {
+		return postingOrder;
+	}
+
+	public IndexOptions setPostingOrder(PostingOrder postingOrder) {
+		this.postingOrder = postingOrder;
+		return this;
+	}
+
+	public IndexMode getIndexMode() {
+		return indexMode;
+	}
+
+	public IndexOptions setIndexMode(IndexMode indexMode) {
+		this.indexMode = indexMode;
+		return this;
+	}
+
+	public EntryStorage getEntryStorage() {
+		return entryStorage;
+	}
+
+	public IndexOptions setEntryStorage(EntryStorage entryStorage) {
+		this.entryStorage = entryStorage;
+		return this;
+	}
+
+	public PostingFormat getPostingFormat() {
+		return postingFormat;
+	}
+
+	public IndexOptions setPostingFormat(PostingFormat postingFormat) {
+		this.postingFormat = postingFormat;
+		return this;
+	}
+
+	/**
+	 * Up to this many consecutive ADD lines of a stream are indexed together
+	 * by QuoraIndexer.addAll; 0 adds them one by one.
+	 */
+	public int getBulkLoadSize() {
+		return bulkLoadSize;
+	}
+
+	public IndexOptions setBulkLoadSize(int bulkLoadSize) {
+		this.bulkLoadSize = bulkLoadSize;
+		return this;
+	}
+
+	public DeletionMode getDeletionMode() {
+		return deletionMode;
+	}
+
+	public IndexOptions setDeletionMode(DeletionMode deletionMode) {
+		this.deletionMode = deletionMode;
+		return this;
+	}
+
+	/**
+	 * With lazy deletes, dead entries are compacted out of the posting lists
+	 * once they are more than this share of the entries in them.
+	 */
+	public double getCompactRatio() {
+		return compactRatio;
+	}
+
+	public IndexOptions setCompactRatio(double compactRatio) {
+		this.compactRatio = compactRatio;
+		return this;
+	}
+
+	/**
+	 * Entries are partitioned among this many QuoraIndexers by id, and a
+	 * query runs on all of them in parallel. Snapshot and log files get one
+	 * per shard, see TypeaheadSearch.shardFile().
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public IndexOptions setShardCount(int shardCount) {
+		this.shardCount = shardCount;
+		return this;
+	}
+
+	/**
+	 * Up to this many query results are cached, see QueryCache; 0 caches
+	 * none.
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public IndexOptions setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+		return this;
+	}
+
+	/**
+	 * Every prefix of up to PrefixTopK.MAX_PREFIX_LENGTH letters keeps its
+	 * best this many entries, which answer single-term queries without
+	 * boosts for as many results or fewer; 0 keeps none.
+	 */
+	public int getTopK() {
+		return topK;
+	}
+
+	public IndexOptions setTopK(int topK) {
+		this.topK = topK;
+		return this;
+	}
+
+	/**
+	 * Up to this many client sessions keep the candidates of their last
+	 * query, see QuerySessions; 0 keeps none. Only ENTRY_ID order with one
+	 * shard uses them.
+	 */
+	public int getSessionCount() {
+		return sessionCount;
+	}
+
+	public IndexOptions setSessionCount(int sessionCount) {
+		this.sessionCount = sessionCount;
+		return this;
+	}
+
+	/**
+	 * Whether Metrics records anything; when on, it is registered with JMX
+	 * and dumped to stderr at exit.
+	 */
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	public IndexOptions setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+		return this;
+	}
+
+	/**
+	 * Metrics are also dumped to stderr this often; 0 for at exit only.
+	 */
+	public long getMetricsIntervalMillis() {
+		return metricsIntervalMillis;
+	}
+
+	public IndexOptions setMetricsIntervalMillis(long metricsIntervalMillis) {
+		this.metricsIntervalMillis = metricsIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * TCP port TypeaheadServer listens on, 0 for any free one; -1 reads
+	 * commands from the input stream instead.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	public IndexOptions setPort(int port) {
+		this.port = port;
+		return this;
+	}
+
+	/**
+	 * Index snapshot loaded at startup, if the file exists, and written when
+	 * the input ends or the server shuts down; null for none.
+	 */
+	public File getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	public IndexOptions setSnapshotFile(File snapshotFile) {
+		this.snapshotFile = snapshotFile;
+		return this;
+	}
+
+	/**
+	 * Write-ahead log replayed at startup and appended to by every ADD and
+	 * DEL; null for none.
+	 */
+	public File getLogFile() {
+		return logFile;
+	}
+
+	public IndexOptions setLogFile(File logFile) {
+		this.logFile = logFile;
+		return this;
+	}
+
+	/**
+	 * Longest time a logged command waits to be fsynced.
+	 */
+	public long getFsyncIntervalMillis() {
+		return fsyncIntervalMillis;
+	}
+
+	public IndexOptions setFsyncIntervalMillis(long fsyncIntervalMillis) {
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * a copy to change without changing these
+	 */
+	public IndexOptions copy() {
+		try {
+			return (IndexOptions) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Applies a --name=value command line argument.
+	 * 
+	 * @return false if arg is not an option
+	 */
+	public boolean parse(String arg) {
+		if (arg.startsWith(ORDER_OPTION)) {
+			postingOrder = PostingOrder.valueOf(value(arg, ORDER_OPTION));
+		} else if (arg.startsWith(INDEX_OPTION)) {
+			indexMode = IndexMode.valueOf(value(arg, INDEX_OPTION));
+		} else if (arg.startsWith(ENTRIES_OPTION)) {
+			entryStorage = EntryStorage.valueOf(value(arg, ENTRIES_OPTION));
+		} else if (arg.startsWith(POSTINGS_OPTION)) {
+			postingFormat = PostingFormat.valueOf(value(arg, POSTINGS_OPTION));
+		} else if (arg.startsWith(BULK_LOAD_OPTION)) {
+			bulkLoadSize = Integer.parseInt(arg.substring(BULK_LOAD_OPTION
+					.length()));
+		} else if (arg.startsWith(DELETES_OPTION)) {
+			deletionMode = DeletionMode.valueOf(value(arg, DELETES_OPTION));
+		} else if (arg.startsWith(COMPACT_RATIO_OPTION)) {
+			compactRatio = Double.parseDouble(arg
+					.substring(COMPACT_RATIO_OPTION.length()));
+		} else if (arg.startsWith(SHARDS_OPTION)) {
+			shardCount = Integer.parseInt(arg.substring(SHARDS_OPTION.length()));
+		} else if (arg.startsWith(CACHE_OPTION)) {
+			cacheSize = Integer.parseInt(arg.substring(CACHE_OPTION.length()));
+		} else if (arg.startsWith(TOP_K_OPTION)) {
+			topK = Integer.parseInt(arg.substring(TOP_K_OPTION.length()));
+		} else if (arg.startsWith(SESSIONS_OPTION)) {
+			sessionCount = Integer.parseInt(arg.substring(SESSIONS_OPTION
+					.length()));
+		} else if (arg.startsWith(METRICS_INTERVAL_OPTION)) {
+			metricsIntervalMillis = Long.parseLong(arg
+					.substring(METRICS_INTERVAL_OPTION.length()));
+		} else if (arg.startsWith(METRICS_OPTION)) {
+			metricsEnabled = value(arg, METRICS_OPTION).equals("ON");
+		} else if (arg.startsWith(PORT_OPTION)) {
+			port = Integer.parseInt(arg.substring(PORT_OPTION.length()));
+		} else if (arg.startsWith(SNAPSHOT_OPTION)) {
+			snapshotFile = new File(arg.substring(SNAPSHOT_OPTION.length()));
+		} else if (arg.startsWith(WAL_OPTION)) {
+			logFile = new File(arg.substring(WAL_OPTION.length()));
+		} else if (arg.startsWith(FSYNC_INTERVAL_OPTION)) {
+			fsyncIntervalMillis = Long.parseLong(arg
+					.substring(FSYNC_INTERVAL_OPTION.length()));
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static String value(String arg, String option) {
+		return arg.substring(option.length()).toUpperCase();
+	}
+}
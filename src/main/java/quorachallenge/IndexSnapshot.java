@@ -0,0 +1,249 @@
+package quorachallenge;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+
+/**
+ * Binary image of a QuoraIndexer, so a restart loads the index instead of
+ * replaying every command that built it.
+ *
+ * The file holds the text of the live entries in EntryStore's page format,
+ * the entries under their internal doc ids, then every key of the term
+ * index with its posting list in list order. Loading maps the file and
+ * serves from the mapping rather than copying it: the text pages are slices
+ * of it, and ENTRY_ID lists read their ids from it through MappedIds until
+ * a write changes them. Only the entry columns, the id table and the keys
+ * are built on the heap, and SCORE lists, which MappedIds cannot hold as
+ * they are not ascending, are copied. Nothing is tokenized, hashed twice or
+ * sorted again.
+ *
+ * An index restored from a file reads it for as long as it lives, so the
+ * file must not be truncated or written in place meanwhile. writeSnapshot
+ * replaces it by moving a new file over it, which leaves the old one mapped.
+ *
+ * <pre>
+ * int magic, int version, byte posting order, byte index mode, int doc count
+ * pages: int length, byte[length] text
+ * int -1
+ * entries: int doc, byte type, byte wide, float score, long time stamp,
+ *          int id hash, int page, int offset, int id length, int data length
+ * int -1
+ * keys: str key, int size, int[size] docs
+ * int -1
+ * </pre>
+ *
+ * Big-endian; str is an int char count followed by UTF-16 chars. An entry's
+ * id and data follow each other in its page from offset on, one byte per
+ * char unless wide, and its id hash is TermDictionary.hash of its id.
+ */
+class IndexSnapshot {
+
+	private static final int MAGIC = 0x51545331; // "QTS1"
+	private static final int VERSION = 2;
+	private static final int END = -1;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private static final PostingOrder[] ORDERS = PostingOrder.values();
+	private static final IndexMode[] MODES = IndexMode.values();
+	private static final DataEntryType[] TYPES = DataEntryType.values();
+
+	private IndexSnapshot() {
+	}
+
+	/**
+	 * Writes to a temporary file that then replaces file, so a crash never
+	 * leaves a half-written snapshot behind. Writer only.
+	 */
+	static void write(QuoraIndexer indexer, File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp),
+						WRITE_BUFFER_SIZE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(indexer.getPostingOrder().ordinal());
+			out.writeByte(indexer.getIndexMode().ordinal());
+			int docCount = indexer.getDocCount();
+			out.writeInt(docCount);
+
+			PageLayout layout = new PageLayout();
+			ByteBuffer page = null;
+			int pageCount = 0;
+			int pageLength = 0;
+			for (int doc = 0; doc < docCount; ++doc) {
+				DataEntry entry = indexer.lookupByid(doc);
+				if (entry == null) {
+					continue;
+				}
+				boolean wide = isWide(entry);
+				int bytes = textBytes(entry, wide);
+				long at = layout.place(bytes);
+				if ((int) (at >>> 32) == pageCount) {
+					// the text starts a new page
+					writePage(out, page, pageLength);
+					page = ByteBuffer.allocate(layout.capacity);
+					pageCount++;
+				}
+				EntryStore.write(page, EntryStore.write(page, (int) at,
+						entry.getId(), wide), entry.getData(), wide);
+				pageLength = (int) at + bytes;
+			}
+			writePage(out, page, pageLength);
+			out.writeInt(END);
+
+			// the same layout again, now that the pages are written
+			layout = new PageLayout();
+			for (int doc = 0; doc < docCount; ++doc) {
+				DataEntry entry = indexer.lookupByid(doc);
+				if (entry == null) {
+					continue;
+				}
+				String id = entry.getId();
+				boolean wide = isWide(entry);
+				long at = layout.place(textBytes(entry, wide));
+				out.writeInt(doc);
+				out.writeByte(entry.getType().ordinal());
+				out.writeByte(wide ? 1 : 0);
+				out.writeFloat(entry.getScore());
+				out.writeLong(entry.getTimeStamp());
+				out.writeInt(TermDictionary.hash(id, 0, id.length()));
+				out.writeInt((int) (at >>> 32));
+				out.writeInt((int) at);
+				out.writeInt(id.length());
+				out.writeInt(entry.getData().length());
+			}
+			out.writeInt(END);
+
+			indexer.getTerms().forEachKey(new TermDictionary.Visitor() {
+				@Override
+				public void visit(CharSequence term, PostingList postings)
+						throws IOException {
+					writeString(out, term);
+					int[] docs = postings.docs();
+					out.writeInt(postings.size());
+					for (int i = 0; i < postings.size(); ++i) {
+						out.writeInt(docs[i]);
+					}
+				}
+			});
+			out.writeInt(END);
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// with the file's posting order and index mode; options is left as is
+	static QuoraIndexer read(File file, IndexOptions options)
+			throws IOException {
+		try (MappedInput in = new MappedInput(file)) {
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("not an index snapshot: " + file);
+			}
+			QuoraIndexer indexer = new QuoraIndexer(options.copy()
+					.setPostingOrder(ORDERS[in.getByte()])
+					.setIndexMode(MODES[in.getByte()]));
+			int docCount = in.getInt();
+
+			ArrayList<ByteBuffer> pages = new ArrayList<>();
+			for (int length = in.getInt(); length != END; length = in.getInt()) {
+				pages.add(in.slice(length));
+			}
+			EntryStore entries = indexer.getEntries();
+			entries.restorePages(pages.toArray(new ByteBuffer[pages.size()]));
+
+			long latest = Long.MIN_VALUE;
+			for (int doc = in.getInt(); doc != END; doc = in.getInt()) {
+				DataEntryType type = TYPES[in.getByte()];
+				boolean wide = in.getByte() != 0;
+				float score = in.getFloat();
+				long timeStamp = in.getLong();
+				int idHash = in.getInt();
+				int page = in.getInt();
+				int offset = in.getInt();
+				int idLength = in.getInt();
+				int dataLength = in.getInt();
+				entries.restore(doc, type, score, timeStamp, wide, page,
+						offset, idLength, dataLength, idHash);
+				indexer.restoreEntry(doc);
+				latest = Math.max(latest, timeStamp);
+			}
+			indexer.restoreDocCount(docCount);
+			DataEntry.advanceClockPast(latest);
+
+			// the entries are in place, so SCORE lists can be compared
+			TermIndex terms = indexer.getTerms();
+			for (int len = in.getInt(); len != END; len = in.getInt()) {
+				String key = in.getString(len);
+				int size = in.getInt();
+				if (terms.order == PostingList.ASCENDING) {
+					terms.putKey(key, PostingList.ofPacked(new MappedIds(in
+							.slice(4 * size).asIntBuffer())));
+				} else {
+					int[] docs = new int[size];
+					in.getInts(docs, size);
+					terms.putKey(key, PostingList.ofSorted(terms.order, docs,
+							size));
+				}
+			}
+			return indexer;
+		}
+	}
+
+	private static boolean isWide(DataEntry entry) {
+		return EntryStore.isWide(entry.getId())
+				|| EntryStore.isWide(entry.getData());
+	}
+
+	private static int textBytes(DataEntry entry, boolean wide) {
+		return (entry.getId().length() + entry.getData().length())
+				* (wide ? 2 : 1);
+	}
+
+	// the first length bytes of page, if there is one
+	private static void writePage(DataOutputStream out, ByteBuffer page,
+			int length) throws IOException {
+		if (page != null) {
+			out.writeInt(length);
+			out.write(page.array(), 0, length);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, CharSequence s)
+			throws IOException {
+		out.writeInt(s.length());
+		for (int i = 0; i < s.length(); ++i) {
+			out.writeChar(s.charAt(i));
+		}
+	}
+
+	// where the text of each entry goes, the entries taken in doc order:
+	// EntryStore.PAGE_SIZE bytes per page, longer texts on a page of their
+	// own
+	private static final class PageLayout {
+		// the one after the page being filled
+		int page;
+		int used;
+		int capacity;
+
+		// page << 32 | offset of the next bytes bytes
+		long place(int bytes) {
+			if (page == 0 || used + bytes > capacity) {
+				page++;
+				used = 0;
+				capacity = Math.max(EntryStore.PAGE_SIZE, bytes);
+			}
+			long at = (long) (page - 1) << 32 | used;
+			used += bytes;
+			return at;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package quorachallenge;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads lines into one reused char buffer instead of a String per line.
+ * Lines end at \n, \r or \r\n, like BufferedReader.readLine.
+ */
+class LineReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Reader in;
+	private final char[] buf = new char[BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private boolean skipLF;
+
+	private char[] line = new char[256];
+	private int length;
+
+	public LineReader(Reader in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return false at the end of the input
+	 */
+	public boolean readLine() throws IOException {
+		length = 0;
+		boolean any = false;
+		while (true) {
+			if (pos == limit && fill() == false) {
+				return any;
+			}
+			if (skipLF) {
+				skipLF = false;
+				if (buf[pos] == '\n') {
+					// the end of the last line, not the start of one
+					++pos;
+					continue;
+				}
+			}
+			any = true;
+			int start = pos;
+			while (pos < limit && buf[pos] != '\n' && buf[pos] != '\r') {
+				++pos;
+			}
+			append(start, pos);
+			if (pos < limit) {
+				skipLF = buf[pos] == '\r';
+				++pos;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * the current line is line()[0..length())
+	 */
+	public char[] line() {
+		return line;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * true if the next read will not block
+	 */
+	public boolean ready() throws IOException {
+		return pos < limit || in.ready();
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private boolean fill() throws IOException {
+		int n = in.read(buf, 0, buf.length);
+		if (n <= 0) {
+			return false;
+		}
+		pos = 0;
+		limit = n;
+		return true;
+	}
+
+	private void append(int from, int to) {
+		int n = to - from;
+		if (length + n > line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length << 1, length + n));
+		}
+		System.arraycopy(buf, from, line, length, n);
+		length += n;
+	}
+}
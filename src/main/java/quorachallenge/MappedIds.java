@@ -0,0 +1,110 @@
+package quorachallenge;
+
+import java.nio.IntBuffer;
+
+/**
+ * Ascending ids read in place from a mapped snapshot (see IndexSnapshot),
+ * the settled part of a restored ASCENDING list, whatever its
+ * PostingFormat.
+ *
+ * They take no appends: batch() is beyond any list size, so ids added after
+ * the restore stay in the list's int array, and any other change makes a
+ * plain list of it (see PostingList.pack). That first write is when the ids
+ * are copied out of the mapping; until then they take no heap at all.
+ *
+ * Immutable like the mapping it reads. Only absolute reads are made on the
+ * buffer, so readers can share it.
+ */
+final class MappedIds extends PackedIds {
+
+	static final MappedIds EMPTY = new MappedIds(IntBuffer.allocate(0));
+
+	private final IntBuffer ids;
+
+	MappedIds(IntBuffer ids) {
+		this.ids = ids;
+	}
+
+	@Override
+	int batch() {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	MappedIds empty() {
+		return EMPTY;
+	}
+
+	@Override
+	PackedIds append(int[] ids, int from, int n) {
+		// n is a multiple of batch(), so there is never a batch to append
+		throw new UnsupportedOperationException("mapped ids take no appends");
+	}
+
+	@Override
+	int size() {
+		return ids.limit();
+	}
+
+	@Override
+	int last() {
+		int n = ids.limit();
+		return n == 0 ? -1 : ids.get(n - 1);
+	}
+
+	@Override
+	int get(int i) {
+		return ids.get(i);
+	}
+
+	@Override
+	boolean contains(int id) {
+		int i = lowerBound(id, 0);
+		return i < ids.limit() && ids.get(i) == id;
+	}
+
+	@Override
+	void decodeAll(int[] out, int pos) {
+		// a view of its own: a relative bulk get moves the position
+		ids.duplicate().get(out, pos, ids.limit());
+	}
+
+	@Override
+	int intersect(int[] a, int na, int[] out) {
+		int n = 0;
+		int j = 0;
+		int size = ids.limit();
+		for (int i = 0; i < na && j < size; ++i) {
+			j = lowerBound(a[i], j);
+			if (j < size && ids.get(j) == a[i]) {
+				out[n++] = a[i];
+			}
+		}
+		return n;
+	}
+
+	// the first index at or after from whose id is at or after id, or
+	// size(); gallops, since a is usually much shorter
+	private int lowerBound(int id, int from) {
+		int size = ids.limit();
+		if (from >= size || ids.get(from) >= id) {
+			return from;
+		}
+		int lo = from, step = 1;
+		while (lo + step < size && ids.get(lo + step) < id) {
+			lo += step;
+			step <<= 1;
+		}
+		// ids.get(lo) < id, and id is at or before hi if there is one
+		int hi = Math.min(lo + step, size);
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (ids.get(mid) < id) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+}
@@ -0,0 +1,134 @@
+package quorachallenge;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential big-endian reads over a file that is mapped one window at a
+ * time: a single mapping holds at most 2 GB. What the get methods read is
+ * copied out of the mapping; slice() hands out a part of it instead. Java
+ * has no portable unmap, so a window is unmapped only when collected, once
+ * the next window or close() and every slice of it let go of it. Closing
+ * the file does not end a mapping.
+ */
+class MappedInput implements Closeable {
+	private static final int MAP_WINDOW = 1 << 30;
+
+	private final String path;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private long base;
+	private MappedByteBuffer buffer;
+
+	MappedInput(File f) throws IOException {
+		path = f.getPath();
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		size = channel.size();
+		map(0);
+	}
+
+	private void map(long position) throws IOException {
+		base = position;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, base,
+				Math.min(MAP_WINDOW, size - base));
+	}
+
+	// at least n bytes must be readable from the buffer
+	private void require(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			map(base + buffer.position());
+			if (buffer.remaining() < n) {
+				throw new EOFException("unexpected end of " + path);
+			}
+		}
+	}
+
+	/**
+	 * offset of the next byte in the file
+	 */
+	long position() {
+		return base + buffer.position();
+	}
+
+	/**
+	 * bytes left in the file
+	 */
+	long remaining() {
+		return size - position();
+	}
+
+	byte getByte() throws IOException {
+		require(1);
+		return buffer.get();
+	}
+
+	int getInt() throws IOException {
+		require(4);
+		return buffer.getInt();
+	}
+
+	long getLong() throws IOException {
+		require(8);
+		return buffer.getLong();
+	}
+
+	float getFloat() throws IOException {
+		require(4);
+		return buffer.getFloat();
+	}
+
+	String getString() throws IOException {
+		return getString(getInt());
+	}
+
+	// the chars of a string whose length has been read already
+	String getString(int length) throws IOException {
+		require(2 * length);
+		char[] chars = new char[length];
+		buffer.asCharBuffer().get(chars);
+		buffer.position(buffer.position() + 2 * length);
+		return new String(chars);
+	}
+
+	/**
+	 * the next bytes bytes, read in place: a big-endian view of the mapping
+	 * that stays valid after close()
+	 */
+	ByteBuffer slice(int bytes) throws IOException {
+		require(bytes);
+		ByteBuffer slice = buffer.slice();
+		slice.limit(bytes);
+		buffer.position(buffer.position() + bytes);
+		return slice;
+	}
+
+	void getBytes(byte[] dst) throws IOException {
+		require(dst.length);
+		buffer.get(dst);
+	}
+
+	void getInts(int[] dst, int n) throws IOException {
+		int done = 0;
+		while (done < n) {
+			require(4);
+			int count = Math.min(n - done, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(dst, done, count);
+			buffer.position(buffer.position() + 4 * count);
+			done += count;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		file.close();
+	}
+}
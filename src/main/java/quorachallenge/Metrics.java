@@ -0,0 +1,233 @@
+package quorachallenge;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms of the phases of a command, counts of commands and of
+ * query results, and the size of the index, for a TypeaheadSearch under
+ * load. Readable at any time through JMX, a periodic dump or getSummary().
+ *
+ * Recording is lock-free, see Histogram. When disabled every call returns
+ * on its first branch, without reading the clock.
+ *
+ * A phase lasts from the end of the previous phase of the same command on
+ * the same thread, or from startPhases(), until endPhase(). With shards,
+ * LOOKUP to SCORING are recorded once per shard, and the OUTPUT of a query
+ * includes waiting for the other shards and merging their results.
+ */
+class Metrics implements MetricsMXBean {
+
+	enum Phase {
+		PARSE, LOOKUP, INTERSECTION, SCORING, OUTPUT
+	}
+
+	static final String OBJECT_NAME = "quorachallenge:type=Metrics";
+
+	private static final Phase[] PHASES = Phase.values();
+	private static final CommandParser.Command[] COMMANDS = CommandParser.Command
+			.values();
+
+	private final boolean enabled;
+	private final QuoraIndexer[] shards;
+	private final Histogram[] phases = new Histogram[PHASES.length];
+	private final Histogram resultSizes = new Histogram();
+	private final AtomicLongArray commands = new AtomicLongArray(
+			COMMANDS.length);
+
+	// end of the last phase on this thread
+	private final ThreadLocal<long[]> clock = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	Metrics(boolean enabled, QuoraIndexer... shards) {
+		this.enabled = enabled;
+		this.shards = shards;
+		for (int i = 0; i < phases.length; ++i) {
+			phases[i] = new Histogram();
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void startPhases() {
+		if (enabled) {
+			clock.get()[0] = System.nanoTime();
+		}
+	}
+
+	public void endPhase(Phase phase) {
+		if (enabled) {
+			long now = System.nanoTime();
+			long[] last = clock.get();
+			phases[phase.ordinal()].record(now - last[0]);
+			last[0] = now;
+		}
+	}
+
+	public void countCommand(CommandParser.Command command) {
+		if (enabled) {
+			commands.incrementAndGet(command.ordinal());
+		}
+	}
+
+	/**
+	 * counts the ids of a query result line
+	 */
+	public void countResults(String ids) {
+		if (enabled) {
+			long n = ids.isEmpty() ? 0 : 1;
+			for (int i = 0; i < ids.length(); ++i) {
+				if (ids.charAt(i) == ' ') {
+					++n;
+				}
+			}
+			resultSizes.record(n);
+		}
+	}
+
+	Histogram getHistogram(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	Histogram getResultSizes() {
+		return resultSizes;
+	}
+
+	@Override
+	public Map<String, Long> getCommandCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (CommandParser.Command command : COMMANDS) {
+			counts.put(command.name(), commands.get(command.ordinal()));
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Double> getP50Micros() {
+		return percentileMicros(50);
+	}
+
+	@Override
+	public Map<String, Double> getP99Micros() {
+		return percentileMicros(99);
+	}
+
+	@Override
+	public Map<String, Double> getP999Micros() {
+		return percentileMicros(99.9);
+	}
+
+	@Override
+	public Map<String, Double> getMaxMicros() {
+		Map<String, Double> micros = new LinkedHashMap<>();
+		for (Phase phase : PHASES) {
+			micros.put(phase.name(), phases[phase.ordinal()].max() / 1e3);
+		}
+		return micros;
+	}
+
+	@Override
+	public long getResultSizeP99() {
+		return resultSizes.percentile(99);
+	}
+
+	@Override
+	public int getEntryCount() {
+		int n = 0;
+		for (QuoraIndexer shard : shards) {
+			n += shard.getEntryCount();
+		}
+		return n;
+	}
+
+	// a term of several shards counts once in each
+	@Override
+	public int getTermCount() {
+		int n = 0;
+		for (QuoraIndexer shard : shards) {
+			n += shard.getTermCount();
+		}
+		return n;
+	}
+
+	@Override
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("commands:");
+		for (CommandParser.Command command : COMMANDS) {
+			sb.append(' ').append(command.name()).append('=')
+					.append(commands.get(command.ordinal()));
+		}
+		sb.append('\n');
+		for (Phase phase : PHASES) {
+			Histogram h = phases[phase.ordinal()];
+			sb.append(String.format(Locale.ROOT,
+					"%s:\tcount=%d mean=%.1fus p50=%.1fus p99=%.1fus"
+							+ " p99.9=%.1fus max=%.1fus%n", phase.name()
+							.toLowerCase(Locale.ROOT), h.count(),
+					h.mean() / 1e3, h.percentile(50) / 1e3,
+					h.percentile(99) / 1e3, h.percentile(99.9) / 1e3,
+					h.max() / 1e3));
+		}
+		sb.append(String.format(Locale.ROOT,
+				"results:\tcount=%d mean=%.1f p50=%d p99=%d max=%d%n",
+				resultSizes.count(), resultSizes.mean(),
+				resultSizes.percentile(50), resultSizes.percentile(99),
+				resultSizes.max()));
+		sb.append("index:\tentries=").append(getEntryCount())
+				.append(" terms=").append(getTermCount());
+		return sb.toString();
+	}
+
+	/**
+	 * Makes these metrics readable through JMX under OBJECT_NAME.
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(OBJECT_NAME));
+	}
+
+	public void unregister() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+				new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Prints getSummary() to out every periodMillis, until the returned
+	 * timer is cancelled.
+	 */
+	public Timer dumpEvery(final PrintStream out, long periodMillis) {
+		Timer timer = new Timer("metrics-dump", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				out.println(getSummary());
+			}
+		}, periodMillis, periodMillis);
+		return timer;
+	}
+
+	private Map<String, Double> percentileMicros(double percent) {
+		Map<String, Double> micros = new LinkedHashMap<>();
+		for (Phase phase : PHASES) {
+			micros.put(phase.name(),
+					phases[phase.ordinal()].percentile(percent) / 1e3);
+		}
+		return micros;
+	}
+}
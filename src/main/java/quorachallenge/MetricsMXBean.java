@@ -0,0 +1,31 @@
+package quorachallenge;
+
+import java.util.Map;
+
+/**
+ * What Metrics shows through JMX, as quorachallenge:type=Metrics. Latencies
+ * are in microseconds, keyed by phase name.
+ */
+public interface MetricsMXBean {
+
+	Map<String, Long> getCommandCounts();
+
+	Map<String, Double> getP50Micros();
+
+	Map<String, Double> getP99Micros();
+
+	Map<String, Double> getP999Micros();
+
+	Map<String, Double> getMaxMicros();
+
+	long getResultSizeP99();
+
+	int getEntryCount();
+
+	int getTermCount();
+
+	/**
+	 * the same text as the periodic dump
+	 */
+	String getSummary();
+}
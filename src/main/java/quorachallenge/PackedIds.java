@@ -0,0 +1,54 @@
+package quorachallenge;
+
+/**
+ * The settled ids of a packed PostingList (see PostingFormat): ascending,
+ * and all of them before the ids the list keeps in its int array.
+ *
+ * Immutable to readers like PostingList: append() returns new ids, and only
+ * the latest version may be appended to.
+ */
+abstract class PackedIds {
+
+	/**
+	 * how many ids append() takes at a time; a packed list keeps fewer than
+	 * that in its int array
+	 */
+	abstract int batch();
+
+	/**
+	 * no ids, packed the same way
+	 */
+	abstract PackedIds empty();
+
+	/**
+	 * @return these ids followed by ids[from..from + n), which are ascending
+	 *         and after last(); n is a multiple of batch()
+	 */
+	abstract PackedIds append(int[] ids, int from, int n);
+
+	/**
+	 * number of ids
+	 */
+	abstract int size();
+
+	/**
+	 * the last id, -1 if there are none
+	 */
+	abstract int last();
+
+	abstract int get(int i);
+
+	abstract boolean contains(int id);
+
+	/**
+	 * Writes all size() ids to out, from pos on.
+	 */
+	abstract void decodeAll(int[] out, int pos);
+
+	/**
+	 * Intersects a[0..na), ascending and none after last(), with these ids
+	 * into out and returns the count. out may be the same array as a: writes
+	 * never overtake reads. Past the count, out may have been written to.
+	 */
+	abstract int intersect(int[] a, int na, int[] out);
+}
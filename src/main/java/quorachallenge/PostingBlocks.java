@@ -0,0 +1,329 @@
+package quorachallenge;
+
+import java.util.Arrays;
+
+/**
+ * Ascending ids packed in blocks of BLOCK, the settled part of a
+ * PostingFormat.PACKED list.
+ *
+ * A block keeps its first id in a header and the other ids frame of
+ * reference bit-packed: each one as its distance from the first, in as many
+ * bits as the distance of the last one takes. A block of a single letter
+ * spans a few hundred ids, so its ids take a byte or so each. Distances
+ * rather than gaps between neighbours cost a few bits more per id, but any
+ * id of a block can be read without the ones before it: a block is searched
+ * like an int array, and decoded without a running sum.
+ *
+ * The first ids act as skip pointers: an intersection finds the one block
+ * that may hold an id by searching them, and reads only that block.
+ *
+ * Immutable to readers like PostingList: append() returns new blocks, which
+ * share the arrays when they have room, and only the latest blocks may be
+ * appended to.
+ */
+final class PostingBlocks extends PackedIds {
+
+	static final int BLOCK = 128;
+
+	static final PostingBlocks EMPTY = new PostingBlocks(new int[0],
+			new int[0], new byte[0], new long[1], 0, 0, -1);
+
+	// first id of each block
+	private final int[] firsts;
+	// index into bits where the distances of each block start
+	private final int[] offsets;
+	// bits per distance of each block
+	private final byte[] widths;
+	// the packed distances of every id but the first of each block, then
+	// a word of padding: a read always takes the next word too
+	private final long[] bits;
+	private final int count;
+	private final int length;
+	private final int last;
+
+	private PostingBlocks(int[] firsts, int[] offsets, byte[] widths,
+			long[] bits, int count, int length, int last) {
+		this.firsts = firsts;
+		this.offsets = offsets;
+		this.widths = widths;
+		this.bits = bits;
+		this.count = count;
+		this.length = length;
+		this.last = last;
+	}
+
+	@Override
+	int batch() {
+		return BLOCK;
+	}
+
+	@Override
+	PostingBlocks empty() {
+		return EMPTY;
+	}
+
+	@Override
+	PostingBlocks append(int[] ids, int from, int n) {
+		PostingBlocks blocks = this;
+		for (int i = from; i < from + n; i += BLOCK) {
+			blocks = blocks.appendBlock(ids, i);
+		}
+		return blocks;
+	}
+
+	// these blocks followed by ids[from..from + BLOCK)
+	private PostingBlocks appendBlock(int[] ids, int from) {
+		int first = ids[from];
+		int width = 32 - Integer.numberOfLeadingZeros(ids[from + BLOCK - 1]
+				- first);
+		int words = ((BLOCK - 1) * width + 63) >>> 6;
+
+		int[] newFirsts = firsts;
+		int[] newOffsets = offsets;
+		byte[] newWidths = widths;
+		if (count == firsts.length) {
+			int capacity = Math.max(4, count + (count >>> 1));
+			newFirsts = Arrays.copyOf(firsts, capacity);
+			newOffsets = Arrays.copyOf(offsets, capacity);
+			newWidths = Arrays.copyOf(widths, capacity);
+		}
+		long[] newBits = bits;
+		if (length + words + 1 > bits.length) {
+			newBits = Arrays.copyOf(bits, Math.max(length + words + 1, length
+					+ (length >>> 1)));
+		}
+		// spare room past length is zero, but the writes are ORs
+		Arrays.fill(newBits, length, length + words + 1, 0);
+		for (int k = 1; k < BLOCK; ++k) {
+			long distance = ids[from + k] - first;
+			int bit = (k - 1) * width;
+			int word = length + (bit >>> 6);
+			int shift = bit & 63;
+			newBits[word] |= distance << shift;
+			if (shift + width > 64) {
+				newBits[word + 1] |= distance >>> (64 - shift);
+			}
+		}
+		newFirsts[count] = first;
+		newOffsets[count] = length;
+		newWidths[count] = (byte) width;
+		return new PostingBlocks(newFirsts, newOffsets, newWidths, newBits,
+				count + 1, length + words, ids[from + BLOCK - 1]);
+	}
+
+	/**
+	 * number of blocks
+	 */
+	int count() {
+		return count;
+	}
+
+	/**
+	 * number of ids, count() * BLOCK
+	 */
+	@Override
+	int size() {
+		return count * BLOCK;
+	}
+
+	int first(int block) {
+		return firsts[block];
+	}
+
+	/**
+	 * the last id of the last block, -1 if there are none
+	 */
+	@Override
+	int last() {
+		return last;
+	}
+
+	/**
+	 * The last block at or after from that starts at or before id;
+	 * first(from) must be at or before id. Gallops over the first ids.
+	 */
+	int blockOf(int id, int from) {
+		int lo = from, step = 1;
+		while (lo + step < count && firsts[lo + step] <= id) {
+			lo += step;
+			step <<= 1;
+		}
+		int hi = Math.min(lo + step, count);
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (firsts[mid] <= id) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * the k-th id of a block
+	 */
+	int get(int block, int k) {
+		if (k == 0) {
+			return firsts[block];
+		}
+		return firsts[block] + distance(offsets[block], widths[block], k);
+	}
+
+	/**
+	 * The first k in [from, BLOCK) whose id in block is at or after id, or
+	 * BLOCK.
+	 */
+	int lowerBound(int block, int from, int id) {
+		int distance = id - firsts[block];
+		if (distance <= 0) {
+			return from;
+		}
+		int offset = offsets[block];
+		int width = widths[block];
+		// branch-free bisection: whether to go left or right is a coin
+		// toss that a branch would mispredict every other step
+		int base = Math.max(from, 1);
+		int n = BLOCK - base;
+		while (n > 1) {
+			int half = n >>> 1;
+			base = distance(offset, width, base + half) < distance ? base
+					+ half : base;
+			n -= half;
+		}
+		return distance(offset, width, base) < distance ? base + 1 : base;
+	}
+
+	// the distance of the k-th id, k > 0, of the block at offset from its
+	// first one
+	private int distance(int offset, int width, int k) {
+		int bit = (k - 1) * width;
+		int word = offset + (bit >>> 6);
+		int shift = bit & 63;
+		// two shifts, as a shift by 64 would be no shift at all; the bits
+		// of the next word are masked off when the value is in one word
+		long value = bits[word] >>> shift | (bits[word + 1] << 1) << (63 - shift);
+		return (int) (value & ((1L << width) - 1));
+	}
+
+	/**
+	 * Writes the BLOCK ids of a block to out, from pos on.
+	 */
+	void decode(int block, int[] out, int pos) {
+		int first = firsts[block];
+		out[pos] = first;
+		int width = widths[block];
+		long mask = (1L << width) - 1;
+		// reads the words in turn rather than computing where each
+		// distance is, which takes twice as long
+		int word = offsets[block];
+		long current = bits[word];
+		int used = 0;
+		for (int k = pos + 1; k < pos + BLOCK; ++k) {
+			long value = current >>> used;
+			used += width;
+			if (used >= 64) {
+				current = bits[++word];
+				used -= 64;
+				if (used > 0) {
+					value |= current << (width - used);
+				}
+			}
+			out[k] = first + (int) (value & mask);
+		}
+	}
+
+	@Override
+	void decodeAll(int[] out, int pos) {
+		for (int b = 0; b < count; ++b) {
+			decode(b, out, pos + b * BLOCK);
+		}
+	}
+
+	@Override
+	int get(int i) {
+		return get(i / BLOCK, i % BLOCK);
+	}
+
+	@Override
+	boolean contains(int id) {
+		if (count == 0 || id < firsts[0] || id > last) {
+			return false;
+		}
+		int block = blockOf(id, 0);
+		int k = lowerBound(block, 0, id);
+		return k < BLOCK && get(block, k) == id;
+	}
+
+	/**
+	 * Where most blocks hold candidates, those blocks are decoded and merged
+	 * or searched; where few do, a block is searched without decoding it.
+	 * Either way the first ids lead to the one block that may hold the next
+	 * candidate.
+	 */
+	@Override
+	int intersect(int[] a, int na, int[] out) {
+		int i = 0, n = 0;
+		int ratio = na == 0 ? 0 : size() / na;
+		if (ratio < PostingIntersection.GALLOP_RATIO) {
+			// most blocks hold candidates: decode the ones that do
+			int[] block = new int[BLOCK];
+			int at = 0;
+			while (i < na) {
+				int x = a[i];
+				if (x < firsts[at]) {
+					++i;
+					continue;
+				}
+				at = blockOf(x, at);
+				// every id of the block is below end
+				int end = at + 1 < count ? firsts[at + 1] : last + 1;
+				decode(at, block, 0);
+				int j = 0;
+				if (ratio < PostingIntersection.SKIP_RATIO) {
+					// branch-free: which side moves on is up to the data,
+					// so a branch would be mispredicted half of the time
+					while (i < na && j < BLOCK) {
+						x = a[i];
+						int y = block[j];
+						out[n] = x;
+						n += x == y ? 1 : 0;
+						i += x <= y ? 1 : 0;
+						j += y <= x ? 1 : 0;
+					}
+				} else {
+					int blockLast = block[BLOCK - 1];
+					for (; i < na && (x = a[i]) <= blockLast; ++i) {
+						j = PostingIntersection.lowerBound(block, j, BLOCK, x);
+						if (block[j] == x) {
+							out[n++] = x;
+						}
+					}
+				}
+				while (i < na && a[i] < end) {
+					++i;
+				}
+			}
+		} else {
+			// a candidate every few blocks: search the block it may be in
+			// without decoding it
+			int at = 0, k = 0;
+			for (; i < na; ++i) {
+				int x = a[i];
+				if (x < firsts[at]) {
+					continue;
+				}
+				int next = blockOf(x, at);
+				if (next != at) {
+					at = next;
+					k = 0;
+				}
+				k = lowerBound(at, k, x);
+				if (k < BLOCK && get(at, k) == x) {
+					out[n++] = x;
+				}
+			}
+		}
+		return n;
+	}
+}
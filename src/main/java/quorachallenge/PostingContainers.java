@@ -0,0 +1,592 @@
+package quorachallenge;
+
+import java.util.Arrays;
+
+/**
+ * Ascending ids in Roaring-style containers, the settled part of a
+ * PostingFormat.ROARING list.
+ *
+ * Ids are split by their high 16 bits into chunks of 65536, and each chunk
+ * keeps the low 16 bits of its ids in whichever container is smallest for
+ * its density: a sorted array of chars, 2 bytes an id, while it holds up to
+ * ARRAY_MAX ids; a bitmap of 1024 words, 8KB however many, once it holds
+ * more; or runs of consecutive ids, 4 bytes a run, when there are few
+ * enough of them. The list of a single letter sets about every third bit
+ * of its chunks, which takes less than half a byte an id.
+ *
+ * Looking an id up is a bit test, or a binary search over at most ARRAY_MAX
+ * values or over the runs. and() intersects the chunks that are dense in
+ * every list a word, 64 ids, at a time.
+ *
+ * Immutable to readers like PostingList: append() rebuilds the last
+ * container and copies the array of them, which holds one per 65536 ids.
+ */
+final class PostingContainers extends PackedIds {
+
+	// ids append() takes at a time
+	static final int BATCH = 128;
+	// more ids than this make a bitmap smaller than an array
+	static final int ARRAY_MAX = 4096;
+
+	private static final int WORDS = 1 << 10;
+	private static final int BITMAP_BYTES = WORDS * 8;
+
+	static final PostingContainers EMPTY = new PostingContainers(new int[0],
+			new Container[0], new int[1], -1);
+
+	// high 16 bits of the ids of each container, ascending
+	private final int[] keys;
+	private final Container[] containers;
+	// number of ids before each container, then all of them
+	private final int[] starts;
+	private final int last;
+
+	private PostingContainers(int[] keys, Container[] containers,
+			int[] starts, int last) {
+		this.keys = keys;
+		this.containers = containers;
+		this.starts = starts;
+		this.last = last;
+	}
+
+	@Override
+	int batch() {
+		return BATCH;
+	}
+
+	@Override
+	PostingContainers empty() {
+		return EMPTY;
+	}
+
+	@Override
+	PostingContainers append(int[] ids, int from, int n) {
+		int count = keys.length;
+		int end = from + n;
+		// at most one container per chunk the ids reach into
+		int capacity = count + (ids[end - 1] >>> 16) - (ids[from] >>> 16) + 1;
+		int[] newKeys = Arrays.copyOf(keys, capacity);
+		Container[] newContainers = Arrays.copyOf(containers, capacity);
+		int c = count;
+		for (int i = from; i < end;) {
+			int high = ids[i] >>> 16;
+			int j = i + 1;
+			while (j < end && ids[j] >>> 16 == high) {
+				++j;
+			}
+			if (c > 0 && newKeys[c - 1] == high) {
+				newContainers[c - 1] = newContainers[c - 1].append(ids, i, j);
+			} else {
+				newKeys[c] = high;
+				newContainers[c++] = Container.of(ids, i, j);
+			}
+			i = j;
+		}
+		int[] newStarts = Arrays.copyOf(starts, c + 1);
+		for (int k = Math.max(0, count - 1); k < c; ++k) {
+			newStarts[k + 1] = newStarts[k] + newContainers[k].cardinality();
+		}
+		return new PostingContainers(Arrays.copyOf(newKeys, c),
+				Arrays.copyOf(newContainers, c), newStarts, ids[end - 1]);
+	}
+
+	@Override
+	int size() {
+		return starts[keys.length];
+	}
+
+	@Override
+	int last() {
+		return last;
+	}
+
+	/**
+	 * number of containers that are bitmaps
+	 */
+	int bitmaps() {
+		int n = 0;
+		for (Container container : containers) {
+			n += container instanceof Bitmap ? 1 : 0;
+		}
+		return n;
+	}
+
+	@Override
+	int get(int i) {
+		int k = Arrays.binarySearch(starts, 0, keys.length, i);
+		if (k < 0) {
+			k = -(k + 1) - 1;
+		}
+		return keys[k] << 16 | containers[k].select(i - starts[k]);
+	}
+
+	@Override
+	boolean contains(int id) {
+		int k = Arrays.binarySearch(keys, id >>> 16);
+		return k >= 0 && containers[k].contains(id & 0xffff);
+	}
+
+	@Override
+	void decodeAll(int[] out, int pos) {
+		for (int k = 0; k < keys.length; ++k) {
+			containers[k].decode(keys[k] << 16, out, pos + starts[k]);
+		}
+	}
+
+	/**
+	 * Looks each candidate up in the container of its chunk.
+	 */
+	@Override
+	int intersect(int[] a, int na, int[] out) {
+		int n = 0, k = 0;
+		for (int i = 0; i < na; ++i) {
+			int x = a[i];
+			int high = x >>> 16;
+			if (keys[k] != high) {
+				while (k < keys.length && keys[k] < high) {
+					++k;
+				}
+				if (k == keys.length) {
+					break;
+				}
+				if (keys[k] != high) {
+					continue;
+				}
+			}
+			if (containers[k].contains(x & 0xffff)) {
+				out[n++] = x;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Intersects the ids up to upTo of all parts into out, ascending, and
+	 * returns the count. A chunk whose smallest container holds more than
+	 * ARRAY_MAX ids is a bitmap or runs in every part, and is intersected a
+	 * word at a time; in any other chunk the ids of the smallest container
+	 * are looked up in the others.
+	 */
+	static int and(PostingContainers[] parts, int upTo, int[] out) {
+		PostingContainers first = parts[0];
+		int[] at = new int[parts.length];
+		Container[] chunk = new Container[parts.length];
+		long[] words = null;
+		int[] values = null;
+		int n = 0;
+		next: for (int k = 0; k < first.keys.length
+				&& first.keys[k] <= upTo >>> 16; ++k) {
+			int high = first.keys[k];
+			chunk[0] = first.containers[k];
+			int smallest = 0;
+			for (int p = 1; p < parts.length; ++p) {
+				PostingContainers part = parts[p];
+				int c = at[p];
+				while (c < part.keys.length && part.keys[c] < high) {
+					++c;
+				}
+				at[p] = c;
+				if (c == part.keys.length || part.keys[c] != high) {
+					continue next;
+				}
+				chunk[p] = part.containers[c];
+				if (chunk[p].cardinality() < chunk[smallest].cardinality()) {
+					smallest = p;
+				}
+			}
+			int base = high << 16;
+			Container small = chunk[smallest];
+			if (small.cardinality() <= ARRAY_MAX) {
+				if (values == null) {
+					values = new int[ARRAY_MAX];
+				}
+				int m = small.cardinality();
+				small.decode(base, values, 0);
+				candidates: for (int i = 0; i < m; ++i) {
+					int x = values[i];
+					if (x > upTo) {
+						return n;
+					}
+					for (int p = 0; p < parts.length; ++p) {
+						if (p != smallest
+								&& chunk[p].contains(x & 0xffff) == false) {
+							continue candidates;
+						}
+					}
+					out[n++] = x;
+				}
+				continue;
+			}
+			if (words == null) {
+				words = new long[WORDS];
+			}
+			small.toWords(words);
+			for (int p = 0; p < parts.length; ++p) {
+				if (p != smallest) {
+					chunk[p].andInto(words);
+				}
+			}
+			for (int w = 0; w < WORDS; ++w) {
+				for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+					int x = base | w << 6 | Long.numberOfTrailingZeros(bits);
+					if (x > upTo) {
+						return n;
+					}
+					out[n++] = x;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * The low 16 bits of the ids of one chunk. Immutable.
+	 */
+	abstract static class Container {
+
+		/**
+		 * Container of the low 16 bits of ids[from..to), which are ascending
+		 * and share their high bits, in the smallest form for them.
+		 */
+		static Container of(int[] ids, int from, int to) {
+			int n = to - from;
+			int runs = 1;
+			for (int i = from + 1; i < to; ++i) {
+				runs += ids[i] == ids[i - 1] + 1 ? 0 : 1;
+			}
+			if (runs * 4 < Math.min(n * 2, BITMAP_BYTES)) {
+				char[] pairs = new char[runs * 2];
+				int r = 0;
+				for (int i = from; i < to; ++i) {
+					if (i == from || ids[i] != ids[i - 1] + 1) {
+						pairs[r++] = (char) ids[i];
+						pairs[r++] = 0;
+					} else {
+						++pairs[r - 1];
+					}
+				}
+				return new Runs(pairs, n);
+			}
+			if (n <= ARRAY_MAX) {
+				char[] values = new char[n];
+				for (int i = 0; i < n; ++i) {
+					values[i] = (char) ids[from + i];
+				}
+				return new Array(values);
+			}
+			long[] words = new long[WORDS];
+			for (int i = from; i < to; ++i) {
+				words[(ids[i] & 0xffff) >>> 6] |= 1L << ids[i];
+			}
+			return new Bitmap(words, n);
+		}
+
+		abstract int cardinality();
+
+		abstract boolean contains(int low);
+
+		/**
+		 * the j-th low 16 bits
+		 */
+		abstract int select(int j);
+
+		/**
+		 * Writes base | the low bits of each id to out, from pos on.
+		 */
+		abstract void decode(int base, int[] out, int pos);
+
+		/**
+		 * @return this container with the ids[from..to) of its chunk, which
+		 *         come after its ids
+		 */
+		abstract Container append(int[] ids, int from, int to);
+
+		/**
+		 * Sets words to the bitmap of this container.
+		 */
+		abstract void toWords(long[] words);
+
+		/**
+		 * Clears the bits of words that are not in this container.
+		 */
+		void andInto(long[] words) {
+			long[] own = new long[WORDS];
+			toWords(own);
+			for (int w = 0; w < WORDS; ++w) {
+				words[w] &= own[w];
+			}
+		}
+	}
+
+	// at most ARRAY_MAX ascending values
+	static final class Array extends Container {
+		private final char[] values;
+
+		Array(char[] values) {
+			this.values = values;
+		}
+
+		@Override
+		int cardinality() {
+			return values.length;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return Arrays.binarySearch(values, (char) low) >= 0;
+		}
+
+		@Override
+		int select(int j) {
+			return values[j];
+		}
+
+		@Override
+		void decode(int base, int[] out, int pos) {
+			for (int i = 0; i < values.length; ++i) {
+				out[pos + i] = base | values[i];
+			}
+		}
+
+		@Override
+		Container append(int[] ids, int from, int to) {
+			int[] all = new int[values.length + to - from];
+			decode(0, all, 0);
+			System.arraycopy(ids, from, all, values.length, to - from);
+			return of(all, 0, all.length);
+		}
+
+		@Override
+		void toWords(long[] words) {
+			Arrays.fill(words, 0);
+			for (char value : values) {
+				words[value >>> 6] |= 1L << value;
+			}
+		}
+	}
+
+	// a bit per low value
+	static final class Bitmap extends Container {
+		private final long[] words;
+		private final int cardinality;
+
+		Bitmap(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(int low) {
+			return (words[low >>> 6] & 1L << low) != 0;
+		}
+
+		@Override
+		int select(int j) {
+			int w = 0;
+			for (int c; (c = Long.bitCount(words[w])) <= j; ++w) {
+				j -= c;
+			}
+			long bits = words[w];
+			for (; j > 0; --j) {
+				bits &= bits - 1;
+			}
+			return w << 6 | Long.numberOfTrailingZeros(bits);
+		}
+
+		@Override
+		void decode(int base, int[] out, int pos) {
+			for (int w = 0; w < WORDS; ++w) {
+				for (long bits = words[w]; bits != 0; bits &= bits - 1) {
+					out[pos++] = base | w << 6
+							| Long.numberOfTrailingZeros(bits);
+				}
+			}
+		}
+
+		@Override
+		Container append(int[] ids, int from, int to) {
+			long[] newWords = words.clone();
+			for (int i = from; i < to; ++i) {
+				newWords[(ids[i] & 0xffff) >>> 6] |= 1L << ids[i];
+			}
+			// the ids that fill a chunk end up as a single run
+			int runs = 0;
+			long carry = 0;
+			for (long word : newWords) {
+				runs += Long.bitCount(word & ~(word << 1 | carry));
+				carry = word >>> 63;
+			}
+			Bitmap bitmap = new Bitmap(newWords, cardinality + to - from);
+			return runs * 4 < BITMAP_BYTES ? Runs.of(bitmap, runs) : bitmap;
+		}
+
+		@Override
+		void toWords(long[] words) {
+			System.arraycopy(this.words, 0, words, 0, WORDS);
+		}
+
+		@Override
+		void andInto(long[] words) {
+			for (int w = 0; w < WORDS; ++w) {
+				words[w] &= this.words[w];
+			}
+		}
+	}
+
+	// runs of consecutive values, as pairs of the first one and the length
+	// less one
+	static final class Runs extends Container {
+		private final char[] pairs;
+		private final int cardinality;
+
+		Runs(char[] pairs, int cardinality) {
+			this.pairs = pairs;
+			this.cardinality = cardinality;
+		}
+
+		static Runs of(Container container, int runs) {
+			char[] pairs = new char[runs * 2];
+			int[] values = new int[container.cardinality()];
+			container.decode(0, values, 0);
+			int r = 0;
+			for (int i = 0; i < values.length; ++i) {
+				if (i == 0 || values[i] != values[i - 1] + 1) {
+					pairs[r++] = (char) values[i];
+					pairs[r++] = 0;
+				} else {
+					++pairs[r - 1];
+				}
+			}
+			return new Runs(pairs, values.length);
+		}
+
+		@Override
+		int cardinality() {
+			return cardinality;
+		}
+
+		@Override
+		boolean contains(int low) {
+			// the last run that starts at or before low
+			int lo = 0, hi = pairs.length / 2 - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (pairs[mid * 2] <= low) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			int start = pairs[lo * 2];
+			return start <= low && low <= start + pairs[lo * 2 + 1];
+		}
+
+		@Override
+		int select(int j) {
+			int r = 0;
+			while (j > pairs[r + 1]) {
+				j -= pairs[r + 1] + 1;
+				r += 2;
+			}
+			return pairs[r] + j;
+		}
+
+		@Override
+		void decode(int base, int[] out, int pos) {
+			for (int r = 0; r < pairs.length; r += 2) {
+				int start = base | pairs[r];
+				for (int i = 0; i <= pairs[r + 1]; ++i) {
+					out[pos++] = start + i;
+				}
+			}
+		}
+
+		@Override
+		Container append(int[] ids, int from, int to) {
+			char[] newPairs = Arrays.copyOf(pairs, pairs.length + 2
+					* (to - from));
+			int r = pairs.length;
+			for (int i = from; i < to; ++i) {
+				int low = ids[i] & 0xffff;
+				if (low == newPairs[r - 2] + newPairs[r - 1] + 1) {
+					++newPairs[r - 1];
+				} else {
+					newPairs[r++] = (char) low;
+					newPairs[r++] = 0;
+				}
+			}
+			int n = cardinality + to - from;
+			Runs runs = new Runs(Arrays.copyOf(newPairs, r), n);
+			if (r * 2 < Math.min(n * 2, BITMAP_BYTES)) {
+				return runs;
+			}
+			if (n <= ARRAY_MAX) {
+				int[] values = new int[n];
+				runs.decode(0, values, 0);
+				return of(values, 0, n);
+			}
+			long[] words = new long[WORDS];
+			runs.toWords(words);
+			return new Bitmap(words, n);
+		}
+
+		@Override
+		void toWords(long[] words) {
+			Arrays.fill(words, 0);
+			for (int r = 0; r < pairs.length; r += 2) {
+				setRange(words, pairs[r], pairs[r] + pairs[r + 1] + 1);
+			}
+		}
+
+		@Override
+		void andInto(long[] words) {
+			int end = 0;
+			for (int r = 0; r < pairs.length; r += 2) {
+				clearRange(words, end, pairs[r]);
+				end = pairs[r] + pairs[r + 1] + 1;
+			}
+			clearRange(words, end, WORDS * 64);
+		}
+	}
+
+	// sets the bits [from, to) of words
+	private static void setRange(long[] words, int from, int to) {
+		if (from >= to) {
+			return;
+		}
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) {
+			words[first] |= firstMask & lastMask;
+			return;
+		}
+		words[first] |= firstMask;
+		for (int w = first + 1; w < last; ++w) {
+			words[w] = -1L;
+		}
+		words[last] |= lastMask;
+	}
+
+	// clears the bits [from, to) of words
+	private static void clearRange(long[] words, int from, int to) {
+		if (from >= to) {
+			return;
+		}
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) {
+			words[first] &= ~(firstMask & lastMask);
+			return;
+		}
+		words[first] &= ~firstMask;
+		for (int w = first + 1; w < last; ++w) {
+			words[w] = 0;
+		}
+		words[last] &= ~lastMask;
+	}
+}
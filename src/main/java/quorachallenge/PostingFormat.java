@@ -0,0 +1,26 @@
+package quorachallenge;
+
+/**
+ * How the ids of a posting list are held in memory. Chosen once at startup.
+ */
+enum PostingFormat {
+	/**
+	 * a plain int array per list
+	 */
+	PLAIN,
+
+	/**
+	 * ENTRY_ID order only: every full block of PostingBlocks.BLOCK ids is
+	 * frame of reference encoded and bit-packed, only the ids after the last
+	 * full block stay plain. Lists of SCORE order are kept PLAIN.
+	 */
+	PACKED,
+
+	/**
+	 * ENTRY_ID order only: ids are held in PostingContainers, an array,
+	 * bitmap or runs per 65536 ids by density, only the last fewer than
+	 * PostingContainers.BATCH stay plain. Lists of SCORE order are kept
+	 * PLAIN.
+	 */
+	ROARING
+}
@@ -0,0 +1,214 @@
+package quorachallenge;
+
+import java.util.Arrays;
+
+/**
+ * Intersection of sorted entry id lists.
+ *
+ * Lists are intersected shortest first, so the running result only ever
+ * shrinks. Each pairwise step picks its strategy by the ratio of the two
+ * lengths: a plain linear merge for lists of similar size, a merge that
+ * moves through the longer list with sqrt(n) skip pointers for moderate
+ * ratios, and galloping (exponential + binary search) when a short rare term
+ * meets a huge one such as a single letter prefix.
+ *
+ * A packed list is searched by its PackedIds for the candidates up to its
+ * last packed id, see PostingBlocks and PostingContainers. Lists that are
+ * all PostingContainers are intersected container by container instead,
+ * dense ones a bitmap word at a time.
+ */
+final class PostingIntersection {
+
+	// below this length ratio a linear merge touches no more than it needs to
+	static final int SKIP_RATIO = 4;
+	// above this ratio galloping beats walking the skip pointers
+	static final int GALLOP_RATIO = 64;
+
+	private PostingIntersection() {
+	}
+
+	/**
+	 * Intersects lists, which must be sorted shortest first, into out (at
+	 * least as long as the first list) and returns the number of ids written.
+	 */
+	static int intersect(PostingList[] lists, int[] out) {
+		PostingList shortest = lists[0];
+		if (lists.length == 1) {
+			shortest.copyTo(out, 0);
+			return shortest.size();
+		}
+		if (shortest.packedIds() instanceof PostingContainers) {
+			int n = intersectContainers(lists, out);
+			if (n >= 0) {
+				return n;
+			}
+		}
+		int n;
+		if (shortest.packedIds() == null) {
+			n = intersect(shortest.docs(), shortest.size(), lists[1], out);
+		} else {
+			shortest.copyTo(out, 0);
+			n = intersect(out, shortest.size(), lists[1], out);
+		}
+		for (int i = 2; i < lists.length && n > 0; ++i) {
+			n = intersect(out, n, lists[i], out);
+		}
+		return n;
+	}
+
+	// the containers of all lists ANDed, then the ids after the first of
+	// them to end; -1 unless every list is packed in PostingContainers
+	private static int intersectContainers(PostingList[] lists, int[] out) {
+		PostingContainers[] parts = new PostingContainers[lists.length];
+		int first = 0;
+		for (int i = 0; i < lists.length; ++i) {
+			if (lists[i].packedIds() instanceof PostingContainers == false) {
+				return -1;
+			}
+			parts[i] = (PostingContainers) lists[i].packedIds();
+			if (parts[i].last() < parts[first].last()) {
+				first = i;
+			}
+		}
+		// no list has an id up to there outside its containers
+		int upTo = parts[first].last();
+		int n = PostingContainers.and(parts, upTo, out);
+		// nor an id after it inside the containers of the first to end
+		int nr = lists[first].size() - parts[first].size();
+		int[] rest = Arrays.copyOf(lists[first].rest(), nr);
+		for (int i = 0; i < lists.length && nr > 0; ++i) {
+			if (i != first) {
+				nr = intersect(rest, nr, lists[i], rest);
+			}
+		}
+		System.arraycopy(rest, 0, out, n, nr);
+		return n + nr;
+	}
+
+	/**
+	 * Same as intersect(a, na, b.docs(), b.size(), out), without decoding
+	 * the ids of a packed b.
+	 */
+	static int intersect(int[] a, int na, PostingList b, int[] out) {
+		PackedIds packed = b.packedIds();
+		if (packed == null) {
+			return intersect(a, na, b.docs(), b.size(), out);
+		}
+		int i = lowerBound(a, 0, na, packed.last() + 1);
+		int n = packed.intersect(a, i, out);
+		// then the ids of b after its packed ones
+		int[] rest = b.rest();
+		int nr = b.size() - packed.size();
+		int j = 0;
+		while (i < na && j < nr) {
+			int x = a[i], y = rest[j];
+			if (x < y) {
+				++i;
+			} else if (x > y) {
+				++j;
+			} else {
+				out[n++] = x;
+				++i;
+				++j;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Intersects a[0..na) with b[0..nb) into out and returns the count. out
+	 * may be the same array as a (never b): writes never overtake reads.
+	 */
+	static int intersect(int[] a, int na, int[] b, int nb, int[] out) {
+		if (na == 0 || nb == 0) {
+			return 0;
+		}
+		if (na > nb && out != a) {
+			return intersect(b, nb, a, na, out);
+		}
+		int ratio = nb / na;
+		if (ratio < SKIP_RATIO) {
+			return merge(a, na, b, nb, out);
+		} else if (ratio < GALLOP_RATIO) {
+			return skipMerge(a, na, b, nb, out);
+		} else {
+			return gallop(a, na, b, nb, out);
+		}
+	}
+
+	static int merge(int[] a, int na, int[] b, int nb, int[] out) {
+		int i = 0, j = 0, n = 0;
+		while (i < na && j < nb) {
+			int x = a[i], y = b[j];
+			if (x < y) {
+				++i;
+			} else if (x > y) {
+				++j;
+			} else {
+				out[n++] = x;
+				++i;
+				++j;
+			}
+		}
+		return n;
+	}
+
+	// skip pointers are implicit: every step-th element of b
+	static int skipMerge(int[] a, int na, int[] b, int nb, int[] out) {
+		int step = Math.max(2, (int) Math.sqrt(nb));
+		int j = 0, n = 0;
+		for (int i = 0; i < na && j < nb; ++i) {
+			int x = a[i];
+			while (j + step < nb && b[j + step] <= x) {
+				j += step;
+			}
+			while (j < nb && b[j] < x) {
+				++j;
+			}
+			if (j < nb && b[j] == x) {
+				out[n++] = x;
+				++j;
+			}
+		}
+		return n;
+	}
+
+	static int gallop(int[] a, int na, int[] b, int nb, int[] out) {
+		int j = 0, n = 0;
+		for (int i = 0; i < na && j < nb; ++i) {
+			int x = a[i];
+			if (b[j] < x) {
+				// exponential search for the first b[k] >= x, then bisect
+				int lo = j, bound = 1;
+				while (j + bound < nb && b[j + bound] < x) {
+					lo = j + bound;
+					bound <<= 1;
+				}
+				int hi = Math.min(j + bound, nb - 1);
+				j = lowerBound(b, lo + 1, hi + 1, x);
+				if (j == nb) {
+					break;
+				}
+			}
+			if (b[j] == x) {
+				out[n++] = x;
+				++j;
+			}
+		}
+		return n;
+	}
+
+	// first index in [from, to) with b[index] >= x, or to
+	static int lowerBound(int[] b, int from, int to, int x) {
+		int lo = from, hi = to;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (b[mid] < x) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
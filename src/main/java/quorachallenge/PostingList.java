@@ -0,0 +1,459 @@
+package quorachallenge;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Posting list of internal entry ids, kept as a sorted primitive int array.
+ *
+ * By default ids are sorted ascending. Entry ids are handed out in increasing
+ * order, so an ADD is almost always an append at the tail; DEL is a binary
+ * search plus a copy. A list can also be kept in another order, e.g. by rank
+ * (see PostingOrder.SCORE).
+ *
+ * Lists are immutable to readers: with() and without() return a new list and
+ * the writer publishes it in place of the old one, so queries can keep using
+ * whatever version they picked up. An append into spare capacity shares the
+ * backing array, which is safe because no older version reads past its own
+ * size; anything else copies. Only the latest version of a list may be
+ * extended.
+ *
+ * A list of ASCENDING order can be packed() into PackedIds (PostingBlocks or
+ * PostingContainers): they then hold its ids as far as they fill whole
+ * batches, and only the rest is in the int array. Appends to a packed list
+ * pack every batch they fill, other changes pack the list anew. A list
+ * restored from a snapshot is packed over MappedIds, read in place from the
+ * file, which no append fills.
+ */
+class PostingList implements Comparable<PostingList> {
+
+	/**
+	 * Order of ids inside a list; must be a total order.
+	 */
+	interface Order {
+		int compare(int a, int b);
+	}
+
+	static final Order ASCENDING = new Order() {
+		@Override
+		public int compare(int a, int b) {
+			return a < b ? -1 : (a == b ? 0 : 1);
+		}
+	};
+
+	private static final int INITIAL_CAPACITY = 4;
+	private static final int[] EMPTY = new int[0];
+
+	private final Order order;
+	// null unless packed: then the first packed.size() ids are in packed
+	// and only the others in docs
+	private final PackedIds packed;
+	private final int[] docs;
+	private final int size;
+
+	public PostingList() {
+		this(ASCENDING);
+	}
+
+	public PostingList(Order order) {
+		this(order, EMPTY, 0);
+	}
+
+	private PostingList(Order order, int[] docs, int size) {
+		this(order, null, docs, size);
+	}
+
+	private PostingList(Order order, PackedIds packed, int[] docs, int size) {
+		this.order = order;
+		this.packed = packed;
+		this.docs = docs;
+		this.size = size;
+	}
+
+	/**
+	 * @return this list with its full batches packed like empty, or this
+	 *         if it is packed already, not ASCENDING or shorter than a batch
+	 */
+	public PostingList packed(PackedIds empty) {
+		if (packed != null || order != ASCENDING || size < empty.batch()) {
+			return this;
+		}
+		return pack(empty, docs, size);
+	}
+
+	// ids[0..n), ascending, packed like empty as far as they fill batches
+	private PostingList pack(PackedIds empty, int[] ids, int n) {
+		if (n < empty.batch()) {
+			return new PostingList(order, ids, n);
+		}
+		return append(empty, ids, n, 0);
+	}
+
+	// ids[0..n) after the ones in packed, of which size come before
+	private PostingList append(PackedIds packed, int[] ids, int n, int size) {
+		int whole = n - n % packed.batch();
+		if (whole > 0) {
+			packed = packed.append(ids, 0, whole);
+		}
+		return new PostingList(order, packed, Arrays.copyOfRange(ids, whole,
+				n), size + n);
+	}
+
+	/**
+	 * @return this list with doc added, or this if doc is already there
+	 */
+	public PostingList with(int doc) {
+		if (packed != null) {
+			return withPacked(doc);
+		}
+		if (size == 0 || order.compare(docs[size - 1], doc) < 0) {
+			// fast path: append at the tail
+			int[] newDocs = docs;
+			if (size == docs.length) {
+				newDocs = Arrays.copyOf(docs, Math.max(INITIAL_CAPACITY, size
+						+ (size >>> 1)));
+			}
+			newDocs[size] = doc;
+			return new PostingList(order, newDocs, size + 1);
+		}
+		int pos = indexOf(doc);
+		if (pos >= 0) {
+			return this;
+		}
+		pos = -(pos + 1);
+		int[] newDocs = new int[Math.max(size + 1, docs.length)];
+		System.arraycopy(docs, 0, newDocs, 0, pos);
+		newDocs[pos] = doc;
+		System.arraycopy(docs, pos, newDocs, pos + 1, size - pos);
+		return new PostingList(order, newDocs, size + 1);
+	}
+
+	private PostingList withPacked(int doc) {
+		int rest = size - packed.size();
+		int batch = packed.batch();
+		if (doc > (rest > 0 ? docs[rest - 1] : packed.last())) {
+			if (rest + 1 == batch) {
+				// the new doc fills a batch; the rest starts over in a
+				// new array, older versions still read the old one
+				int[] ids = Arrays.copyOf(docs, batch);
+				ids[rest] = doc;
+				return new PostingList(order, packed.append(ids, 0, batch),
+						EMPTY, size + 1);
+			}
+			int[] newDocs = docs;
+			if (rest == docs.length) {
+				newDocs = Arrays.copyOf(docs, Math.min(batch - 1, Math.max(
+						INITIAL_CAPACITY, rest + (rest >>> 1))));
+			}
+			newDocs[rest] = doc;
+			return new PostingList(order, packed, newDocs, size + 1);
+		}
+		// an entry repeats a key for repeated words and shared prefixes
+		if (contains(doc)) {
+			return this;
+		}
+		int[] ids = toArray();
+		int pos = -(Arrays.binarySearch(ids, doc) + 1);
+		int[] newIds = new int[size + 1];
+		System.arraycopy(ids, 0, newIds, 0, pos);
+		newIds[pos] = doc;
+		System.arraycopy(ids, pos, newIds, pos + 1, size - pos);
+		return pack(packed.empty(), newIds, size + 1);
+	}
+
+	/**
+	 * @return this list followed by tail, whose ids all sort after the ids
+	 *         of this list; like with(), it appends into spare capacity
+	 */
+	public PostingList withAll(PostingList tail) {
+		if (packed != null) {
+			int rest = size - packed.size();
+			int[] ids = Arrays.copyOf(docs, rest + tail.size);
+			tail.copyTo(ids, rest);
+			return append(packed, ids, ids.length, packed.size());
+		}
+		if (tail.packed != null) {
+			int[] ids = Arrays.copyOf(docs, size + tail.size);
+			tail.copyTo(ids, size);
+			return pack(tail.packed.empty(), ids, ids.length);
+		}
+		int newSize = size + tail.size;
+		int[] newDocs = docs;
+		if (newSize > docs.length) {
+			newDocs = Arrays.copyOf(docs, Math.max(newSize, size + (size >>> 1)));
+		}
+		System.arraycopy(tail.docs, 0, newDocs, size, tail.size);
+		return new PostingList(order, newDocs, newSize);
+	}
+
+	/**
+	 * @return this list without doc, or this if doc is not there
+	 */
+	public PostingList without(int doc) {
+		if (packed != null) {
+			if (contains(doc) == false) {
+				return this;
+			}
+			int[] ids = toArray();
+			int pos = Arrays.binarySearch(ids, doc);
+			System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+			return pack(packed.empty(), ids, size - 1);
+		}
+		int pos = indexOf(doc);
+		if (pos < 0) {
+			return this;
+		}
+		// exact fit: the copy is what gives memory back after deletes
+		int[] newDocs = new int[size - 1];
+		System.arraycopy(docs, 0, newDocs, 0, pos);
+		System.arraycopy(docs, pos + 1, newDocs, pos, size - pos - 1);
+		return new PostingList(order, newDocs, size - 1);
+	}
+
+	/**
+	 * @return this list without the docs set in docs, or this if none is
+	 *         there
+	 */
+	public PostingList without(BitSet docs) {
+		if (packed != null) {
+			int[] ids = toArray();
+			int n = 0;
+			for (int i = 0; i < size; ++i) {
+				if (docs.get(ids[i]) == false) {
+					ids[n++] = ids[i];
+				}
+			}
+			return n == size ? this : pack(packed.empty(), ids, n);
+		}
+		int removed = 0;
+		for (int i = 0; i < size; ++i) {
+			if (docs.get(this.docs[i])) {
+				++removed;
+			}
+		}
+		if (removed == 0) {
+			return this;
+		}
+		int[] newDocs = new int[size - removed];
+		int n = 0;
+		for (int i = 0; i < size; ++i) {
+			if (docs.get(this.docs[i]) == false) {
+				newDocs[n++] = this.docs[i];
+			}
+		}
+		return new PostingList(order, newDocs, n);
+	}
+
+	public boolean contains(int doc) {
+		if (packed != null) {
+			return doc <= packed.last() ? packed.contains(doc) : Arrays
+					.binarySearch(docs, 0, size - packed.size(), doc) >= 0;
+		}
+		return indexOf(doc) >= 0;
+	}
+
+	public int get(int i) {
+		if (packed != null) {
+			int n = packed.size();
+			return i < n ? packed.get(i) : docs[i - n];
+		}
+		return docs[i];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * backing array, sorted by the list's order; only the first size() ids
+	 * are valid. A packed list has none and returns a decoded copy.
+	 */
+	int[] docs() {
+		return packed != null ? toArray() : docs;
+	}
+
+	/**
+	 * the packed ids of a packed list, null for a plain one
+	 */
+	PackedIds packedIds() {
+		return packed;
+	}
+
+	/**
+	 * the ids of a packed list after its packed ones, as a backing array
+	 * with size() - packedIds().size() valid ids
+	 */
+	int[] rest() {
+		return docs;
+	}
+
+	/**
+	 * copy of the ids, sorted by the list's order
+	 */
+	public int[] toArray() {
+		if (packed != null) {
+			int[] ids = new int[size];
+			copyTo(ids, 0);
+			return ids;
+		}
+		return Arrays.copyOf(docs, size);
+	}
+
+	/**
+	 * Writes the ids to out, from pos on, sorted by the list's order.
+	 */
+	void copyTo(int[] out, int pos) {
+		int n = 0;
+		if (packed != null) {
+			n = packed.size();
+			packed.decodeAll(out, pos);
+		}
+		System.arraycopy(docs, 0, out, pos + n, size - n);
+	}
+
+	/**
+	 * List of docs[0..size), which are already sorted by order. Takes over
+	 * the array.
+	 */
+	static PostingList ofSorted(Order order, int[] docs, int size) {
+		return new PostingList(order, docs, size);
+	}
+
+	/**
+	 * ASCENDING list of the ids in packed, and no others.
+	 */
+	static PostingList ofPacked(PackedIds packed) {
+		return new PostingList(ASCENDING, packed, EMPTY, packed.size());
+	}
+
+	/**
+	 * List of the distinct ids docs[0..size), which come ascending; they are
+	 * sorted into order if that is another one. Takes over the array.
+	 */
+	static PostingList sorted(Order order, int[] docs, int size) {
+		if (order != ASCENDING) {
+			sort(order, docs, new int[size], 0, size);
+		}
+		return new PostingList(order, docs, size);
+	}
+
+	// merge sort; Arrays.sort has no comparator for primitives
+	private static void sort(Order order, int[] a, int[] tmp, int from, int to) {
+		if (to - from <= 16) {
+			for (int i = from + 1; i < to; ++i) {
+				int doc = a[i];
+				int j = i - 1;
+				while (j >= from && order.compare(a[j], doc) > 0) {
+					a[j + 1] = a[j];
+					--j;
+				}
+				a[j + 1] = doc;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(order, a, tmp, from, mid);
+		sort(order, a, tmp, mid, to);
+		if (order.compare(a[mid - 1], a[mid]) <= 0) {
+			return;
+		}
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from, j = mid, n = from;
+		while (i < mid && j < to) {
+			a[n++] = order.compare(tmp[i], tmp[j]) <= 0 ? tmp[i++] : tmp[j++];
+		}
+		while (i < mid) {
+			a[n++] = tmp[i++];
+		}
+		while (j < to) {
+			a[n++] = tmp[j++];
+		}
+	}
+
+	/**
+	 * Union of lists that share order, merged pairwise.
+	 */
+	static PostingList union(Order order, PostingList[] lists) {
+		int count = lists.length;
+		int[][] docs = new int[count][];
+		int[] sizes = new int[count];
+		for (int i = 0; i < count; ++i) {
+			docs[i] = lists[i].docs();
+			sizes[i] = lists[i].size;
+		}
+		while (count > 1) {
+			int merged = 0;
+			for (int i = 0; i < count; i += 2) {
+				if (i + 1 == count) {
+					docs[merged] = docs[i];
+					sizes[merged++] = sizes[i];
+					break;
+				}
+				int[] out = new int[sizes[i] + sizes[i + 1]];
+				sizes[merged] = mergeUnion(order, docs[i], sizes[i],
+						docs[i + 1], sizes[i + 1], out);
+				docs[merged++] = out;
+			}
+			count = merged;
+		}
+		return new PostingList(order, docs[0], sizes[0]);
+	}
+
+	private static int mergeUnion(Order order, int[] a, int na, int[] b,
+			int nb, int[] out) {
+		int i = 0, j = 0, n = 0;
+		while (i < na && j < nb) {
+			int c = order.compare(a[i], b[j]);
+			if (c < 0) {
+				out[n++] = a[i++];
+			} else if (c > 0) {
+				out[n++] = b[j++];
+			} else {
+				out[n++] = a[i++];
+				++j;
+			}
+		}
+		while (i < na) {
+			out[n++] = a[i++];
+		}
+		while (j < nb) {
+			out[n++] = b[j++];
+		}
+		return n;
+	}
+
+	// same contract as Arrays.binarySearch
+	private int indexOf(int doc) {
+		if (order == ASCENDING) {
+			return Arrays.binarySearch(docs, 0, size, doc);
+		}
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = order.compare(docs[mid], doc);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	@Override
+	public int compareTo(PostingList o) {
+		if (size < o.size) {
+			return -1;
+		} else if (size == o.size) {
+			return 0;
+		} else {
+			return 1;
+		}
+	}
+}
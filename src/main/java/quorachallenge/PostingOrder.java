@@ -0,0 +1,20 @@
+package quorachallenge;
+
+/**
+ * How QuoraIndexer orders the entry ids inside each posting list. Chosen once
+ * at startup.
+ */
+enum PostingOrder {
+	/**
+	 * ascending internal id; multi-term intersections merge or gallop over
+	 * the sorted arrays
+	 */
+	ENTRY_ID,
+
+	/**
+	 * rank order: score descending, then newest first. Every list shares the
+	 * same order, so walking the shortest list meets matches best first and
+	 * an unboosted QUERY can stop after numResult hits.
+	 */
+	SCORE
+}
@@ -0,0 +1,309 @@
+package quorachallenge;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The best k entries of every short prefix, so that a single-term query
+ * without boosts is answered without reading the prefix's posting list.
+ * See IndexOptions.setTopK.
+ *
+ * Every prefix of up to MAX_PREFIX_LENGTH letters of every word keeps a
+ * PostingList ranked like ResultDataEntry.compareTo, best first. ADD puts an
+ * entry in where it ranks among them. DEL only takes its entry out: the
+ * list is left short but still holds the best entries there are, so a
+ * query for no more than are left is still answered from it. A query for
+ * more selects the best k from the full posting list and repair() keeps
+ * them for the prefix.
+ *
+ * A prefix is looked up by its chars packed into a long, see key(), in an
+ * open-addressed table, so neither ADD, DEL nor a query creates a String
+ * for it. Its slot stays once taken: there are only so many prefixes this
+ * short.
+ *
+ * Only live entries are held: a prefix without a list has none. Written by
+ * the indexer under its lock and repaired by queries without one. A repair
+ * is kept only by a compare-and-set on the Best it started from, so an ADD
+ * or DEL of the prefix puts a new Best while a repair is running, to have
+ * the repair dropped instead of waiting for the lock; with none running, a
+ * prefix the ADD or DEL leaves unchanged is not written at all.
+ */
+class PrefixTopK {
+
+	// the prefixes WordTermIndex keeps lists of; longer ones have short
+	// lists, which are cheap to rank anyway
+	static final int MAX_PREFIX_LENGTH = WordTermIndex.HOT_PREFIX_LENGTH;
+
+	private static final int INITIAL_SLOTS = 256;
+	// 0 is no key(), so it marks a free slot
+	private static final long FREE = 0;
+
+	private final int k;
+	private final PostingList.Order order;
+	// replaced whole by the writer when it fills up
+	private volatile Table table = new Table(INITIAL_SLOTS);
+	// repair() calls running
+	private final AtomicInteger repairs = new AtomicInteger();
+
+	PrefixTopK(int k, PostingList.Order order) {
+		this.k = k;
+		this.order = order;
+	}
+
+	/**
+	 * whether the best numResult entries of a term of that length are kept
+	 */
+	boolean covers(int length, int numResult) {
+		return length > 0 && length <= MAX_PREFIX_LENGTH && numResult <= k;
+	}
+
+	/**
+	 * @return the best entries of term.subSequence(from, to), best first: at
+	 *         least numResult of them unless there are fewer, or null if a
+	 *         DEL has left fewer known
+	 */
+	PostingList get(CharSequence term, int from, int to, int numResult) {
+		Table t = table;
+		int slot = t.find(key(term, from, to));
+		Best best = slot < 0 ? null : t.values.get(slot);
+		if (best == null) {
+			return new PostingList(order);
+		}
+		return best.complete || best.docs.size() >= numResult ? best.docs
+				: null;
+	}
+
+	/**
+	 * Selects the best k entries of term.subSequence(from, to) from its full
+	 * posting list and keeps them unless an ADD or DEL of the prefix got in
+	 * meanwhile. Does not take the indexer's lock.
+	 *
+	 * @return the best k entries, best first
+	 */
+	PostingList repair(CharSequence term, int from, int to,
+			QuoraIndexer indexer) {
+		// counted before anything is read: a writer that sees no repair
+		// running has published its list or delete already, see add()
+		repairs.incrementAndGet();
+		try {
+			Table t = table;
+			int slot = t.find(key(term, from, to));
+			// read before the list: a write after it replaces seen, and one
+			// before it is in the list and indexer already
+			Best seen = slot < 0 ? null : t.values.get(slot);
+			PostingList docs = select(indexer.query(term, from, to), indexer);
+			if (seen != null) {
+				// kept in a table the writer has since replaced, it is lost
+				t.values.compareAndSet(slot, seen,
+						docs.isEmpty() ? null : new Best(docs, true));
+			}
+			return docs;
+		} finally {
+			repairs.decrementAndGet();
+		}
+	}
+
+	// the best k of the ids in full that indexer still holds
+	private PostingList select(PostingList full, QuoraIndexer indexer) {
+		PostingList best = new PostingList(order);
+		if (full == null) {
+			return best;
+		}
+		int[] docs = full.docs();
+		for (int i = 0; i < full.size(); ++i) {
+			if (indexer.isLive(docs[i])) {
+				best = offer(best, docs[i]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Ranks doc, a new entry, among the best of the prefixes of the words of
+	 * data. Writer only, once doc is in the posting lists.
+	 */
+	void add(String data, int doc) {
+		// read before any Best: a repair that is not counted yet reads the
+		// lists after they hold doc, and one that is done has been kept
+		boolean repairing = repairs.get() != 0;
+		int n = data.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i)) == false) {
+				++i;
+			}
+			int end = Math.min(i, start + MAX_PREFIX_LENGTH);
+			for (int to = start + 1; to <= end; ++to) {
+				addTo(key(data, start, to), doc, repairing);
+			}
+		}
+	}
+
+	private void addTo(long key, int doc, boolean repairing) {
+		Table t = table;
+		int slot = t.find(key);
+		Best best = slot < 0 ? null : t.values.get(slot);
+		if (best == null) {
+			Best only = new Best(new PostingList(order).with(doc), true);
+			if (slot < 0) {
+				put(key, only);
+			} else {
+				t.values.set(slot, only);
+			}
+			return;
+		}
+		PostingList docs = best.docs;
+		// below the known ones, it may rank after entries they lost to DEL
+		if (best.complete || (docs.isEmpty() == false
+				&& order.compare(docs.get(docs.size() - 1), doc) > 0)) {
+			docs = offer(docs, doc);
+		}
+		// a new Best even if unchanged while a repair is running, so it is
+		// not kept
+		if (docs != best.docs || repairing) {
+			t.values.set(slot, new Best(docs, best.complete));
+		}
+	}
+
+	/**
+	 * Takes doc out of the best of the prefixes of the words of data.
+	 * Writer only, once doc is deleted.
+	 */
+	void remove(String data, int doc) {
+		// see add()
+		boolean repairing = repairs.get() != 0;
+		int n = data.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i)) == false) {
+				++i;
+			}
+			int end = Math.min(i, start + MAX_PREFIX_LENGTH);
+			for (int to = start + 1; to <= end; ++to) {
+				removeFrom(key(data, start, to), doc, repairing);
+			}
+		}
+	}
+
+	private void removeFrom(long key, int doc, boolean repairing) {
+		Table t = table;
+		int slot = t.find(key);
+		Best best = slot < 0 ? null : t.values.get(slot);
+		if (best == null) {
+			return;
+		}
+		PostingList docs = best.docs.without(doc);
+		// fewer than k held every live entry, and still do
+		boolean complete = best.complete
+				&& (docs == best.docs || best.docs.size() < k);
+		if (complete && docs.isEmpty()) {
+			t.values.set(slot, null);
+		} else if (docs != best.docs || complete != best.complete
+				|| repairing) {
+			// a new Best even if unchanged while a repair is running, as in
+			// addTo()
+			t.values.set(slot, new Best(docs, complete));
+		}
+	}
+
+	// a new prefix; grows the table first if it is 3/4 full. Writer only.
+	private void put(long key, Best best) {
+		Table t = table;
+		if ((t.used + 1) > t.keys.length() * 3L / 4) {
+			Table grown = new Table(t.keys.length() << 1);
+			for (int i = 0; i < t.keys.length(); ++i) {
+				if (t.keys.get(i) != FREE) {
+					grown.insert(t.keys.get(i), t.values.get(i));
+				}
+			}
+			table = t = grown;
+		}
+		t.insert(key, best);
+	}
+
+	// the chars of term.subSequence(from, to), lower-cased, 16 bits each,
+	// after its length; at most MAX_PREFIX_LENGTH of them
+	static long key(CharSequence term, int from, int to) {
+		long key = to - from;
+		for (int i = from; i < to; ++i) {
+			key = key << 16 | Character.toLowerCase(term.charAt(i));
+		}
+		return key;
+	}
+
+	// best with doc in its place, k at most
+	private PostingList offer(PostingList best, int doc) {
+		if (best.size() == k && order.compare(best.get(k - 1), doc) < 0) {
+			return best;
+		}
+		PostingList updated = best.with(doc);
+		return updated.size() > k ? updated.without(updated.get(k)) : updated;
+	}
+
+	// docs are the best live entries of a prefix; if complete, no other live
+	// entry ranks after them unless there are k of them
+	private static final class Best {
+		final PostingList docs;
+		final boolean complete;
+
+		Best(PostingList docs, boolean complete) {
+			this.docs = docs;
+			this.complete = complete;
+		}
+	}
+
+	// open addressing with linear probing; a slot's key is written once
+	private static final class Table {
+		// FREE or a key(), written after the value, so a reader that sees
+		// the key sees the Best it was put with or a later one
+		final AtomicLongArray keys;
+		final AtomicReferenceArray<Best> values;
+		final int shift;
+		int used;
+
+		Table(int slots) {
+			keys = new AtomicLongArray(slots);
+			values = new AtomicReferenceArray<>(slots);
+			shift = 64 - Integer.numberOfTrailingZeros(slots);
+		}
+
+		// slot of key, or -1
+		int find(long key) {
+			int mask = keys.length() - 1;
+			for (int i = home(key);; i = (i + 1) & mask) {
+				long k = keys.get(i);
+				if (k == key) {
+					return i;
+				}
+				if (k == FREE) {
+					return -1;
+				}
+			}
+		}
+
+		void insert(long key, Best best) {
+			int mask = keys.length() - 1;
+			int i = home(key);
+			while (keys.get(i) != FREE) {
+				i = (i + 1) & mask;
+			}
+			values.set(i, best);
+			keys.set(i, key);
+			used++;
+		}
+
+		// Fibonacci hashing: keys of similar prefixes differ in few bits
+		int home(long key) {
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package quorachallenge;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The posting lists and intersections that the queries of a batch share,
+ * see TypeaheadSearch.executeBatch.
+ *
+ * Every term is looked up once per batch. The lists of a query are
+ * intersected shortest first (ties by term), and each partial intersection
+ * is kept under its terms, so a query whose shortest lists are those of an
+ * earlier query starts from where that one got: "adam quora an" starts from
+ * the intersection of "adam quora" when the list of an is the longest.
+ *
+ * Thread-safe. Queries intersected at the same time may compute the same
+ * partial intersection twice, with the same result.
+ */
+class QueryBatch {
+
+	static final Intersection EMPTY = new Intersection(new int[0], 0);
+
+	private final QuoraIndexer indexer;
+	// term -> its list; EMPTY_LIST when nothing matches
+	private final ConcurrentHashMap<String, PostingList> lists = new ConcurrentHashMap<>();
+	// terms, shortest list first, one space apart -> their intersection
+	private final ConcurrentHashMap<String, Intersection> intersections = new ConcurrentHashMap<>();
+	private final AtomicLong reused = new AtomicLong();
+
+	private static final PostingList EMPTY_LIST = new PostingList();
+
+	QueryBatch(QuoraIndexer indexer) {
+		this.indexer = indexer;
+	}
+
+	/**
+	 * the list of a lower-cased term, empty if nothing matches it
+	 */
+	public PostingList list(String term) {
+		PostingList list = lists.get(term);
+		if (list == null) {
+			list = indexer.query(term);
+			if (list == null) {
+				list = EMPTY_LIST;
+			}
+			lists.put(term, list);
+		}
+		return list;
+	}
+
+	/**
+	 * the lists of the lower-cased terms, shortest first, or null if one
+	 * matches nothing
+	 */
+	public PostingList[] lists(String[] terms) {
+		PostingList[] result = new PostingList[terms.length];
+		for (int t = 0; t < terms.length; ++t) {
+			result[t] = list(terms[t]);
+			if (result[t].isEmpty()) {
+				return null;
+			}
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * the entries matched by all of the lower-cased terms, in ENTRY_ID order
+	 */
+	public Intersection intersect(String[] terms) {
+		final String[] sorted = distinct(terms);
+		final PostingList[] sortedLists = new PostingList[sorted.length];
+		for (int t = 0; t < sorted.length; ++t) {
+			sortedLists[t] = list(sorted[t]);
+			if (sortedLists[t].isEmpty()) {
+				return EMPTY;
+			}
+		}
+		// shortest first, so that shared prefixes are cheap and found
+		Integer[] order = new Integer[sorted.length];
+		for (int t = 0; t < order.length; ++t) {
+			order[t] = t;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int c = Integer.compare(sortedLists[a].size(),
+						sortedLists[b].size());
+				return c != 0 ? c : sorted[a].compareTo(sorted[b]);
+			}
+		});
+		String[] keys = new String[order.length];
+		StringBuilder key = new StringBuilder(sorted[order[0]]);
+		keys[0] = key.toString();
+		for (int t = 1; t < order.length; ++t) {
+			keys[t] = key.append(' ').append(sorted[order[t]]).toString();
+		}
+
+		// the longest prefix computed already
+		int done = 0;
+		Intersection current = null;
+		for (int t = order.length - 1; t > 0; --t) {
+			current = intersections.get(keys[t]);
+			if (current != null) {
+				reused.incrementAndGet();
+				done = t + 1;
+				break;
+			}
+		}
+		if (current == null) {
+			PostingList first = sortedLists[order[0]];
+			// the list is immutable: docs() copies only a packed one
+			current = new Intersection(first.docs(), first.size());
+			done = 1;
+		}
+		for (int t = done; t < order.length && current.size > 0; ++t) {
+			PostingList list = sortedLists[order[t]];
+			int[] out = new int[current.size];
+			int size = PostingIntersection.intersect(current.docs,
+					current.size, list, out);
+			current = new Intersection(out, size);
+			intersections.put(keys[t], current);
+		}
+		return current;
+	}
+
+	/**
+	 * number of queries that started from another one's intersection
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+
+	public int getTermCount() {
+		return lists.size();
+	}
+
+	private static String[] distinct(String[] terms) {
+		String[] sorted = terms.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int t = 0; t < sorted.length; ++t) {
+			if (n == 0 || sorted[t].equals(sorted[n - 1]) == false) {
+				sorted[n++] = sorted[t];
+			}
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+
+	/**
+	 * docs[0..size), ascending; never written to once built
+	 */
+	static class Intersection {
+		final int[] docs;
+		final int size;
+
+		Intersection(int[] docs, int size) {
+			this.docs = docs;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package quorachallenge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of query results, for the few short prefixes that make
+ * up most typeahead traffic.
+ *
+ * A result is stored with the stamp its terms had (see TermGenerations)
+ * before it was computed, and is only served while the stamp is unchanged:
+ * an ADD or DEL that could change the result is never missed. Thread-safe.
+ */
+class QueryCache {
+
+	private final int capacity;
+	// access order, eldest first
+	private final LinkedHashMap<String, Cached> results;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	QueryCache(int capacity) {
+		this.capacity = capacity;
+		results = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+				if (size() > QueryCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the result cached for key, or null if there is none or it was
+	 *         computed under another stamp
+	 */
+	public synchronized String get(String key, long stamp) {
+		Cached cached = results.get(key);
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+		if (cached.stamp != stamp) {
+			results.remove(key);
+			invalidations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return cached.result;
+	}
+
+	public synchronized void put(String key, long stamp, String result) {
+		results.put(key, new Cached(stamp, result));
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * misses on a result outdated by ADD or DEL
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	public synchronized int size() {
+		return results.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "query_cache: size=" + results.size() + " hits=" + hits
+				+ " misses=" + misses + " evictions=" + evictions
+				+ " invalidations=" + invalidations;
+	}
+
+	private static class Cached {
+		final long stamp;
+		final String result;
+
+		Cached(long stamp, String result) {
+			this.stamp = stamp;
+			this.result = result;
+		}
+	}
+}
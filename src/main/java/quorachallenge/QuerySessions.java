@@ -0,0 +1,120 @@
+package quorachallenge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The candidates of the last query of each client session, so that the next
+ * keystroke of a client filters them instead of intersecting the full posting
+ * lists again.
+ *
+ * A query whose every term starts with the term at the same position of the
+ * previous query, possibly followed by more terms, matches a subset of the
+ * previous candidates: "adam d" -> "adam d'" or "adam" -> "adam d". The
+ * candidates are kept with the generation stamp of their terms (see
+ * TermGenerations) and only reused while it is unchanged, so ADD and DEL in
+ * between are never missed.
+ *
+ * Bounded: the least recently used session is dropped. Thread-safe.
+ */
+class QuerySessions {
+
+	private final int capacity;
+	// access order, eldest first
+	private final LinkedHashMap<Object, Session> sessions;
+
+	private long refinements;
+	private long evictions;
+
+	QuerySessions(int capacity) {
+		this.capacity = capacity;
+		sessions = new LinkedHashMap<Object, Session>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Session> eldest) {
+				if (size() > QuerySessions.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * the session of key, started if needed
+	 */
+	public synchronized Session get(Object key) {
+		Session session = sessions.get(key);
+		if (session == null) {
+			session = new Session();
+			sessions.put(key, session);
+		}
+		return session;
+	}
+
+	synchronized void countRefinement() {
+		refinements++;
+	}
+
+	/**
+	 * queries answered from the candidates of the previous one
+	 */
+	public synchronized long getRefinements() {
+		return refinements;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "query_sessions: size=" + sessions.size() + " refinements="
+				+ refinements + " evictions=" + evictions;
+	}
+
+	static class Session {
+		// replaced as a whole
+		volatile Candidates last;
+	}
+
+	/**
+	 * ids matching every one of terms (lower-cased), ascending in
+	 * docs[0..size); docs may be the backing array of a posting list and is
+	 * never written
+	 */
+	static class Candidates {
+		final String[] terms;
+		final int[] docs;
+		final int size;
+		final long stamp;
+
+		Candidates(String[] terms, int[] docs, int size, long stamp) {
+			this.terms = terms;
+			this.docs = docs;
+			this.size = size;
+			this.stamp = stamp;
+		}
+
+		/**
+		 * true if every match of next is among these candidates
+		 */
+		boolean narrowedBy(String[] next) {
+			if (next.length < terms.length) {
+				return false;
+			}
+			for (int i = 0; i < terms.length; ++i) {
+				if (next[i].startsWith(terms[i]) == false) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package quorachallenge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Single writer, many readers. ADD and DEL serialize on the indexer, while
+ * query() and lookupByid() can be called from any number
+ * of threads at the same time without ever blocking: posting lists are
+ * immutable and replaced copy-on-write, and the per-entry columns only grow.
+ *
+ * A query sees every list as of some point during its run. An entry added or
+ * deleted meanwhile may be matched by some of its terms only; lookupByid()
+ * returns null for entries deleted since, and callers skip those. With
+ * DeletionMode.LAZY that is all a DEL does at first: lists keep the entry
+ * until the compactor takes it out.
+ */
+class QuoraIndexer {
+	// internal doc id -> entry, and entry id -> internal doc id; a doc id is
+	// never reused, so a re-ADD cannot be confused with the entry it
+	// replaces
+	private final EntryStore entries;
+	private int nextDoc = 0;
+
+	// term -> entry ids, sorted by order
+	private final TermIndex terms;
+
+	private final PostingOrder postingOrder;
+	private final IndexMode indexMode;
+	private final PostingList.Order order;
+
+	// lazy deletes: no compaction for fewer dead entries, and at most this
+	// many per hold of the lock
+	private static final int MIN_DEAD_TO_COMPACT = 256;
+	private static final int COMPACTION_BATCH = 4096;
+	// eager deletes: the text of deleted entries is released this many at a
+	// time rather than with the delete, so queries still walking older lists
+	// rarely find it gone (lookupByid() copes when they do)
+	private static final int RELEASE_BATCH = 4096;
+
+	private ForkJoinPool bulkPool;
+	private WriteAheadLog log;
+
+	// DeletionMode.LAZY: docs deleted but still in posting lists, null for
+	// EAGER
+	private final BitSet dead;
+	private int deadCount;
+	private final double compactRatio;
+	// DeletionMode.EAGER: deleted docs whose text is not released yet
+	private final int[] unreleased;
+	private int unreleasedCount;
+	// started by the first compaction
+	private Thread compactor;
+	private boolean compactionRequested;
+	private volatile boolean compactionStopped;
+	private long compactions;
+	// null until a result cache needs it
+	private volatile TermGenerations generations;
+	// the best entries of short prefixes, null unless IndexOptions.setTopK
+	private final PrefixTopK topK;
+
+	public QuoraIndexer() {
+		this(new IndexOptions());
+	}
+
+	public QuoraIndexer(IndexOptions options) {
+		this.postingOrder = options.getPostingOrder();
+		this.indexMode = options.getIndexMode();
+		if (postingOrder == PostingOrder.SCORE) {
+			order = new ScoreOrder();
+		} else {
+			order = PostingList.ASCENDING;
+		}
+		terms = TermIndex.create(options.getIndexMode(), order,
+				options.getPostingFormat());
+		entries = new EntryStore(options.getEntryStorage());
+		dead = options.getDeletionMode() == DeletionMode.LAZY ? new BitSet()
+				: null;
+		unreleased = dead == null ? new int[RELEASE_BATCH] : null;
+		compactRatio = options.getCompactRatio();
+		topK = options.getTopK() > 0 ? new PrefixTopK(options.getTopK(),
+				new ScoreOrder()) : null;
+	}
+
+	public PostingOrder getPostingOrder() {
+		return postingOrder;
+	}
+
+	public synchronized void add(DataEntry entry) {
+		if (log != null) {
+			log.logAdd(entry);
+		}
+		// ids have always been matched case-insensitively
+		int old = entries.find(entry.getId());
+		if (old >= 0) {
+			// re-ADD replaces the entry; its old tokens must not match anymore
+			remove(old);
+		}
+		int eIdInt = nextDoc++;
+		// the entry is stored before any list holding the new id is
+		// published
+		entries.put(eIdInt, entry);
+		terms.add(entry.getData(), eIdInt);
+		if (topK != null) {
+			topK.add(entry.getData(), eIdInt);
+		}
+		touch(entry.getData());
+	}
+
+	/**
+	 * Same result as add() of every entry in list order, time stamp ties
+	 * included, but the entries are tokenized and their posting lists built
+	 * on all cores. Meant for loading large batches, e.g. at startup.
+	 */
+	public synchronized void addAll(List<DataEntry> batch) {
+		int n = batch.size();
+		if (log != null) {
+			for (DataEntry entry : batch) {
+				log.logAdd(entry);
+			}
+		}
+		// only the last ADD of an id survives the batch; the earlier ones
+		// are skipped as if added and replaced
+		HashMap<String, Integer> last = new HashMap<>();
+		for (int i = 0; i < n; ++i) {
+			String id = batch.get(i).getId();
+			last.put(id.toLowerCase(), i);
+			int old = entries.find(id);
+			if (old >= 0) {
+				remove(old);
+			}
+		}
+
+		String[] data = new String[n];
+		int[] docs = new int[n];
+		int count = 0;
+		for (int i = 0; i < n; ++i) {
+			DataEntry entry = batch.get(i);
+			if (last.get(entry.getId().toLowerCase()) != i) {
+				continue;
+			}
+			int eIdInt = nextDoc++;
+			entries.put(eIdInt, entry);
+			data[count] = entry.getData();
+			docs[count++] = eIdInt;
+		}
+		terms.addAll(data, docs, count, bulkPool());
+		if (topK != null) {
+			for (int i = 0; i < count; ++i) {
+				topK.add(data[i], docs[i]);
+			}
+		}
+		for (int i = 0; i < count; ++i) {
+			touch(data[i]);
+		}
+	}
+
+	// created on the first bulk load; its worker threads are daemons
+	private ForkJoinPool bulkPool() {
+		if (bulkPool == null) {
+			bulkPool = new ForkJoinPool();
+		}
+		return bulkPool;
+	}
+
+	public synchronized void delete(String id) {
+		int eIdInt = entries.find(id);
+		if (eIdInt < 0) {
+			return;
+		}
+		if (log != null) {
+			log.logDelete(id);
+		}
+		remove(eIdInt);
+	}
+
+	private void remove(int eIdInt) {
+		String data = entries.getData(eIdInt);
+		if (dead != null) {
+			// no list is touched: queries skip entries that are not live,
+			// and the compactor takes it out of the lists later
+			entries.delete(eIdInt);
+			dead.set(eIdInt);
+			deadCount++;
+			// the top-K and the result cache, when on, are updated now, see
+			// DeletionMode.LAZY
+			removeTopK(data, eIdInt);
+			if (generations != null) {
+				touch(data);
+			}
+			if (deadCount >= MIN_DEAD_TO_COMPACT
+					&& deadCount > compactRatio * (entries.size() + deadCount)) {
+				requestCompaction();
+			}
+			return;
+		}
+		terms.remove(data, eIdInt);
+		// score and time stamp stay: older list versions still rank by them
+		entries.delete(eIdInt);
+		removeTopK(data, eIdInt);
+		touch(data);
+		unreleased[unreleasedCount++] = eIdInt;
+		if (unreleasedCount == RELEASE_BATCH) {
+			for (int i = 0; i < unreleasedCount; ++i) {
+				entries.release(unreleased[i]);
+			}
+			unreleasedCount = 0;
+		}
+	}
+
+	// only once the entry is deleted: a repair of topK running meanwhile
+	// then either does not select it or is not kept
+	private void removeTopK(String data, int eIdInt) {
+		if (topK != null) {
+			topK.remove(data, eIdInt);
+		}
+	}
+
+	private void requestCompaction() {
+		if (compactionStopped) {
+			return;
+		}
+		if (compactor == null) {
+			compactor = new Thread("index-compactor") {
+				@Override
+				public void run() {
+					compactLoop();
+				}
+			};
+			compactor.setDaemon(true);
+			compactor.start();
+		}
+		compactionRequested = true;
+		notifyAll();
+	}
+
+	private void compactLoop() {
+		while (true) {
+			synchronized (this) {
+				while (compactionRequested == false
+						&& compactionStopped == false) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (compactionStopped) {
+					return;
+				}
+				compactionRequested = false;
+			}
+			// the lock is let go between batches, for ADD and DEL
+			while (compactionStopped == false && compact(COMPACTION_BATCH)) {
+			}
+		}
+	}
+
+	/**
+	 * Stops the background compactor, e.g. at shutdown: once this returns
+	 * it runs no more batches, and dead entries stay in the lists unless
+	 * compact() is called.
+	 */
+	public synchronized void stopCompaction() {
+		compactionStopped = true;
+		notifyAll();
+	}
+
+	/**
+	 * Takes every dead entry out of the posting lists now, see
+	 * DeletionMode.LAZY.
+	 */
+	public synchronized void compact() {
+		compact(Integer.MAX_VALUE);
+	}
+
+	// up to max dead docs; false once there are none left
+	private synchronized boolean compact(int max) {
+		if (deadCount == 0) {
+			return false;
+		}
+		int n = Math.min(max, deadCount);
+		int[] docs = new int[n];
+		String[] data = new String[n];
+		int doc = dead.nextSetBit(0);
+		for (int i = 0; i < n; ++i, doc = dead.nextSetBit(doc + 1)) {
+			docs[i] = doc;
+			data[i] = entries.getData(doc);
+		}
+		// lists of this batch lose all their dead docs, not only its own
+		terms.removeAll(data, n, dead);
+		for (int i = 0; i < n; ++i) {
+			dead.clear(docs[i]);
+			entries.release(docs[i]);
+		}
+		deadCount -= n;
+		compactions++;
+		return deadCount > 0;
+	}
+
+	/**
+	 * number of deleted entries still in posting lists
+	 */
+	public synchronized int getDeadCount() {
+		return deadCount;
+	}
+
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	// after the change is visible to queries
+	private void touch(String data) {
+		TermGenerations g = generations;
+		if (g != null) {
+			g.touch(data);
+		}
+	}
+
+	/**
+	 * Starts counting the ADDs and DELs that affect each term, see
+	 * getTermGeneration().
+	 */
+	public synchronized void trackTermGenerations() {
+		if (generations == null) {
+			generations = new TermGenerations();
+		}
+	}
+
+	/**
+	 * Grows whenever an ADD or DEL may change what term.subSequence(from,
+	 * to) matches, once trackTermGenerations() has been called.
+	 */
+	public long getTermGeneration(CharSequence term, int from, int to) {
+		return generations.get(term, from, to);
+	}
+
+	/**
+	 * entries whose data has a word starting with term (case-insensitive),
+	 * or null
+	 */
+	public PostingList query(CharSequence term) {
+		return terms.query(term, 0, term.length());
+	}
+
+	/**
+	 * same as query(term.subSequence(from, to))
+	 */
+	public PostingList query(CharSequence term, int from, int to) {
+		return terms.query(term, from, to);
+	}
+
+	/**
+	 * The best entries of term.subSequence(from, to) by their own score,
+	 * best first: numResult of them, or all there are if fewer. null unless
+	 * IndexOptions.setTopK keeps at least numResult for terms of that
+	 * length.
+	 */
+	public PostingList topEntries(CharSequence term, int from, int to,
+			int numResult) {
+		if (topK == null || topK.covers(to - from, numResult) == false) {
+			return null;
+		}
+		PostingList best = topK.get(term, from, to, numResult);
+		if (best != null) {
+			return best;
+		}
+		// DELs left too few: select them from the full list
+		return topK.repair(term, from, to, this);
+	}
+
+	public int getTermCount() {
+		return terms.size();
+	}
+
+	/**
+	 * number of live entries
+	 */
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the entry, or null if it has been deleted
+	 */
+	public DataEntry lookupByid(int eIdInt) {
+		return entries.get(eIdInt);
+	}
+
+	// whether doc is an entry that has not been deleted
+	boolean isLive(int doc) {
+		return entries.isLive(doc);
+	}
+
+	/**
+	 * doc id of the live entry whose id is id.subSequence(from, to),
+	 * ignoring case, or -1
+	 */
+	public int findDoc(CharSequence id, int from, int to) {
+		return entries.find(id, from, to);
+	}
+
+	/**
+	 * The columns of an entry, without creating a DataEntry; they stay
+	 * readable after a DEL.
+	 */
+	public float getScore(int eIdInt) {
+		return entries.getScore(eIdInt);
+	}
+
+	public long getTimeStamp(int eIdInt) {
+		return entries.getTimeStamp(eIdInt);
+	}
+
+	public DataEntryType getType(int eIdInt) {
+		return entries.getType(eIdInt);
+	}
+
+	public String getId(int eIdInt) {
+		return entries.getId(eIdInt);
+	}
+
+	/**
+	 * Writes the index to file, see IndexSnapshot. ADD and DEL wait for it,
+	 * queries do not.
+	 */
+	public synchronized void writeSnapshot(File file) throws IOException {
+		// lists must not hold entries the file does not
+		compact();
+		IndexSnapshot.write(this, file);
+		if (log != null) {
+			// everything logged so far is in the snapshot
+			log.truncate();
+		}
+	}
+
+	/**
+	 * Records every ADD and DEL from now on in log. Replay the log into this
+	 * index before attaching it; null stops logging.
+	 */
+	public synchronized void attachLog(WriteAheadLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * An index loaded from a file written by writeSnapshot(), set up by
+	 * options except for the posting order and index mode, which are the
+	 * ones it was written with. options itself is not changed.
+	 */
+	public static QuoraIndexer readSnapshot(File file, IndexOptions options)
+			throws IOException {
+		return IndexSnapshot.read(file, options);
+	}
+
+	// internal doc ids are below this
+	int getDocCount() {
+		return nextDoc;
+	}
+
+	TermIndex getTerms() {
+		return terms;
+	}
+
+	IndexMode getIndexMode() {
+		return indexMode;
+	}
+
+	EntryStore getEntries() {
+		return entries;
+	}
+
+	// accounts for a snapshot entry put back into getEntries() under its
+	// old doc id; its terms are restored separately
+	void restoreEntry(int eIdInt) {
+		nextDoc = Math.max(nextDoc, eIdInt + 1);
+		if (topK != null) {
+			topK.add(entries.getData(eIdInt), eIdInt);
+		}
+	}
+
+	void restoreDocCount(int docCount) {
+		nextDoc = Math.max(nextDoc, docCount);
+	}
+
+	// same ranking as ResultDataEntry.compareTo, best first; the id breaks
+	// the (unlikely) time stamp tie so that the order is total
+	private class ScoreOrder implements PostingList.Order {
+		@Override
+		public int compare(int a, int b) {
+			if (a == b) {
+				return 0;
+			}
+			float sa = entries.getScore(a), sb = entries.getScore(b);
+			if (sa != sb) {
+				return sa > sb ? -1 : 1;
+			}
+			long ta = entries.getTimeStamp(a), tb = entries.getTimeStamp(b);
+			if (ta != tb) {
+				return ta > tb ? -1 : 1;
+			}
+			return a < b ? -1 : 1;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package quorachallenge;
+
+class ResultDataEntry implements Comparable<ResultDataEntry> {
+	private DataEntry entry;
+	private float fScore;
+
+	public ResultDataEntry(DataEntry entry, float fScore) {
+		this.entry = entry;
+		this.fScore = fScore;
+	}
+
+	public float getfScore() {
+		return fScore;
+	}
+
+	public void boost(float boostFactor) {
+		this.fScore *= boostFactor;
+	}
+
+	// lets TopKSelector recycle the entry it evicts
+	void reset(DataEntry entry, float fScore) {
+		this.entry = entry;
+		this.fScore = fScore;
+	}
+
+	public DataEntry getEntry() {
+		return entry;
+	}
+
+	@Override
+	public int compareTo(ResultDataEntry o) {
+		if (o.getfScore() == getfScore()) {
+			// tie is broken by added time
+			if (entry.getTimeStamp() < o.entry.getTimeStamp()) {
+				return -1;
+			} else {
+				return 1;
+			}
+		}
+		if (getfScore() < o.getfScore()) {
+			return -1;
+		} else {
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+package quorachallenge;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps a term to its posting list. Owned by one QuoraIndexer, so several
+ * indexes can live side by side, and terms are dropped as soon as their list
+ * becomes empty.
+ *
+ * Open addressing with linear probing. The characters of all terms are packed
+ * into one char[] pool and a slot only holds the term's hash, offset and
+ * length and the posting list, instead of a HashMap node, a String and a
+ * boxed id per term. Terms are case-insensitive: every char goes through
+ * Character.toLowerCase on the way in and on lookup, so callers can look up
+ * any region of a string without creating a substring.
+ *
+ * Single writer, lock-free readers. Within one table a slot's key is written
+ * once; a removed term leaves a tombstone that is only cleared, together with
+ * the dead chars in the pool, when the writer rebuilds the table and
+ * publishes the new one.
+ */
+class TermDictionary {
+
+	/**
+	 * Receives the terms of a dictionary, see forEach.
+	 */
+	interface Visitor {
+		void visit(CharSequence term, PostingList postings) throws IOException;
+	}
+
+	private static final int INITIAL_SLOTS = 1024;
+	private static final int EMPTY = -1;
+	private static final int TOMBSTONE = -2;
+
+	private volatile Table table = new Table(INITIAL_SLOTS, 4 * INITIAL_SLOTS);
+
+	// counts kept by the writer
+	private int live;
+	private int used;
+
+	public PostingList get(CharSequence term) {
+		return get(term, 0, term.length());
+	}
+
+	/**
+	 * posting list of term.subSequence(from, to), or null
+	 */
+	public PostingList get(CharSequence term, int from, int to) {
+		Table t = table;
+		int slot = t.find(term, from, to, hash(term, from, to));
+		return slot < 0 ? null : t.values.get(slot);
+	}
+
+	/**
+	 * Sets the posting list of term.subSequence(from, to). Writer only.
+	 */
+	public void put(CharSequence term, int from, int to, PostingList postings) {
+		int h = hash(term, from, to);
+		Table t = table;
+		int slot = t.find(term, from, to, h);
+		if (slot >= 0) {
+			t.values.set(slot, postings);
+			return;
+		}
+		if ((used + 1) > t.mask * 3L / 4) {
+			t = rebuild(live + 1);
+		}
+		t.insert(term, from, to, h, postings);
+		live++;
+		used++;
+	}
+
+	/**
+	 * Drops term.subSequence(from, to). Writer only.
+	 */
+	public void remove(CharSequence term, int from, int to) {
+		Table t = table;
+		int slot = t.find(term, from, to, hash(term, from, to));
+		if (slot < 0) {
+			return;
+		}
+		t.values.set(slot, null);
+		t.offsets.set(slot, TOMBSTONE);
+		t.deadChars += t.lengths[slot];
+		live--;
+		if (used > 2 * live + INITIAL_SLOTS || t.deadChars > t.poolSize >>> 1) {
+			rebuild(live);
+		}
+	}
+
+	/**
+	 * Hands every term, lower-cased, and its list to visitor. Writer only.
+	 */
+	public void forEach(Visitor visitor) throws IOException {
+		Table t = table;
+		for (int i = 0; i <= t.mask; ++i) {
+			int off = t.offsets.get(i);
+			if (off >= 0) {
+				visitor.visit(CharBuffer.wrap(t.pool, off, t.lengths[i]),
+						t.values.get(i));
+			}
+		}
+	}
+
+	/**
+	 * number of terms
+	 */
+	public int size() {
+		return live;
+	}
+
+	// same value as term.substring(from, to).toLowerCase().hashCode() for
+	// terms that lower-case char by char
+	static int hash(CharSequence term, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; ++i) {
+			h = 31 * h + Character.toLowerCase(term.charAt(i));
+		}
+		return h;
+	}
+
+	// the key a term is stored under
+	static String lowerCase(CharSequence term, int from, int to) {
+		char[] chars = new char[to - from];
+		for (int i = from; i < to; ++i) {
+			chars[i - from] = Character.toLowerCase(term.charAt(i));
+		}
+		return new String(chars);
+	}
+
+	// copies the live terms into a fresh table sized for count terms
+	private Table rebuild(int count) {
+		int slots = INITIAL_SLOTS;
+		while (slots * 3L / 8 < count) {
+			slots <<= 1;
+		}
+		Table old = table;
+		Table t = new Table(slots, Math.max(4 * INITIAL_SLOTS, 2
+				* (old.poolSize - old.deadChars)));
+		for (int i = 0; i <= old.mask; ++i) {
+			int off = old.offsets.get(i);
+			if (off >= 0) {
+				t.insert(CharBuffer.wrap(old.pool, off, old.lengths[i]), 0,
+						old.lengths[i], old.hashes[i], old.values.get(i));
+			}
+		}
+		used = live;
+		table = t;
+		return t;
+	}
+
+	private static class Table {
+		final int mask;
+		final int shift;
+		final int multiplier = ThreadLocalRandom.current().nextInt() | 1;
+		final int[] hashes;
+		final int[] lengths;
+		// >= 0: offset of the term in pool; EMPTY or TOMBSTONE otherwise.
+		// Written last, so a reader that sees an offset sees the rest.
+		final AtomicIntegerArray offsets;
+		final AtomicReferenceArray<PostingList> values;
+		volatile char[] pool;
+		int poolSize;
+		int deadChars;
+
+		Table(int slots, int poolCapacity) {
+			mask = slots - 1;
+			shift = 32 - Integer.numberOfTrailingZeros(slots);
+			hashes = new int[slots];
+			lengths = new int[slots];
+			offsets = new AtomicIntegerArray(slots);
+			for (int i = 0; i < slots; ++i) {
+				offsets.set(i, EMPTY);
+			}
+			values = new AtomicReferenceArray<>(slots);
+			pool = new char[poolCapacity];
+		}
+
+		int find(CharSequence term, int from, int to, int h) {
+			int len = to - from;
+			for (int i = home(h);; i = (i + 1) & mask) {
+				int off = offsets.get(i);
+				if (off == EMPTY) {
+					return -1;
+				}
+				if (off >= 0 && hashes[i] == h && lengths[i] == len
+						&& matches(pool, off, term, from, len)) {
+					return i;
+				}
+			}
+		}
+
+		// Multiplicative hashing with a multiplier of its own: the low bits
+		// of String hashes of similar terms cluster, and terms copied over
+		// in another table's slot order would pile up if both tables ordered
+		// them alike
+		int home(int h) {
+			return (h * multiplier) >>> shift;
+		}
+
+		// never reuses a tombstone, so a slot's key is written once per table
+		void insert(CharSequence term, int from, int to, int h,
+				PostingList postings) {
+			int len = to - from;
+			char[] p = pool;
+			if (poolSize + len > p.length) {
+				p = Arrays.copyOf(p, Math.max(p.length << 1, poolSize + len));
+			}
+			for (int k = 0; k < len; ++k) {
+				p[poolSize + k] = Character.toLowerCase(term.charAt(from + k));
+			}
+			pool = p;
+			int i = home(h);
+			while (offsets.get(i) != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			hashes[i] = h;
+			lengths[i] = len;
+			values.set(i, postings);
+			offsets.set(i, poolSize);
+			poolSize += len;
+		}
+
+		private static boolean matches(char[] pool, int off, CharSequence term,
+				int from, int len) {
+			for (int k = 0; k < len; ++k) {
+				if (pool[off + k] != Character.toLowerCase(term.charAt(from + k))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package quorachallenge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change counters for query terms, so that a cached result can tell whether
+ * an ADD or DEL since might have changed it.
+ *
+ * Every term hashes to one of SLOTS counters. An ADD or DEL bumps the
+ * counter of every prefix of every word of the entry, after the index has
+ * changed, so any term the entry matches sees its counter move. Terms that
+ * share a counter only cost each other spurious misses.
+ */
+class TermGenerations {
+
+	private static final int SLOTS = 1 << 16;
+
+	private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+
+	/**
+	 * bumps the counters of all terms that match a word of data
+	 */
+	public void touch(String data) {
+		int n = data.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i)) == false) {
+				++i;
+			}
+			touch(data, start, i);
+		}
+	}
+
+	/**
+	 * bumps the counters of all prefixes of the word word.subSequence(from,
+	 * to)
+	 */
+	public void touch(CharSequence word, int from, int to) {
+		// the same hash as TermDictionary.hash, one prefix at a time
+		int h = 0;
+		for (int i = from; i < to; ++i) {
+			h = 31 * h + Character.toLowerCase(word.charAt(i));
+			counts.incrementAndGet(slot(h));
+		}
+	}
+
+	/**
+	 * counter of term.subSequence(from, to); it only grows
+	 */
+	public long get(CharSequence term, int from, int to) {
+		return counts.get(slot(TermDictionary.hash(term, from, to)));
+	}
+
+	private static int slot(int h) {
+		int x = h * 0x9E3779B9;
+		return (x ^ (x >>> 16)) & (SLOTS - 1);
+	}
+}
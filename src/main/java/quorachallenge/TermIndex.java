@@ -0,0 +1,287 @@
+package quorachallenge;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Where a QuoraIndexer keeps the posting lists of its terms. query(term)
+ * returns the entries having a word that starts with term, case-insensitive.
+ *
+ * Single writer (add and remove), lock-free readers (query).
+ */
+abstract class TermIndex {
+
+	protected final PostingList.Order order;
+	// how lists are packed, null to keep them plain
+	private final PackedIds packing;
+
+	protected TermIndex(PostingList.Order order, PostingFormat format) {
+		this.order = order;
+		this.packing = format == PostingFormat.PACKED ? PostingBlocks.EMPTY
+				: format == PostingFormat.ROARING ? PostingContainers.EMPTY
+						: null;
+	}
+
+	static TermIndex create(IndexMode mode, PostingList.Order order,
+			PostingFormat format) {
+		if (mode == IndexMode.WORD) {
+			return new WordTermIndex(order, format);
+		}
+		return new PrefixTermIndex(order, format);
+	}
+
+	/**
+	 * entries whose data has a word starting with term.subSequence(from, to),
+	 * or null
+	 */
+	public abstract PostingList query(CharSequence term, int from, int to);
+
+	/**
+	 * number of terms held
+	 */
+	public abstract int size();
+
+	/**
+	 * data.subSequence(from, to) is one word of the entry
+	 */
+	protected abstract void addWord(String data, int from, int to, int eIdInt);
+
+	protected abstract void removeWord(String data, int from, int to,
+			int eIdInt);
+
+	/**
+	 * Receives the keys of words, see collectKeys.
+	 */
+	interface KeySink {
+		void key(CharSequence data, int from, int to);
+	}
+
+	/**
+	 * Hands sink the keys the word data.subSequence(from, to) is stored
+	 * under, as regions of data, for bulk loading. Keys are case-insensitive
+	 * like the terms of a TermDictionary.
+	 */
+	protected abstract void collectKeys(String data, int from, int to,
+			KeySink sink);
+
+	/**
+	 * the list stored under a key from collectKeys, or null
+	 */
+	protected abstract PostingList getKey(CharSequence key);
+
+	/**
+	 * Stores a list under a key from collectKeys. Writer only.
+	 */
+	protected abstract void putKey(CharSequence key, PostingList postings);
+
+	/**
+	 * Drops a key from collectKeys and its list. Writer only.
+	 */
+	protected abstract void removeKey(CharSequence key);
+
+	/**
+	 * Hands every key and its list to visitor. Writer only.
+	 */
+	protected abstract void forEachKey(TermDictionary.Visitor visitor)
+			throws IOException;
+
+	public void add(String data, int eIdInt) {
+		updateWords(data, eIdInt, true);
+	}
+
+	/**
+	 * Same as add(data[i], docs[i]) for each i < count in turn, with the
+	 * work spread over pool. docs must be ascending and above every id added
+	 * before.
+	 */
+	public void addAll(String[] data, int[] docs, int count, ForkJoinPool pool) {
+		if (count < BulkIndexBuilder.MIN_CHUNK_SIZE) {
+			// not worth the hand-off
+			for (int i = 0; i < count; ++i) {
+				add(data[i], docs[i]);
+			}
+			return;
+		}
+		new BulkIndexBuilder(this, data, docs, count, pool.getParallelism())
+				.build(pool);
+	}
+
+	/**
+	 * keys of all words of data, in order, with repeats
+	 */
+	void collectKeys(String data, KeySink sink) {
+		int n = data.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i)) == false) {
+				++i;
+			}
+			if (i == start) {
+				break;
+			}
+			collectKeys(data, start, i, sink);
+		}
+	}
+
+	public void remove(String data, int eIdInt) {
+		updateWords(data, eIdInt, false);
+	}
+
+	/**
+	 * Takes every doc set in dead out of the lists of the words of
+	 * data[0..count), which must include the data of those docs; each list
+	 * is copied once however many of them it holds. Writer only.
+	 */
+	public void removeAll(String[] data, int count, final BitSet dead) {
+		final HashSet<String> keys = new HashSet<>();
+		KeySink sink = new KeySink() {
+			@Override
+			public void key(CharSequence data, int from, int to) {
+				keys.add(TermDictionary.lowerCase(data, from, to));
+			}
+		};
+		for (int i = 0; i < count; ++i) {
+			collectKeys(data[i], sink);
+		}
+		for (String key : keys) {
+			PostingList postings = getKey(key);
+			if (postings == null) {
+				continue;
+			}
+			PostingList updated = postings.without(dead);
+			if (updated.isEmpty()) {
+				removeKey(key);
+			} else if (updated != postings) {
+				putKey(key, updated);
+			}
+		}
+	}
+
+	private void updateWords(String data, int eIdInt, boolean add) {
+		int n = data.length();
+		int i = 0;
+		while (i < n) {
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < n && DataEntry.isWhiteSpace(data.charAt(i)) == false) {
+				++i;
+			}
+			if (i == start) {
+				break;
+			}
+			if (add) {
+				addWord(data, start, i, eIdInt);
+			} else {
+				removeWord(data, start, i, eIdInt);
+			}
+		}
+	}
+
+	// shared by both layouts: puts eIdInt into the list of one term
+	protected void addTo(TermDictionary dict, CharSequence term, int from,
+			int to, int eIdInt) {
+		PostingList postings = dict.get(term, from, to);
+		if (postings == null) {
+			postings = new PostingList(order);
+		}
+		PostingList updated = stored(postings.with(eIdInt));
+		if (updated != postings) {
+			dict.put(term, from, to, updated);
+		}
+	}
+
+	/**
+	 * list as it is to be stored: packed unless PostingFormat.PLAIN
+	 */
+	protected PostingList stored(PostingList list) {
+		return packing == null ? list : list.packed(packing);
+	}
+
+	// takes eIdInt out of the list of one term, dropping the term once empty
+	protected void removeFrom(TermDictionary dict, CharSequence term,
+			int from, int to, int eIdInt) {
+		PostingList postings = dict.get(term, from, to);
+		if (postings == null) {
+			return;
+		}
+		PostingList updated = postings.without(eIdInt);
+		if (updated.isEmpty()) {
+			dict.remove(term, from, to);
+		} else if (updated != postings) {
+			dict.put(term, from, to, updated);
+		}
+	}
+}
+
+/**
+ * Every prefix of every word is a term with its own posting list: a lookup
+ * is a single hash probe, at the price of one list entry per prefix.
+ */
+class PrefixTermIndex extends TermIndex {
+
+	private final TermDictionary dictionary = new TermDictionary();
+
+	PrefixTermIndex(PostingList.Order order, PostingFormat format) {
+		super(order, format);
+	}
+
+	@Override
+	public PostingList query(CharSequence term, int from, int to) {
+		return dictionary.get(term, from, to);
+	}
+
+	@Override
+	public int size() {
+		return dictionary.size();
+	}
+
+	@Override
+	protected void addWord(String data, int from, int to, int eIdInt) {
+		for (int end = from + 1; end <= to; ++end) {
+			addTo(dictionary, data, from, end, eIdInt);
+		}
+	}
+
+	@Override
+	protected void removeWord(String data, int from, int to, int eIdInt) {
+		for (int end = from + 1; end <= to; ++end) {
+			removeFrom(dictionary, data, from, end, eIdInt);
+		}
+	}
+
+	@Override
+	protected void collectKeys(String data, int from, int to, KeySink sink) {
+		for (int end = from + 1; end <= to; ++end) {
+			sink.key(data, from, end);
+		}
+	}
+
+	@Override
+	protected PostingList getKey(CharSequence key) {
+		return dictionary.get(key);
+	}
+
+	@Override
+	protected void forEachKey(TermDictionary.Visitor visitor)
+			throws IOException {
+		dictionary.forEach(visitor);
+	}
+
+	@Override
+	protected void putKey(CharSequence key, PostingList postings) {
+		dictionary.put(key, 0, key.length(), stored(postings));
+	}
+
+	@Override
+	protected void removeKey(CharSequence key) {
+		dictionary.remove(key, 0, key.length());
+	}
+}
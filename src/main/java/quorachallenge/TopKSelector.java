@@ -0,0 +1,106 @@
+package quorachallenge;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Keeps the k best results seen so far in a min-heap of size k, ranked like
+ * ResultDataEntry.compareTo: higher score first, ties go to the newer entry.
+ *
+ * A candidate that does not beat the current k-th result is rejected on its
+ * primitive score and timestamp alone, and the evicted heap slot is reused,
+ * so a pass over n candidates costs O(n log k) and allocates at most k
+ * ResultDataEntry objects.
+ */
+class TopKSelector {
+
+	private final ResultDataEntry[] heap;
+	private int size;
+
+	public TopKSelector(int k) {
+		heap = new ResultDataEntry[Math.max(0, k)];
+	}
+
+	/**
+	 * @return true if the entry is among the k best so far
+	 */
+	public boolean offer(DataEntry entry, float fScore) {
+		if (size < heap.length) {
+			heap[size] = new ResultDataEntry(entry, fScore);
+			siftUp(size++);
+			return true;
+		}
+		if (size == 0 || ranksAbove(fScore, entry.getTimeStamp(), heap[0]) == false) {
+			return false;
+		}
+		heap[0].reset(entry, fScore);
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Same as offer(indexer.lookupByid(eIdInt), fScore), but the entry is
+	 * only created once it is accepted. A deleted entry is not taken.
+	 */
+	public boolean offer(QuoraIndexer indexer, int eIdInt, float fScore) {
+		if (size == heap.length
+				&& (size == 0 || ranksAbove(fScore,
+						indexer.getTimeStamp(eIdInt), heap[0]) == false)) {
+			return false;
+		}
+		DataEntry entry = indexer.lookupByid(eIdInt);
+		return entry != null && offer(entry, fScore);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * the selected results, best first
+	 */
+	public ResultDataEntry[] toSortedArray() {
+		ResultDataEntry[] sorted = Arrays.copyOf(heap, size);
+		Arrays.sort(sorted, Collections.reverseOrder());
+		return sorted;
+	}
+
+	private static boolean ranksAbove(float fScore, long timeStamp,
+			ResultDataEntry min) {
+		if (fScore != min.getfScore()) {
+			return fScore > min.getfScore();
+		}
+		return timeStamp > min.getEntry().getTimeStamp();
+	}
+
+	private void siftUp(int i) {
+		ResultDataEntry x = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (x.compareTo(heap[parent]) >= 0) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = x;
+	}
+
+	private void siftDown(int i) {
+		ResultDataEntry x = heap[i];
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && heap[right].compareTo(heap[child]) < 0) {
+				child = right;
+			}
+			if (x.compareTo(heap[child]) <= 0) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = x;
+	}
+}
@@ -0,0 +1,209 @@
+package quorachallenge;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Drives a TypeaheadServer with the QUERY and WQUERY lines of a file, over
+ * many connections that each keep up to a fixed number of requests in
+ * flight, and prints throughput and latency percentiles. The latency of a
+ * request runs from when it is queued for sending until its result line is
+ * read.
+ *
+ * <pre>
+ * java quorachallenge.TypeaheadLoadClient host port connections depth seconds queries.txt
+ * </pre>
+ */
+class TypeaheadLoadClient {
+
+	private final byte[][] requests;
+	private final Histogram latencies = new Histogram();
+	private int nextRequest;
+	private long completed;
+
+	TypeaheadLoadClient(byte[][] requests) {
+		this.requests = requests;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 6) {
+			System.err.println("usage: TypeaheadLoadClient host port"
+					+ " connections depth seconds queries.txt");
+			System.exit(2);
+		}
+		InetSocketAddress address = new InetSocketAddress(args[0],
+				Integer.parseInt(args[1]));
+		int connections = Integer.parseInt(args[2]);
+		int depth = Integer.parseInt(args[3]);
+		long seconds = Long.parseLong(args[4]);
+
+		TypeaheadLoadClient client = new TypeaheadLoadClient(
+				readQueries(args[5]));
+		long elapsed = client.run(address, connections, depth,
+				seconds * 1000000000L);
+		Histogram h = client.latencies;
+		System.out.println(String.format(Locale.ROOT,
+				"requests=%d throughput=%.0f/s p50=%.1fus p99=%.1fus"
+						+ " p99.9=%.1fus max=%.1fus", client.completed,
+				client.completed * 1e9 / elapsed, h.percentile(50) / 1e3,
+				h.percentile(99) / 1e3, h.percentile(99.9) / 1e3,
+				h.max() / 1e3));
+	}
+
+	// the query lines, each with its line feed
+	static byte[][] readQueries(String file) throws IOException {
+		ArrayList<byte[]> queries = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("QUERY ") || line.startsWith("WQUERY ")) {
+					queries.add((line + '\n').getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		if (queries.isEmpty()) {
+			throw new IOException("no QUERY or WQUERY lines in " + file);
+		}
+		return queries.toArray(new byte[queries.size()][]);
+	}
+
+	/**
+	 * Sends requests for durationNanos, then waits for the results still
+	 * due; returns the nanoseconds it took.
+	 */
+	long run(InetSocketAddress address, int connections, int depth,
+			long durationNanos) throws IOException {
+		Selector selector = Selector.open();
+		ArrayList<Connection> open = new ArrayList<>();
+		try {
+			for (int i = 0; i < connections; ++i) {
+				SocketChannel channel = SocketChannel.open(address);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channel.configureBlocking(false);
+				Connection connection = new Connection(channel, depth);
+				connection.key = channel.register(selector,
+						SelectionKey.OP_READ, connection);
+				open.add(connection);
+			}
+			long start = System.nanoTime();
+			long end = start + durationNanos;
+			for (Connection connection : open) {
+				connection.send(start);
+			}
+			int busy = open.size();
+			while (busy > 0) {
+				selector.select(100);
+				long now = System.nanoTime();
+				boolean sending = now < end;
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					if (key.isWritable()) {
+						connection.flush();
+					}
+					if (key.isReadable()) {
+						connection.receive(now);
+					}
+					if (sending) {
+						connection.send(now);
+					}
+				}
+				if (sending == false) {
+					busy = 0;
+					for (Connection connection : open) {
+						if (connection.inFlight > 0) {
+							++busy;
+						}
+					}
+				}
+			}
+			return System.nanoTime() - start;
+		} finally {
+			for (Connection connection : open) {
+				connection.channel.close();
+			}
+			selector.close();
+		}
+	}
+
+	private class Connection {
+		final SocketChannel channel;
+		SelectionKey key;
+		// send times of the requests in flight, oldest at head
+		final long[] sentAt;
+		int head;
+		int inFlight;
+		final ByteBuffer in = ByteBuffer.allocate(1 << 16);
+		ByteBuffer out = ByteBuffer.allocate(1 << 12);
+		boolean writing;
+
+		Connection(SocketChannel channel, int depth) {
+			this.channel = channel;
+			sentAt = new long[depth];
+		}
+
+		// fills the pipeline up to its depth, in one write
+		void send(long now) throws IOException {
+			if (inFlight == sentAt.length || writing) {
+				return;
+			}
+			out.clear();
+			while (inFlight < sentAt.length) {
+				byte[] request = requests[nextRequest];
+				nextRequest = (nextRequest + 1) % requests.length;
+				if (out.remaining() < request.length) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(
+							out.capacity() << 1, out.position() + request.length));
+					out.flip();
+					larger.put(out);
+					out = larger;
+				}
+				out.put(request);
+				sentAt[(head + inFlight) % sentAt.length] = now;
+				++inFlight;
+			}
+			out.flip();
+			flush();
+		}
+
+		void flush() throws IOException {
+			channel.write(out);
+			writing = out.hasRemaining();
+			key.interestOps(writing ? SelectionKey.OP_READ
+					| SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		// every result line completes the oldest request in flight
+		void receive(long now) throws IOException {
+			in.clear();
+			int n = channel.read(in);
+			if (n < 0) {
+				throw new IOException("server closed the connection");
+			}
+			byte[] bytes = in.array();
+			for (int i = 0; i < n; ++i) {
+				if (bytes[i] == '\n' && inFlight > 0) {
+					latencies.record(now - sentAt[head]);
+					head = (head + 1) % sentAt.length;
+					--inFlight;
+					++completed;
+				}
+			}
+		}
+	}
+}
@@ -9,559 +9,1010 @@
 
 package quorachallenge;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-public class TypeaheadSearch {
-
-	private QuoraIndexer indexer = new QuoraIndexer();
+import javax.management.JMException;
 
-	private static final boolean IS_BENCHMARK_ON = true;
-	private static BenchMark bm = new BenchMark(IS_BENCHMARK_ON);
-
-	private static final String WHITE_SPACE_REGEX = "\\s+";
-	private static final String ADD_BODY_REGEX = "(\\S+)\\s+(\\S+)\\s+(\\S+)\\s*(.*)";
-	private static final String QUERY_BODY_REGEX = "(\\d+)\\s*(.*)";
+public class TypeaheadSearch {
 
-	private static final Pattern WHITE_SPACE_PATTERN = Pattern
-			.compile(WHITE_SPACE_REGEX);
-	private static final Pattern ADD_BODY_PATTERN = Pattern
-			.compile(ADD_BODY_REGEX);
-	private static final Pattern QUERY_BODY_PATTERN = Pattern
-			.compile(QUERY_BODY_REGEX);
+	// entries are partitioned among the shards by shardOf(); indexer is
+	// shards[0], the whole index unless sharded
+	private final QuoraIndexer[] shards;
+	private QuoraIndexer indexer;
+	// runs the shards of a query, or the queries of a batch, in parallel;
+	// created on first use, its worker threads are daemons
+	private ForkJoinPool pool;
+	private final int bulkLoadSize;
+	// null when off
+	private final QueryCache cache;
+	private final QuerySessions sessions;
+	private final Metrics metrics;
+
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	private static final ResultDataEntry[] NO_RESULTS = new ResultDataEntry[0];
+
+	private final ThreadLocal<CommandParser> parsers = new ThreadLocal<CommandParser>() {
+		@Override
+		protected CommandParser initialValue() {
+			return new CommandParser();
+		}
+	};
 
 	private static final HashSet<String> TYPE_NAME_SET = new HashSet<>();
 	static {
 		Collections.addAll(TYPE_NAME_SET, "user", "topic", "question", "board");
 	}
 
-	public void executeInput(String input, PrintStream output) {
-		Matcher matcher = WHITE_SPACE_PATTERN.matcher(input);
-		matcher.find();
-		int iFirstSpace = matcher.start();
-		String command = input.substring(0, iFirstSpace);
-		String body = input.substring(iFirstSpace + 1);
-		if (command.equals("ADD")) {
-			executeAdd(body);
-		} else if (command.equals("DEL")) {
-			executeDel(body);
-		} else if (command.equals("QUERY")) {
-			output.println(executeQuery(body));
-		} else if (command.equals("WQUERY")) {
-			output.println(executeWquery(body));
-		} else {
-			output.println("======UNKNOWN COMMAND: " + command + "========");
-		}
+	public TypeaheadSearch() {
+		this(new IndexOptions());
 	}
 
-	private String executeWquery(String body) {
-
-		Matcher matcher = WHITE_SPACE_PATTERN.matcher(body);
-		int index, oldi = 0;
+	public TypeaheadSearch(IndexOptions options) {
+		this(newShards(options), options);
+	}
 
-		matcher.find();
-		index = matcher.start();
-		String numResultStr = body.substring(oldi, index);
-		int numResult = Integer.parseInt(numResultStr);
-		oldi = matcher.end();
+	/**
+	 * Serves an existing index, e.g. one read from a snapshot.
+	 */
+	TypeaheadSearch(QuoraIndexer indexer, IndexOptions options) {
+		this(new QuoraIndexer[] { indexer }, options);
+	}
 
-		matcher.find();
-		index = matcher.start();
-		String numBoostStr = body.substring(oldi, index);
-		int numBoost = Integer.parseInt(numBoostStr);
-		oldi = matcher.end();
+	/**
+	 * Serves existing shards, e.g. read from snapshots; each must hold the
+	 * entries that shardOf() assigns to it.
+	 */
+	TypeaheadSearch(QuoraIndexer[] shards, IndexOptions options) {
+		this.shards = shards;
+		indexer = shards[0];
+		bulkLoadSize = options.getBulkLoadSize();
+		metrics = new Metrics(options.isMetricsEnabled(), shards);
+		if (options.getCacheSize() > 0) {
+			cache = new QueryCache(options.getCacheSize());
+			for (QuoraIndexer shard : shards) {
+				shard.trackTermGenerations();
+			}
+		} else {
+			cache = null;
+		}
+		// SCORE order walks the ranked lists only until k hits; there are
+		// no full candidate sets to refine. Nor are there across shards.
+		if (options.getSessionCount() > 0
+				&& indexer.getPostingOrder() == PostingOrder.ENTRY_ID
+				&& shards.length == 1) {
+			sessions = new QuerySessions(options.getSessionCount());
+			indexer.trackTermGenerations();
+		} else {
+			sessions = null;
+		}
+	}
 
-		HashMap<String, Float> boosts = new HashMap<>();
+	private static QuoraIndexer[] newShards(IndexOptions options) {
+		QuoraIndexer[] shards = new QuoraIndexer[options.getShardCount()];
+		for (int i = 0; i < shards.length; ++i) {
+			shards[i] = new QuoraIndexer(options);
+		}
+		return shards;
+	}
 
-		for (int i = 0; i < numBoost; ++i) {
-			boolean found = matcher.find();
-			if (found == true) {
-				index = matcher.start();
-				String boostStr = body.substring(oldi, index);
+	/**
+	 * The shard of the entry with this id, out of shardCount; like ids, it
+	 * ignores case, and it does not change across processes.
+	 */
+	static int shardOf(CharSequence id, int shardCount) {
+		int h = TermDictionary.hash(id, 0, id.length());
+		return ((h ^ (h >>> 16)) & 0x7fffffff) % shardCount;
+	}
 
-				String[] strArr = boostStr.split(":");
-				boosts.put(strArr[0], Float.parseFloat(strArr[1]));
-				oldi = matcher.end();
-			} else {
-				index = body.length();
-				String boostStr = body.substring(oldi, index);
-				String[] strArr = boostStr.split(":");
-				boosts.put(strArr[0], Float.parseFloat(strArr[1]));
-				oldi = body.length();
-			}
-		}
+	private QuoraIndexer shard(String id) {
+		return shards.length == 1 ? indexer : shards[shardOf(id,
+				shards.length)];
+	}
 
-		String query = body.substring(oldi);
+	/**
+	 * file itself for an unsharded index, else one file per shard next to it
+	 */
+	static File shardFile(File file, int shard, int shardCount) {
+		return shardCount == 1 ? file : new File(file.getPath() + "."
+				+ shard);
+	}
 
-		return executeWquery(numResult, boosts, query);
+	/**
+	 * May be called from several threads at once: queries never block, ADD
+	 * and DEL are applied one at a time.
+	 */
+	public void executeInput(String input, PrintStream output) {
+		CommandParser parser = parsers.get();
+		metrics.startPhases();
+		parser.parse(input);
+		metrics.endPhase(Metrics.Phase.PARSE);
+		execute(parser, null, output);
 	}
 
-	private String executeQuery(String body) {
-		Matcher matcher = QUERY_BODY_PATTERN.matcher(body);
-		matcher.matches();
-		String numStr = matcher.group(1);
-		String query = matcher.group(2);
-		return executeWquery(Integer.parseInt(numStr), null, query);
+	/**
+	 * Same as executeInput(input, output) for a command of the client
+	 * session key: when sessions are on, a query that narrows the previous
+	 * one of the session filters its candidates.
+	 */
+	public void executeInput(Object key, String input, PrintStream output) {
+		CommandParser parser = parsers.get();
+		metrics.startPhases();
+		parser.parse(input);
+		metrics.endPhase(Metrics.Phase.PARSE);
+		execute(parser, sessions == null ? null : sessions.get(key), output);
 	}
 
-	private void executeAdd(String entryStr) {
-		DataEntry entry = parseAddBody(entryStr);
-		indexer.add(entry);
+	/**
+	 * Executes the command in line[0..length) with parser, which is left
+	 * holding it, for a client with its own session, see newSession().
+	 */
+	void execute(CommandParser parser, char[] line, int length,
+			QuerySessions.Session session, PrintStream output) {
+		metrics.startPhases();
+		parser.parse(line, length);
+		metrics.endPhase(Metrics.Phase.PARSE);
+		execute(parser, session, output);
 	}
 
-	private void executeDel(String id) {
-		indexer.delete(id);
+	/**
+	 * a session for one client, kept by the caller instead of by key; null
+	 * when sessions are off
+	 */
+	QuerySessions.Session newSession() {
+		return sessions == null ? null : new QuerySessions.Session();
 	}
 
-	private String executeWquery(int numResult, HashMap<String, Float> boosts,
-			String query) {
+	private void execute(CommandParser parser, QuerySessions.Session session,
+			PrintStream output) {
+		String result = executeCommand(parser, session);
+		if (result != null) {
+			output.println(result);
+		}
+	}
 
-		if (query.isEmpty()) {
-			return "";
+	// the line to print, null for ADD and DEL
+	private String executeCommand(CommandParser parser,
+			QuerySessions.Session session) {
+		metrics.countCommand(parser.getCommand());
+		switch (parser.getCommand()) {
+		case ADD:
+			shard(parser.getId()).add(newEntry(parser));
+			return null;
+		case DEL:
+			shard(parser.getId()).delete(parser.getId());
+			return null;
+		case QUERY:
+		case WQUERY:
+			String result = executeQuery(parser, session);
+			metrics.countResults(result);
+			return result;
+		default:
+			return "======UNKNOWN COMMAND: " + parser.getVerb() + "========";
 		}
+	}
 
-		bm.reset();
-		PriorityQueue<SizeComparableSet<Integer>> cache = new PriorityQueue<>(
-				20);
-		for (String keyword : query.split("\\s+")) {
-			if (keyword.isEmpty()) {
+	/**
+	 * Executes the commands in order and returns the line each one prints,
+	 * null for ADD and DEL. Within a run of queries without ADD or DEL, equal
+	 * queries are evaluated once, and the others look up each term once and
+	 * share their common partial intersections, see QueryBatch, in parallel;
+	 * a query still sees every ADD and DEL before it in the batch. Sharded
+	 * indexes run each query on its own.
+	 */
+	public String[] executeBatch(List<String> inputs) {
+		String[] results = new String[inputs.size()];
+		CommandParser parser = parsers.get();
+		ArrayList<BatchQuery> run = new ArrayList<>();
+		for (int i = 0; i < results.length; ++i) {
+			metrics.startPhases();
+			parser.parse(inputs.get(i));
+			metrics.endPhase(Metrics.Phase.PARSE);
+			CommandParser.Command command = parser.getCommand();
+			boolean query = command == CommandParser.Command.QUERY
+					|| command == CommandParser.Command.WQUERY;
+			if (query == false || shards.length > 1) {
+				executeRun(run, results);
+				results[i] = executeCommand(parser, null);
 				continue;
 			}
-			Integer tokenId = TokenDictionary.lookupOnly(keyword);
-			if (tokenId == null) {
-				return "";
+			metrics.countCommand(command);
+			BatchQuery batched = new BatchQuery(i, parser);
+			if (cache != null && parser.getNumResult() > 0) {
+				// like executeQuery, the stamp is read before the index is
+				StringBuilder key = new StringBuilder();
+				batched.stamp = cacheKey(parser, key);
+				batched.key = key.toString();
+				results[i] = cache.get(batched.key, batched.stamp);
+				if (results[i] != null) {
+					metrics.countResults(results[i]);
+					continue;
+				}
 			}
-			SizeComparableSet<Integer> tmpSet = indexer.query(tokenId);
-			if (tmpSet == null || tmpSet.isEmpty()) {
-				return "";
+			batched.boosts = Boosts.resolve(parser, indexer);
+			if (batched.key == null) {
+				StringBuilder key = new StringBuilder();
+				appendOptions(parser, key);
+				for (String term : batched.terms) {
+					key.append(' ').append(term);
+				}
+				batched.key = key.toString();
 			}
-			cache.add(tmpSet);
+			run.add(batched);
 		}
-		bm.measure("coll_cache", true);
+		executeRun(run, results);
+		return results;
+	}
 
-		HashSet<Integer> resultSet = null;
-		Iterator<SizeComparableSet<Integer>> it = cache.iterator();
-		if (it.hasNext()) {
-			resultSet = it.next();
+	private void executeRun(ArrayList<BatchQuery> run, final String[] results) {
+		if (run.isEmpty()) {
+			return;
 		}
-
-		boolean useRetainAll = false;
-		while (it.hasNext()) {
-			if (useRetainAll == false) {
-				// create a new set to hold the intersection
-				resultSet = hashSetIntersection(resultSet, it.next());
-				useRetainAll = true;
+		// the first of equal queries is evaluated, for all of them
+		HashMap<String, BatchQuery> distinct = new HashMap<>();
+		ArrayList<BatchQuery> evaluated = new ArrayList<>();
+		for (BatchQuery query : run) {
+			BatchQuery first = distinct.get(query.key);
+			if (first == null) {
+				distinct.put(query.key, query);
+				evaluated.add(query);
 			} else {
-				// operate on the same set
-				resultSet.retainAll(it.next());
-			}
-			if (resultSet.isEmpty()) {
-				return "";
+				query.same = first;
 			}
 		}
-		bm.measure("intersection", true);
-
-		Collection<ResultDataEntry> descSortedResultColl = boostAndSort(
-				resultSet, boosts);
-		bm.measure("boost_sort", true);
-
-		StringBuilder sb = new StringBuilder();
-
-		Iterator<ResultDataEntry> descIt = descSortedResultColl.iterator();
-		for (int i = 0; i < numResult && descIt.hasNext(); ++i) {
-			if (i != 0) {
-				sb.append(' ');
+		final QueryBatch batch = new QueryBatch(indexer);
+		if (evaluated.size() == 1
+				|| Runtime.getRuntime().availableProcessors() == 1) {
+			for (BatchQuery query : evaluated) {
+				results[query.index] = executeBatched(batch, query);
+			}
+		} else {
+			ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>();
+			for (final BatchQuery query : evaluated) {
+				tasks.add(pool().submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						results[query.index] = executeBatched(batch, query);
+						return null;
+					}
+				}));
+			}
+			for (ForkJoinTask<Void> task : tasks) {
+				task.join();
 			}
-			sb.append(descIt.next().getEntry().getId());
 		}
-		bm.measure("gen_string", false);
-		return sb.toString();
-	}
-
-	//
-	// private Collection<ResultDataEntry> boostAndSort(
-	// HashSet<Integer> resultSet, HashMap<String, Float> boosts) {
-	// TreeSet<ResultDataEntry> sortedResultSet = new TreeSet<>(
-	// Collections.reverseOrder());
-	// for (Integer eIdInt : resultSet) {
-	// DataEntry entry = indexer.lookupByid(eIdInt);
-	// ResultDataEntry rDataEntry = new ResultDataEntry(entry,
-	// entry.getScore());
-	// String typeStr = entry.getType().toString();
-	// String idStr = entry.getId();
-	// if (boosts != null) {
-	// if (boosts.containsKey(typeStr)) {
-	// rDataEntry.boost(boosts.get(typeStr));
-	// } else if (boosts.containsKey(idStr)) {
-	// rDataEntry.boost(boosts.get(idStr));
-	// }
-	// }
-	// sortedResultSet.add(rDataEntry);
-	// }
-	// return sortedResultSet;
-	// }
-
-	private Collection<ResultDataEntry> boostAndSort(
-			HashSet<Integer> resultSet, HashMap<String, Float> boosts) {
-		ArrayList<ResultDataEntry> resultArr = new ArrayList<>(resultSet.size());
-		for (Integer eIdInt : resultSet) {
-			DataEntry entry = indexer.lookupByid(eIdInt);
-			ResultDataEntry rDataEntry = new ResultDataEntry(entry,
-					entry.getScore());
-			String typeStr = entry.getType().toString();
-			String idStr = entry.getId();
-			if (boosts != null) {
-				if (boosts.containsKey(typeStr)) {
-					rDataEntry.boost(boosts.get(typeStr));
-				} else if (boosts.containsKey(idStr)) {
-					rDataEntry.boost(boosts.get(idStr));
-				}
+		for (BatchQuery query : run) {
+			if (query.same != null) {
+				results[query.index] = results[query.same.index];
+				metrics.countResults(results[query.index]);
 			}
-			resultArr.add(rDataEntry);
 		}
-		PriorityQueue<ResultDataEntry> sorted = new PriorityQueue<>(
-				resultArr.size(), Collections.reverseOrder());
-		sorted.addAll(resultArr);
-		return sorted;
-	}
-
-	// O(A) where A is number of elements in smaller
-	private HashSet<Integer> hashSetIntersection(HashSet<Integer> smaller,
-			SizeComparableSet<Integer> larger) {
-		HashSet<Integer> intersection = new HashSet<>();
-		for (int i : smaller) {
-			if (larger.contains(i)) {
-				intersection.add(i);
+		run.clear();
+	}
+
+	// executeWquery, with the lists and intersections of batch
+	private String executeBatched(QueryBatch batch, BatchQuery query) {
+		String result = "";
+		if (query.numResult > 0 && query.terms.length > 0) {
+			metrics.startPhases();
+			ResultDataEntry[] ranked = null;
+			if (query.boosts == null && query.terms.length == 1) {
+				String term = query.terms[0];
+				ranked = topEntries(indexer, query.numResult, term, 0,
+						term.length());
+			}
+			if (ranked != null) {
+				metrics.endPhase(Metrics.Phase.LOOKUP);
+			} else if (indexer.getPostingOrder() == PostingOrder.SCORE) {
+				PostingList[] lists = batch.lists(query.terms);
+				ranked = lists == null ? NO_RESULTS : rankedIntersection(
+						indexer, lists, query.boosts, query.numResult);
+				metrics.endPhase(Metrics.Phase.INTERSECTION);
+			} else {
+				QueryBatch.Intersection candidates = batch
+						.intersect(query.terms);
+				metrics.endPhase(Metrics.Phase.INTERSECTION);
+				ranked = boostAndSort(indexer, candidates.docs,
+						candidates.size, query.boosts, query.numResult);
+				metrics.endPhase(Metrics.Phase.SCORING);
 			}
+			result = toIdString(ranked);
 		}
-		return intersection;
-	}
-
-	private DataEntry parseAddBody(String entryStr) {
-		// parse: user u1 1.0 Adam D’Angelo
-		Matcher matcher = ADD_BODY_PATTERN.matcher(entryStr);
-		matcher.matches();
-		String typeStr = matcher.group(1);
-		String id = matcher.group(2);
-		String scoreStr = matcher.group(3);
-		String data = matcher.group(4);
-		return new DataEntry(DataEntryType.valueOf(typeStr), id,
-				Float.parseFloat(scoreStr), data);
+		if (cache != null && query.numResult > 0) {
+			cache.put(query.key, query.stamp, result);
+		}
+		metrics.countResults(result);
+		return result;
 	}
 
-	private ArrayList<String> getInputList(InputStream is) {
-		ArrayList<String> inputList = new ArrayList<>();
-		BufferedReader in = null;
-		try {
-			in = new BufferedReader(new InputStreamReader(is));
-			String nStr = in.readLine();
-			int n = Integer.parseInt(nStr);
-			for (int i = 0; i < n; ++i) {
-				inputList.add(in.readLine());
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			if (in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+	private synchronized ForkJoinPool pool() {
+		if (pool == null) {
+			pool = new ForkJoinPool();
+		}
+		return pool;
+	}
+
+	// a QUERY or WQUERY of a batch, without the parser it was read with
+	private static class BatchQuery {
+		final int index;
+		final int numResult;
+		// lower-cased
+		final String[] terms;
+		Boosts boosts;
+		// equal for equal queries; the result cache key and stamp, when
+		// cached
+		String key;
+		long stamp;
+		// the equal query evaluated for this one, or null
+		BatchQuery same;
+
+		BatchQuery(int index, CommandParser parser) {
+			this.index = index;
+			numResult = parser.getNumResult();
+			ArrayList<String> words = new ArrayList<>();
+			int to = parser.length();
+			int i = parser.getQueryFrom();
+			while (i < to) {
+				while (i < to && DataEntry.isWhiteSpace(parser.charAt(i))) {
+					++i;
+				}
+				int start = i;
+				while (i < to && DataEntry.isWhiteSpace(parser.charAt(i)) == false) {
+					++i;
+				}
+				if (i > start) {
+					words.add(TermDictionary.lowerCase(parser, start, i));
 				}
 			}
+			terms = words.toArray(new String[words.size()]);
 		}
-		return inputList;
 	}
 
-	public static void main(String[] args) throws FileNotFoundException {
-		bm.start();
-		InputStream is = System.in;
+	private static DataEntry newEntry(CommandParser parser) {
+		return new DataEntry(parser.getType(), parser.getId(),
+				parser.getScore(), parser.getData());
+	}
 
-		if (args.length > 0) {
-			File f = new File(args[0]);
-			is = new FileInputStream(f);
+	// QUERY is WQUERY without boosts
+	private String executeQuery(CommandParser parser,
+			QuerySessions.Session session) {
+		if (cache == null || parser.getNumResult() <= 0) {
+			return executeQueryUncached(parser, session);
 		}
-
-		TypeaheadSearch qs = new TypeaheadSearch();
-		ArrayList<String> inputList = qs.getInputList(is);
-		for (String input : inputList) {
-			qs.executeInput(input, System.out);
+		// the stamp is read before the index is: a result computed while an
+		// ADD or DEL is applied is stored under the older stamp
+		StringBuilder key = new StringBuilder();
+		long stamp = cacheKey(parser, key);
+		String result = cache.get(key.toString(), stamp);
+		if (result == null) {
+			result = executeQueryUncached(parser, session);
+			cache.put(key.toString(), stamp, result);
 		}
-		bm.end();
+		return result;
 	}
-}
-
-class QuoraIndexer {
-	private HashMap<Integer, DataEntry> dataStore = new HashMap<>();
-
-	// key_id -> set_entry_id
-	private HashMap<Integer, SizeComparableSet<Integer>> invertedList = new HashMap<>();
 
-	public void add(DataEntry entry) {
-		int eIdInt = TokenDictionary.lookupOrAdd(entry.getId());
-		dataStore.put(eIdInt, entry);
-		for (Integer tokenId : entry.getTokenSet()) {
-			if (invertedList.containsKey(tokenId) == false) {
-				invertedList.put(tokenId, new SizeComparableSet<Integer>());
-			}
-			invertedList.get(tokenId).add(eIdInt);
+	private String executeQueryUncached(CommandParser parser,
+			QuerySessions.Session session) {
+		if (shards.length > 1) {
+			return executeScattered(parser);
+		}
+		Boosts boosts = Boosts.resolve(parser, indexer);
+		if (session != null) {
+			return executeRefined(parser.getNumResult(), boosts, parser,
+					parser.getQueryFrom(), parser.length(), session);
 		}
+		return toIdString(executeWquery(indexer, parser.getNumResult(),
+				boosts, parser, parser.getQueryFrom(), parser.length()));
 	}
 
-	public void delete(String id) {
-		int eIdInt = TokenDictionary.lookupOrAdd(id);
-		DataEntry entry = dataStore.remove(eIdInt);
-		if (entry == null) {
-			return;
+	/*
+	 * Every shard selects its own best numResult entries, in parallel with
+	 * the others, and the best numResult of all those are the answer: an
+	 * entry that numResult entries of its shard outrank is not among them.
+	 * Boosts are resolved per shard, as an id boost names an entry of one.
+	 */
+	private String executeScattered(final CommandParser parser) {
+		final int numResult = parser.getNumResult();
+		final int from = parser.getQueryFrom();
+		final int to = parser.length();
+		if (from == to || numResult <= 0) {
+			return "";
 		}
-		for (Integer tokenId : entry.getTokenSet()) {
-			invertedList.get(tokenId).remove(eIdInt);
+		// the parser is left alone until every shard is done with it
+		ArrayList<ForkJoinTask<ResultDataEntry[]>> tasks = new ArrayList<>();
+		for (int s = 1; s < shards.length; ++s) {
+			final QuoraIndexer shard = shards[s];
+			tasks.add(pool().submit(new Callable<ResultDataEntry[]>() {
+				@Override
+				public ResultDataEntry[] call() {
+					return executeWquery(shard, numResult,
+							Boosts.resolve(parser, shard), parser, from, to);
+				}
+			}));
 		}
+		TopKSelector topK = new TopKSelector(numResult);
+		offerAll(topK, executeWquery(indexer, numResult,
+				Boosts.resolve(parser, indexer), parser, from, to));
+		for (ForkJoinTask<ResultDataEntry[]> task : tasks) {
+			offerAll(topK, task.join());
+		}
+		return toIdString(topK.toSortedArray());
 	}
 
-	public SizeComparableSet<Integer> query(int tokId) {
-		return invertedList.get(tokId);
-	}
-
-	public DataEntry lookupByid(Integer eIdInt) {
-		return dataStore.get(eIdInt);
+	private static void offerAll(TopKSelector topK, ResultDataEntry[] ranked) {
+		for (ResultDataEntry result : ranked) {
+			topK.offer(result.getEntry(), result.getfScore());
+		}
 	}
-}
-
-class SizeComparableSet<T> extends HashSet<T> implements Comparable<HashSet<T>> {
 
-	/**
-	 * default
+	/*
+	 * executeWquery for ENTRY_ID order within a session: when the terms
+	 * narrow the previous query of the session and no ADD or DEL has touched
+	 * its terms since, only the lists of the changed and the new terms are
+	 * intersected, with the previous candidates instead of each other.
 	 */
-	private static final long serialVersionUID = 1L;
-
-	public SizeComparableSet() {
-	}
-
-	public SizeComparableSet(Collection<T> col) {
-		super(col);
-	}
-
-	@Override
-	public int compareTo(HashSet<T> o) {
-		if (size() < o.size()) {
-			return -1;
-		} else if (size() == o.size()) {
-			return 0;
+	private String executeRefined(int numResult, Boosts boosts,
+			CharSequence query, int from, int to, QuerySessions.Session session) {
+		if (from == to || numResult <= 0) {
+			return "";
+		}
+		metrics.startPhases();
+		ArrayList<String> words = new ArrayList<>();
+		long stamp = 0;
+		int i = from;
+		while (i < to) {
+			while (i < to && DataEntry.isWhiteSpace(query.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < to && DataEntry.isWhiteSpace(query.charAt(i)) == false) {
+				++i;
+			}
+			if (i == start) {
+				break;
+			}
+			words.add(TermDictionary.lowerCase(query, start, i));
+			// before the lists are read, like the result cache
+			stamp += indexer.getTermGeneration(query, start, i);
+		}
+		if (words.isEmpty()) {
+			return "";
+		}
+		String[] terms = words.toArray(new String[words.size()]);
+
+		QuerySessions.Candidates last = session.last;
+		QuerySessions.Candidates next;
+		if (last != null && last.narrowedBy(terms)
+				&& generation(last.terms) == last.stamp) {
+			sessions.countRefinement();
+			next = narrow(last, terms, stamp);
 		} else {
-			return 1;
+			next = intersectAll(terms, stamp);
+		}
+		session.last = next;
+		metrics.endPhase(Metrics.Phase.INTERSECTION);
+		if (next.size == 0) {
+			return "";
 		}
+		ResultDataEntry[] descSortedResult = boostAndSort(indexer, next.docs,
+				next.size, boosts, numResult);
+		metrics.endPhase(Metrics.Phase.SCORING);
+		return toIdString(descSortedResult);
 	}
 
-}
-
-class DataEntry {
-
-	private DataEntryType type;
-	private String id;
-	private float score;
-	private String data;
-	private HashSet<Integer> tokenSet;
-	private long timeStamp;
-
-	public DataEntryType getType() {
-		return type;
+	private long generation(String[] terms) {
+		long stamp = 0;
+		for (String term : terms) {
+			stamp += indexer.getTermGeneration(term, 0, term.length());
+		}
+		return stamp;
 	}
 
-	public String getId() {
-		return id;
+	// the candidates of last that also match the terms that differ
+	private QuerySessions.Candidates narrow(QuerySessions.Candidates last,
+			String[] terms, long stamp) {
+		int[] docs = last.docs;
+		int size = last.size;
+		for (int t = 0; t < terms.length && size > 0; ++t) {
+			if (t < last.terms.length && terms[t].equals(last.terms[t])) {
+				continue;
+			}
+			PostingList list = indexer.query(terms[t]);
+			if (list == null) {
+				size = 0;
+				break;
+			}
+			int[] out = docs == last.docs ? new int[size] : docs;
+			size = PostingIntersection.intersect(docs, size, list, out);
+			docs = out;
+		}
+		return new QuerySessions.Candidates(terms, docs, size, stamp);
 	}
 
-	public float getScore() {
-		return score;
+	private QuerySessions.Candidates intersectAll(String[] terms, long stamp) {
+		PostingList[] lists = new PostingList[terms.length];
+		for (int t = 0; t < terms.length; ++t) {
+			lists[t] = indexer.query(terms[t]);
+			if (lists[t] == null || lists[t].isEmpty()) {
+				return new QuerySessions.Candidates(terms, new int[0], 0, stamp);
+			}
+		}
+		if (lists.length == 1) {
+			// the list is immutable: no need to copy it
+			return new QuerySessions.Candidates(terms, lists[0].docs(),
+					lists[0].size(), stamp);
+		}
+		Arrays.sort(lists);
+		int[] docs = new int[lists[0].size()];
+		int size = PostingIntersection.intersect(lists, docs);
+		return new QuerySessions.Candidates(terms, docs, size, stamp);
 	}
 
-	public String getData() {
-		return data;
+	/*
+	 * Appends the normalized command to key: numResult, the boosts as
+	 * given, then the keywords lower-cased and one space apart. Boost keys
+	 * hold no whitespace, so the boost count makes the key unambiguous.
+	 * Returns the sum of the generations of the keywords.
+	 */
+	private long cacheKey(CommandParser parser, StringBuilder key) {
+		appendOptions(parser, key);
+		long stamp = 0;
+		int to = parser.length();
+		int i = parser.getQueryFrom();
+		while (i < to) {
+			while (i < to && DataEntry.isWhiteSpace(parser.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < to && DataEntry.isWhiteSpace(parser.charAt(i)) == false) {
+				++i;
+			}
+			if (i == start) {
+				break;
+			}
+			key.append(' ');
+			for (int c = start; c < i; ++c) {
+				key.append(Character.toLowerCase(parser.charAt(c)));
+			}
+			stamp += termGeneration(parser, start, i);
+		}
+		return stamp;
 	}
 
-	public DataEntry(DataEntryType type, String id, float score, String data) {
-		this.type = type;
-		this.id = id;
-		this.score = score;
-		this.data = data;
-		this.tokenSet = tokenize(data);
-		this.timeStamp = System.nanoTime();
+	// numResult and the boosts of a cache key
+	private static void appendOptions(CommandParser parser, StringBuilder key) {
+		key.append(parser.getNumResult()).append(' ').append(
+				parser.getNumBoosts());
+		for (int b = 0; b < parser.getNumBoosts(); ++b) {
+			key.append(' ').append(parser, parser.getBoostKeyFrom(b),
+					parser.getBoostKeyTo(b)).append(':').append(
+					parser.getBoostValue(b));
+		}
 	}
 
-	public static HashSet<Integer> tokenize(String str) {
-		HashSet<Integer> tokIdSet = new HashSet<>();
-		for (String tok : str.split("\\s+")) {
-			for (int i = 0; i < tok.length(); ++i) {
-				String prefix = tok.substring(0, i + 1);
-				tokIdSet.add(TokenDictionary.lookupOrAdd(prefix));
-			}
+	// over all shards
+	private long termGeneration(CharSequence term, int from, int to) {
+		long stamp = 0;
+		for (QuoraIndexer shard : shards) {
+			stamp += shard.getTermGeneration(term, from, to);
 		}
-		return tokIdSet;
+		return stamp;
 	}
 
-	public HashSet<Integer> getTokenSet() {
-		return tokenSet;
+	Metrics getMetrics() {
+		return metrics;
 	}
 
-	public long getTimeStamp() {
-		return timeStamp;
+	QueryCache getQueryCache() {
+		return cache;
 	}
 
-}
+	QuerySessions getQuerySessions() {
+		return sessions;
+	}
 
-class ResultDataEntry implements Comparable<ResultDataEntry> {
-	private DataEntry entry;
-	private float fScore;
+	/*
+	 * query.subSequence(from, to) holds the whitespace separated keywords;
+	 * the best numResult entries of index, best first
+	 */
+	private ResultDataEntry[] executeWquery(QuoraIndexer index, int numResult,
+			Boosts boosts, CharSequence query, int from, int to) {
 
-	public ResultDataEntry(DataEntry entry, float fScore) {
-		this.entry = entry;
-		this.fScore = fScore;
-	}
+		if (from == to || numResult <= 0) {
+			return NO_RESULTS;
+		}
 
-	public float getfScore() {
-		return fScore;
-	}
+		metrics.startPhases();
+		if (boosts == null) {
+			ResultDataEntry[] best = topEntries(index, numResult, query, from,
+					to);
+			if (best != null) {
+				metrics.endPhase(Metrics.Phase.LOOKUP);
+				return best;
+			}
+		}
+		ArrayList<PostingList> cache = new ArrayList<>();
+		int i = from;
+		while (i < to) {
+			while (i < to && DataEntry.isWhiteSpace(query.charAt(i))) {
+				++i;
+			}
+			int start = i;
+			while (i < to && DataEntry.isWhiteSpace(query.charAt(i)) == false) {
+				++i;
+			}
+			if (i == start) {
+				break;
+			}
+			PostingList tmpList = index.query(query, start, i);
+			if (tmpList == null || tmpList.isEmpty()) {
+				return NO_RESULTS;
+			}
+			cache.add(tmpList);
+		}
+		metrics.endPhase(Metrics.Phase.LOOKUP);
 
-	public void boost(float boostFactor) {
-		this.fScore *= boostFactor;
-	}
+		if (cache.isEmpty()) {
+			return NO_RESULTS;
+		}
+		// shortest list first, so the running intersection only shrinks
+		PostingList[] lists = cache.toArray(new PostingList[cache.size()]);
+		Arrays.sort(lists);
+		if (index.getPostingOrder() == PostingOrder.SCORE) {
+			ResultDataEntry[] ranked = rankedIntersection(index, lists,
+					boosts, numResult);
+			metrics.endPhase(Metrics.Phase.INTERSECTION);
+			return ranked;
+		}
+		int[] result = new int[lists[0].size()];
+		int resultSize = PostingIntersection.intersect(lists, result);
+		if (resultSize == 0) {
+			return NO_RESULTS;
+		}
+		metrics.endPhase(Metrics.Phase.INTERSECTION);
+
+		ResultDataEntry[] descSortedResult = boostAndSort(index, result,
+				resultSize, boosts, numResult);
+		metrics.endPhase(Metrics.Phase.SCORING);
 
-	public DataEntry getEntry() {
-		return entry;
+		return descSortedResult;
 	}
 
-	@Override
-	public int compareTo(ResultDataEntry o) {
-		if (o.getfScore() == getfScore()) {
-			// tie is broken by added time
-			if (entry.getTimeStamp() < o.entry.getTimeStamp()) {
-				return -1;
-			} else {
-				return 1;
+	/*
+	 * executeWquery without boosts for a query of one term, from the best
+	 * entries that index keeps for it (see PrefixTopK); null if the query
+	 * has more terms or index keeps too few
+	 */
+	private static ResultDataEntry[] topEntries(QuoraIndexer index,
+			int numResult, CharSequence query, int from, int to) {
+		int start = from;
+		while (start < to && DataEntry.isWhiteSpace(query.charAt(start))) {
+			++start;
+		}
+		int end = start;
+		while (end < to && DataEntry.isWhiteSpace(query.charAt(end)) == false) {
+			++end;
+		}
+		for (int i = end; i < to; ++i) {
+			if (DataEntry.isWhiteSpace(query.charAt(i)) == false) {
+				return null;
 			}
 		}
-		if (getfScore() < o.getfScore()) {
-			return -1;
-		} else {
-			return 1;
+		PostingList best = index.topEntries(query, start, end, numResult);
+		if (best == null) {
+			return null;
+		}
+		ResultDataEntry[] results = new ResultDataEntry[Math.min(numResult,
+				best.size())];
+		int n = 0;
+		for (int i = 0; i < best.size() && n < results.length; ++i) {
+			int eIdInt = best.get(i);
+			// an entry deleted while this query was running is not taken
+			DataEntry entry = index.lookupByid(eIdInt);
+			if (entry != null) {
+				results[n++] = new ResultDataEntry(entry,
+						index.getScore(eIdInt));
+			}
 		}
+		return n == results.length ? results : Arrays.copyOf(results, n);
 	}
-}
 
-enum DataEntryType {
-	user, topic, question, board
-}
-
-class TokenDictionary {
-	private static int counter = 0;
-	private static HashMap<String, Integer> dict = new HashMap<>();
-
-	// private static ArrayList<String> invertLookup = new ArrayList<>();
+	private String toIdString(ResultDataEntry[] descSortedResult) {
+		if (descSortedResult.length == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
 
-	public static int lookupOrAdd(String token) {
-		String myTok = token.toLowerCase();
-		if (dict.containsKey(myTok) == false) {
-			dict.put(myTok, counter++);
+		for (int i = 0; i < descSortedResult.length; ++i) {
+			if (i != 0) {
+				sb.append(' ');
+			}
+			sb.append(descSortedResult[i].getEntry().getId());
 		}
-		return dict.get(myTok);
+		metrics.endPhase(Metrics.Phase.OUTPUT);
+		return sb.toString();
 	}
 
-	public static Integer lookupOnly(String token) {
-		return dict.get(token.toLowerCase());
+	/*
+	 * For PostingOrder.SCORE. All lists share one rank order, so walking the
+	 * shortest list and probing the others meets the common entries best
+	 * first: without boosts the first numResult hits are the answer.
+	 */
+	private ResultDataEntry[] rankedIntersection(QuoraIndexer index,
+			PostingList[] lists, Boosts boosts, int numResult) {
+		TopKSelector topK = new TopKSelector(numResult);
+		PostingList shortest = lists[0];
+		for (int i = 0; i < shortest.size(); ++i) {
+			int eIdInt = shortest.get(i);
+			if (containedInAll(lists, eIdInt) == false) {
+				continue;
+			}
+			// an entry deleted while this query was running is not taken
+			topK.offer(index, eIdInt, boostedScore(index, eIdInt, boosts));
+			if (boosts == null && topK.size() == numResult) {
+				break;
+			}
+		}
+		return topK.toSortedArray();
 	}
 
-	public static int getDictSize() {
-		return dict.size();
+	private boolean containedInAll(PostingList[] lists, int eIdInt) {
+		for (int i = 1; i < lists.length; ++i) {
+			if (lists[i].contains(eIdInt) == false) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	public static void reset() {
-		counter = 0;
-		dict.clear();
+	// O(N log K): only the numResult best entries are ever kept
+	private ResultDataEntry[] boostAndSort(QuoraIndexer index,
+			int[] resultSet, int resultSize, Boosts boosts, int numResult) {
+		TopKSelector topK = new TopKSelector(numResult);
+		for (int i = 0; i < resultSize; ++i) {
+			topK.offer(index, resultSet[i],
+					boostedScore(index, resultSet[i], boosts));
+		}
+		return topK.toSortedArray();
 	}
 
-}
-
-class BenchMark {
-
-	private boolean on;
-	private long timeStamp;
-	private long start;
-	private long end;
-
-	private LinkedHashMap<String, BMEntry> measurement = new LinkedHashMap<>();
-
-	public BenchMark(boolean b) {
-		on = b;
+	private static float boostedScore(QuoraIndexer index, int eIdInt,
+			Boosts boosts) {
+		float fScore = index.getScore(eIdInt);
+		return boosts == null ? fScore : boosts.apply(index, eIdInt, fScore);
 	}
 
-	public void measure(String msg, boolean reset) {
-		if (on) {
-			long ts = System.nanoTime();
-			if (measurement.containsKey(msg) == false) {
-				measurement.put(msg, new BMEntry());
+	/**
+	 * Reads the command count and then executes each command as soon as its
+	 * line arrives, so memory does not grow with the input. Results go
+	 * through one buffer that is flushed whenever the input runs dry and at
+	 * the end, instead of a write per query.
+	 *
+	 * With a bulk load size set, runs of ADD lines are collected and indexed
+	 * in parallel by QuoraIndexer.addAll, just before the next other command
+	 * or once the batch is full.
+	 */
+	public void executeStream(InputStream is, OutputStream os) {
+		PrintStream output = new PrintStream(new BufferedOutputStream(os,
+				OUTPUT_BUFFER_SIZE), false);
+		CommandParser parser = new CommandParser();
+		// the stream is one client
+		QuerySessions.Session session = newSession();
+		ArrayList<DataEntry> pendingAdds = new ArrayList<>();
+		LineReader in = null;
+		try {
+			in = new LineReader(new InputStreamReader(is));
+			int n = 0;
+			if (in.readLine()) {
+				n = Integer.parseInt(new String(in.line(), 0, in.length())
+						.trim());
+			}
+			for (int i = 0; i < n; ++i) {
+				if (in.ready() == false) {
+					// about to block on input: hand out what we have
+					output.flush();
+				}
+				if (in.readLine() == false) {
+					break;
+				}
+				metrics.startPhases();
+				parser.parse(in.line(), in.length());
+				metrics.endPhase(Metrics.Phase.PARSE);
+				if (bulkLoadSize > 0
+						&& parser.getCommand() == CommandParser.Command.ADD) {
+					pendingAdds.add(newEntry(parser));
+					if (pendingAdds.size() >= bulkLoadSize) {
+						flushAdds(pendingAdds);
+					}
+					continue;
+				}
+				flushAdds(pendingAdds);
+				execute(parser, session, output);
 			}
-			long elaps = ts - timeStamp;
+			flushAdds(pendingAdds);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			output.flush();
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
 
-			measurement.get(msg).totalTime += elaps;
-			measurement.get(msg).count++;
+	private void flushAdds(ArrayList<DataEntry> pendingAdds) {
+		if (pendingAdds.isEmpty() == false) {
+			addAll(pendingAdds);
+			pendingAdds.clear();
+		}
+	}
 
-			if (reset) {
-				timeStamp = System.nanoTime();
+	// each shard indexes its part of the batch, in batch order
+	private void addAll(List<DataEntry> batch) {
+		if (shards.length == 1) {
+			indexer.addAll(batch);
+			return;
+		}
+		ArrayList<ArrayList<DataEntry>> parts = new ArrayList<>();
+		for (int s = 0; s < shards.length; ++s) {
+			parts.add(new ArrayList<DataEntry>());
+		}
+		for (DataEntry entry : batch) {
+			parts.get(shardOf(entry.getId(), shards.length)).add(entry);
+		}
+		for (int s = 0; s < shards.length; ++s) {
+			if (parts.get(s).isEmpty() == false) {
+				shards[s].addAll(parts.get(s));
 			}
 		}
 	}
 
-	public void reset() {
-		if (on) {
-			timeStamp = System.nanoTime();
+	/**
+	 * Writes the index to file, or each shard to its shardFile().
+	 */
+	public void writeSnapshot(File file) throws IOException {
+		for (int s = 0; s < shards.length; ++s) {
+			shards[s].writeSnapshot(shardFile(file, s, shards.length));
 		}
 	}
 
-	public void start() {
-		if (on) {
-			start = System.nanoTime();
+	/**
+	 * Stops the background compactor of every shard, see
+	 * QuoraIndexer.stopCompaction().
+	 */
+	public void stopCompaction() {
+		for (QuoraIndexer shard : shards) {
+			shard.stopCompaction();
 		}
 	}
 
-	public void end() {
-		if (on) {
-			end = System.nanoTime();
-			message();
+	public static void main(String[] args) throws IOException {
+		long start = System.nanoTime();
+		InputStream is = System.in;
+		IndexOptions options = new IndexOptions();
+
+		for (String arg : args) {
+			if (options.parse(arg) == false) {
+				File f = new File(arg);
+				is = new FileInputStream(f);
+			}
 		}
-	}
 
-	private void message() {
-		if (on) {
-			for (Entry<String, BMEntry> entry : measurement.entrySet()) {
-				System.err.println(String.format("%s:\ttotal=%d\t avg=%df",
-						entry.getKey(), entry.getValue().totalTime,
-						(entry.getValue().totalTime / entry.getValue().count)));
+		// every shard has a snapshot and a log of its own
+		int shardCount = options.getShardCount();
+		QuoraIndexer[] shards = new QuoraIndexer[shardCount];
+		WriteAheadLog[] logs = new WriteAheadLog[shardCount];
+		for (int s = 0; s < shardCount; ++s) {
+			File snapshot = options.getSnapshotFile() == null ? null
+					: shardFile(options.getSnapshotFile(), s, shardCount);
+			if (snapshot != null && snapshot.exists()) {
+				shards[s] = QuoraIndexer.readSnapshot(snapshot, options);
+			} else {
+				shards[s] = new QuoraIndexer(options);
+			}
+			if (options.getLogFile() != null) {
+				File logFile = shardFile(options.getLogFile(), s, shardCount);
+				WriteAheadLog.replay(logFile, shards[s]);
+				logs[s] = WriteAheadLog.open(logFile,
+						options.getFsyncIntervalMillis());
+				shards[s].attachLog(logs[s]);
 			}
-			System.err.println("total_time=" + (end - start));
 		}
-	}
 
-	private static class BMEntry {
-		long totalTime;
-		long count;
+		TypeaheadSearch qs = new TypeaheadSearch(shards, options);
+		Metrics metrics = qs.getMetrics();
+		Timer dump = null;
+		if (metrics.isEnabled()) {
+			try {
+				metrics.register();
+			} catch (JMException e) {
+				System.err.println("metrics not available through JMX: " + e);
+			}
+			if (options.getMetricsIntervalMillis() > 0) {
+				dump = metrics.dumpEvery(System.err,
+						options.getMetricsIntervalMillis());
+			}
+		}
+		if (options.getPort() >= 0) {
+			serve(qs, options, logs, dump, start);
+			return;
+		}
+		qs.executeStream(is, System.out);
+		shutDown(qs, options, logs, dump, start);
+	}
+
+	// until the process is told to stop, e.g. by SIGTERM
+	private static void serve(final TypeaheadSearch qs,
+			final IndexOptions options, final WriteAheadLog[] logs,
+			final Timer dump, final long start) throws IOException {
+		final TypeaheadServer server = new TypeaheadServer(qs,
+				new InetSocketAddress(options.getPort()), Runtime.getRuntime()
+						.availableProcessors()).start();
+		System.err.println("listening on port " + server.getPort());
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					server.close();
+					shutDown(qs, options, logs, dump, start);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		try {
+			server.awaitClose();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
-}
\ No newline at end of file
+	private static void shutDown(TypeaheadSearch qs, IndexOptions options,
+			WriteAheadLog[] logs, Timer dump, long start) throws IOException {
+		// the snapshot compacts what it writes itself
+		qs.stopCompaction();
+		if (options.getSnapshotFile() != null) {
+			qs.writeSnapshot(options.getSnapshotFile());
+		}
+		if (qs.getQueryCache() != null) {
+			System.err.println(qs.getQueryCache());
+		}
+		if (qs.getQuerySessions() != null) {
+			System.err.println(qs.getQuerySessions());
+		}
+		for (WriteAheadLog log : logs) {
+			if (log != null) {
+				log.close();
+			}
+		}
+		Metrics metrics = qs.getMetrics();
+		if (metrics.isEnabled()) {
+			if (dump != null) {
+				dump.cancel();
+			}
+			System.err.println(metrics.getSummary());
+			System.err.println("total_time=" + (System.nanoTime() - start));
+		}
+	}
+}
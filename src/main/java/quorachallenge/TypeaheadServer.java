@@ -0,0 +1,390 @@
+package quorachallenge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves the ADD/DEL/QUERY/WQUERY line protocol over TCP: one command per
+ * line, UTF-8, and one result line per QUERY and WQUERY, in request order.
+ * There is no command count line as in a stream.
+ *
+ * Clients may pipeline: every complete line a read brings in is executed in
+ * order, and the results of all of them go out in one write. A client that
+ * does not read its results is not read from until they are written. A
+ * malformed command or a line longer than MAX_LINE closes the connection,
+ * as does any other failure to execute a command; the others go on.
+ *
+ * One acceptor thread hands connections round-robin to worker threads, one
+ * per core, each running a selector over its connections and executing
+ * their commands itself. Queries take no lock, but ADD and DEL wait for the
+ * indexer's, which snapshots, bulk loads and compaction batches hold as
+ * well: while one does, a write stalls every connection of its worker,
+ * queries included. Every connection is a client session of the search.
+ */
+class TypeaheadServer implements Closeable {
+
+	// longest command line accepted; longer ones close the connection
+	static final int MAX_LINE = 1 << 20;
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private final TypeaheadSearch search;
+	private final ServerSocketChannel server;
+	private final Worker[] workers;
+	private final Thread acceptor;
+	private volatile boolean closed;
+
+	TypeaheadServer(TypeaheadSearch search, InetSocketAddress address,
+			int threads) throws IOException {
+		this.search = search;
+		server = ServerSocketChannel.open();
+		server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		server.bind(address, 1024);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; ++i) {
+			workers[i] = new Worker(i);
+		}
+		acceptor = new Thread("typeahead-acceptor") {
+			@Override
+			public void run() {
+				accept();
+			}
+		};
+	}
+
+	public TypeaheadServer start() {
+		for (Worker worker : workers) {
+			worker.start();
+		}
+		acceptor.start();
+		return this;
+	}
+
+	/**
+	 * the port listened on, useful when bound to port 0
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Waits until the server is closed.
+	 */
+	public void awaitClose() throws InterruptedException {
+		acceptor.join();
+		for (Worker worker : workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * Stops accepting and drops all connections; results not written yet
+	 * are lost.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (Worker worker : workers) {
+			worker.selector.wakeup();
+		}
+	}
+
+	private void accept() {
+		int next = 0;
+		while (closed == false) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (closed == false) {
+					System.err.println("typeahead accept failed: " + e);
+				}
+				continue;
+			}
+			Worker worker = null;
+			// skip workers that died, they would never serve it
+			for (int i = 0; i < workers.length && worker == null; ++i) {
+				if (workers[next].isAlive()) {
+					worker = workers[next];
+				}
+				next = (next + 1) % workers.length;
+			}
+			if (worker == null) {
+				System.err.println("no typeahead worker left, closing");
+				close(channel);
+				closeQuietly();
+				return;
+			}
+			worker.accepted.add(channel);
+			worker.selector.wakeup();
+			if (worker.isAlive() == false) {
+				// it died after the check and may not have seen the channel
+				worker.dropAccepted();
+			}
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			System.err.println("typeahead server close failed: " + e);
+		}
+	}
+
+	private static void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	private class Worker extends Thread {
+		final Selector selector;
+		final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+		// shared by the connections of this worker
+		final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		char[] line = new char[256];
+		final CommandParser parser = new CommandParser();
+
+		Worker(int i) throws IOException {
+			super("typeahead-worker-" + i);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (closed == false) {
+					selector.select();
+					register();
+					Iterator<SelectionKey> keys = selector.selectedKeys()
+							.iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+							if (key.isValid() && key.isReadable()) {
+								connection.read();
+							}
+						} catch (IOException e) {
+							connection.close();
+						} catch (RuntimeException e) {
+							// a bug met by one client's command must not take
+							// the other clients of this worker with it
+							System.err.println(getName() + ": dropped a client: "
+									+ e);
+							connection.close();
+						}
+					}
+				}
+			} catch (IOException e) {
+				System.err.println(getName() + " stopped: " + e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					((Connection) key.attachment()).close();
+				}
+				dropAccepted();
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// nothing left to do with it
+				}
+			}
+		}
+
+		private void register() {
+			SocketChannel channel;
+			while ((channel = accepted.poll()) != null) {
+				Connection connection = new Connection(this, channel);
+				try {
+					connection.key = channel.register(selector,
+							SelectionKey.OP_READ, connection);
+				} catch (ClosedChannelException e) {
+					// the client is gone already
+				}
+			}
+		}
+
+		// closes the connections handed to this worker and not taken yet
+		void dropAccepted() {
+			SocketChannel channel;
+			while ((channel = accepted.poll()) != null) {
+				close(channel);
+			}
+		}
+
+		// line[0..length) holding bytes[from..to) decoded
+		int decode(byte[] bytes, int from, int to) {
+			int n = to - from;
+			if (n > line.length) {
+				line = new char[Math.max(n, line.length << 1)];
+			}
+			for (int i = 0; i < n; ++i) {
+				byte b = bytes[from + i];
+				if (b < 0) {
+					String s = new String(bytes, from, n, StandardCharsets.UTF_8);
+					s.getChars(0, s.length(), line, 0);
+					return s.length();
+				}
+				line[i] = (char) b;
+			}
+			return n;
+		}
+	}
+
+	private class Connection {
+		final Worker worker;
+		final SocketChannel channel;
+		final QuerySessions.Session session = search.newSession();
+		final ResponseBuffer response = new ResponseBuffer();
+		final PrintStream output;
+		SelectionKey key;
+		// start of a line not complete yet, or null
+		byte[] partial;
+		ByteBuffer unwritten;
+		boolean endOfInput;
+
+		Connection(Worker worker, SocketChannel channel) {
+			this.worker = worker;
+			this.channel = channel;
+			try {
+				output = new PrintStream(response, false, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		void read() throws IOException {
+			ByteBuffer buffer = worker.readBuffer;
+			buffer.clear();
+			int n = channel.read(buffer);
+			if (n < 0) {
+				endOfInput = true;
+				if (partial != null) {
+					// the last line needs no line end, as on stdin
+					byte[] last = partial;
+					partial = null;
+					int end = last.length;
+					if (last[end - 1] == '\r') {
+						--end;
+					}
+					executeLine(last, 0, end);
+				}
+			} else if (n > 0) {
+				byte[] bytes = buffer.array();
+				int length = n;
+				if (partial != null) {
+					bytes = Arrays.copyOf(partial, partial.length + n);
+					System.arraycopy(buffer.array(), 0, bytes, partial.length, n);
+					length = bytes.length;
+					partial = null;
+				}
+				execute(bytes, length);
+			}
+			write();
+		}
+
+		// every complete line of bytes[0..length), in order
+		private void execute(byte[] bytes, int length) throws IOException {
+			int start = 0;
+			for (int i = 0; i < length; ++i) {
+				if (bytes[i] != '\n') {
+					continue;
+				}
+				int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+				executeLine(bytes, start, end);
+				start = i + 1;
+			}
+			if (length - start > MAX_LINE) {
+				throw new IOException("line too long");
+			}
+			if (start < length) {
+				partial = Arrays.copyOfRange(bytes, start, length);
+			}
+		}
+
+		// bytes[start..end), a line without its line end; empty ones are
+		// skipped
+		private void executeLine(byte[] bytes, int start, int end)
+				throws IOException {
+			if (end == start) {
+				return;
+			}
+			int chars = worker.decode(bytes, start, end);
+			try {
+				search.execute(worker.parser, worker.line, chars, session,
+						output);
+			} catch (IllegalArgumentException e) {
+				// a malformed command: the client is out of step with its
+				// results, so it is dropped
+				throw new IOException(e);
+			}
+		}
+
+		void write() throws IOException {
+			if (unwritten == null && response.size() > 0) {
+				output.flush();
+				unwritten = ByteBuffer.wrap(response.array(), 0,
+						response.size());
+			}
+			if (unwritten != null) {
+				channel.write(unwritten);
+				if (unwritten.hasRemaining()) {
+					// read no more until the client takes its results
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				unwritten = null;
+				response.reset();
+			}
+			if (endOfInput) {
+				close();
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void close() {
+			if (key != null) {
+				key.cancel();
+			}
+			TypeaheadServer.close(channel);
+		}
+	}
+
+	private static class ResponseBuffer extends ByteArrayOutputStream {
+		ResponseBuffer() {
+			super(1 << 12);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+}
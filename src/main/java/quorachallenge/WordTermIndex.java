@@ -0,0 +1,207 @@
+package quorachallenge;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps posting lists for whole words only, sorted so that all words sharing
+ * a prefix are neighbours, and answers a prefix by unioning the lists of the
+ * words in its range. A 20 letter word costs one list entry instead of 20.
+ *
+ * One- and two-letter prefixes would union a large part of the vocabulary on
+ * every keystroke, so their lists are kept materialized and updated by ADD
+ * and DEL like in PrefixTermIndex. The unions of the most recently queried
+ * longer prefixes are cached, each with the stamp its prefix had (see
+ * TermGenerations) before it was computed, and only served while the stamp
+ * is unchanged, like the results in QueryCache.
+ */
+class WordTermIndex extends TermIndex {
+
+	// prefixes up to this length have their own posting list
+	static final int HOT_PREFIX_LENGTH = 2;
+	// longer prefixes whose union is kept
+	private static final int CACHED_UNIONS = 1024;
+
+	// lower-cased words longer than HOT_PREFIX_LENGTH -> entry ids
+	private final ConcurrentSkipListMap<String, PostingList> words = new ConcurrentSkipListMap<>();
+	private final TermDictionary hotPrefixes = new TermDictionary();
+	private int wordCount;
+	// bumped for the prefixes of a word once its list has changed
+	private final TermGenerations changes = new TermGenerations();
+	// lower-cased prefix -> union of its words, access order, eldest first;
+	// guarded by itself
+	private final LinkedHashMap<String, CachedUnion> unions;
+
+	WordTermIndex(PostingList.Order order, PostingFormat format) {
+		super(order, format);
+		unions = new LinkedHashMap<String, CachedUnion>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CachedUnion> eldest) {
+				return size() > CACHED_UNIONS;
+			}
+		};
+	}
+
+	@Override
+	public PostingList query(CharSequence term, int from, int to) {
+		int len = to - from;
+		if (len == 0) {
+			return null;
+		}
+		if (len <= HOT_PREFIX_LENGTH) {
+			return hotPrefixes.get(term, from, to);
+		}
+		String prefix = TermDictionary.lowerCase(term, from, to);
+		// read before the words: a change after it moves the stamp
+		long stamp = changes.get(term, from, to);
+		synchronized (unions) {
+			CachedUnion cached = unions.get(prefix);
+			if (cached != null && cached.stamp == stamp) {
+				return cached.postings;
+			}
+		}
+		ArrayList<PostingList> range = new ArrayList<>();
+		for (Entry<String, PostingList> entry : words.tailMap(prefix)
+				.entrySet()) {
+			if (entry.getKey().startsWith(prefix) == false) {
+				break;
+			}
+			range.add(entry.getValue());
+		}
+		if (range.isEmpty()) {
+			return null;
+		} else if (range.size() == 1) {
+			return range.get(0);
+		}
+		PostingList union = PostingList.union(order,
+				range.toArray(new PostingList[range.size()]));
+		synchronized (unions) {
+			unions.put(prefix, new CachedUnion(stamp, union));
+		}
+		return union;
+	}
+
+	@Override
+	public int size() {
+		return wordCount + hotPrefixes.size();
+	}
+
+	@Override
+	protected void addWord(String data, int from, int to, int eIdInt) {
+		int hotEnd = Math.min(to, from + HOT_PREFIX_LENGTH);
+		for (int end = from + 1; end <= hotEnd; ++end) {
+			addTo(hotPrefixes, data, from, end, eIdInt);
+		}
+		if (to - from <= HOT_PREFIX_LENGTH) {
+			return;
+		}
+		String word = TermDictionary.lowerCase(data, from, to);
+		PostingList postings = words.get(word);
+		if (postings == null) {
+			postings = new PostingList(order);
+			wordCount++;
+		}
+		PostingList updated = stored(postings.with(eIdInt));
+		if (updated != postings) {
+			words.put(word, updated);
+			changes.touch(word, 0, word.length());
+		}
+	}
+
+	@Override
+	protected void removeWord(String data, int from, int to, int eIdInt) {
+		int hotEnd = Math.min(to, from + HOT_PREFIX_LENGTH);
+		for (int end = from + 1; end <= hotEnd; ++end) {
+			removeFrom(hotPrefixes, data, from, end, eIdInt);
+		}
+		if (to - from <= HOT_PREFIX_LENGTH) {
+			return;
+		}
+		String word = TermDictionary.lowerCase(data, from, to);
+		PostingList postings = words.get(word);
+		if (postings == null) {
+			return;
+		}
+		PostingList updated = postings.without(eIdInt);
+		if (updated.isEmpty()) {
+			words.remove(word);
+			wordCount--;
+		} else if (updated != postings) {
+			words.put(word, updated);
+		} else {
+			return;
+		}
+		changes.touch(word, 0, word.length());
+	}
+
+	@Override
+	protected void collectKeys(String data, int from, int to, KeySink sink) {
+		int hotEnd = Math.min(to, from + HOT_PREFIX_LENGTH);
+		for (int end = from + 1; end <= hotEnd; ++end) {
+			sink.key(data, from, end);
+		}
+		if (to - from > HOT_PREFIX_LENGTH) {
+			sink.key(data, from, to);
+		}
+	}
+
+	// hot prefixes and words never share a key: their lengths differ
+	@Override
+	protected PostingList getKey(CharSequence key) {
+		if (key.length() <= HOT_PREFIX_LENGTH) {
+			return hotPrefixes.get(key);
+		}
+		return words.get(TermDictionary.lowerCase(key, 0, key.length()));
+	}
+
+	@Override
+	protected void forEachKey(TermDictionary.Visitor visitor)
+			throws IOException {
+		hotPrefixes.forEach(visitor);
+		for (Entry<String, PostingList> entry : words.entrySet()) {
+			visitor.visit(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	protected void putKey(CharSequence key, PostingList postings) {
+		postings = stored(postings);
+		if (key.length() <= HOT_PREFIX_LENGTH) {
+			hotPrefixes.put(key, 0, key.length(), postings);
+		} else {
+			if (words.put(TermDictionary.lowerCase(key, 0, key.length()),
+					postings) == null) {
+				wordCount++;
+			}
+			changes.touch(key, 0, key.length());
+		}
+	}
+
+	@Override
+	protected void removeKey(CharSequence key) {
+		if (key.length() <= HOT_PREFIX_LENGTH) {
+			hotPrefixes.remove(key, 0, key.length());
+		} else if (words.remove(TermDictionary.lowerCase(key, 0,
+				key.length())) != null) {
+			wordCount--;
+			changes.touch(key, 0, key.length());
+		}
+	}
+
+	private static final class CachedUnion {
+		final long stamp;
+		final PostingList postings;
+
+		CachedUnion(long stamp, PostingList postings) {
+			this.stamp = stamp;
+			this.postings = postings;
+		}
+	}
+}
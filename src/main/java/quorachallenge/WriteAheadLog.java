@@ -0,0 +1,349 @@
+package quorachallenge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the ADDs and DELs applied since the last snapshot, so
+ * that a restart loses at most the last fsync interval.
+ *
+ * Appending only encodes a record into a memory buffer. A background thread
+ * wakes up once per fsync interval, writes everything buffered meanwhile in
+ * one go and fsyncs once for the whole group, so the writer never waits for
+ * the disk. sync() waits until all records appended so far are durable.
+ *
+ * <pre>
+ * record: int length, int crc32 of payload, payload
+ * ADD payload: byte 1, byte type, float score, long time stamp, str id, str data
+ * DEL payload: byte 2, str id
+ * </pre>
+ *
+ * Big-endian; str is an int char count followed by UTF-16 chars. Replay stops
+ * at the first torn or corrupt record and cuts the log there.
+ */
+class WriteAheadLog implements Closeable {
+
+	static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 100;
+
+	private static final byte ADD = 1;
+	private static final byte DEL = 2;
+	private static final int HEADER_SIZE = 8;
+
+	private static final DataEntryType[] TYPES = DataEntryType.values();
+
+	private final FileChannel channel;
+	private final long fsyncIntervalMillis;
+	private final Thread flusher;
+
+	// guarded by this
+	private LogBuffer pending = new LogBuffer();
+	private LogBuffer spare = new LogBuffer();
+	private final LogBuffer payload = new LogBuffer();
+	private final DataOutputStream payloadOut = new DataOutputStream(payload);
+	private final CRC32 crc = new CRC32();
+	private long appended;
+	private long synced;
+	private boolean syncRequested;
+	private boolean closed;
+	private IOException failure;
+
+	// held while the channel is written
+	private final Object io = new Object();
+
+	private WriteAheadLog(FileChannel channel, long fsyncIntervalMillis) {
+		this.channel = channel;
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+		flusher = new Thread("wal-flusher") {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Opens file for appending, creating it if needed. Replay it first.
+	 */
+	static WriteAheadLog open(File file, long fsyncIntervalMillis)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+		return new WriteAheadLog(channel, fsyncIntervalMillis);
+	}
+
+	public synchronized void logAdd(DataEntry entry) {
+		try {
+			payloadOut.writeByte(ADD);
+			payloadOut.writeByte(entry.getType().ordinal());
+			payloadOut.writeFloat(entry.getScore());
+			payloadOut.writeLong(entry.getTimeStamp());
+			writeString(entry.getId());
+			writeString(entry.getData());
+		} catch (IOException e) {
+			// memory buffers do not throw
+			throw new AssertionError(e);
+		}
+		append();
+	}
+
+	public synchronized void logDelete(String id) {
+		try {
+			payloadOut.writeByte(DEL);
+			writeString(id);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		append();
+	}
+
+	/**
+	 * Waits until every record appended so far is on disk.
+	 */
+	public synchronized void sync() throws IOException {
+		long target = appended;
+		while (synced < target && failure == null) {
+			syncRequested = true;
+			notifyAll();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted waiting for the log", e);
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Empties the log, once a snapshot holds everything in it. Writer only.
+	 */
+	public void truncate() throws IOException {
+		synchronized (io) {
+			synchronized (this) {
+				pending.reset();
+				synced = appended;
+			}
+			channel.truncate(0);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Makes every record durable and stops the flusher.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		synchronized (this) {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Applies the records of file to indexer, runs of ADDs in bulk, and cuts
+	 * off a torn tail left by a crash.
+	 *
+	 * @return number of records applied
+	 */
+	static int replay(File file, QuoraIndexer indexer) throws IOException {
+		if (file.exists() == false) {
+			return 0;
+		}
+		int count = 0;
+		long good = 0;
+		long latest = Long.MIN_VALUE;
+		ArrayList<DataEntry> adds = new ArrayList<>();
+		CRC32 check = new CRC32();
+		try (MappedInput in = new MappedInput(file)) {
+			while (in.remaining() >= HEADER_SIZE) {
+				int length = in.getInt();
+				int sum = in.getInt();
+				if (length <= 0 || length > in.remaining()) {
+					break;
+				}
+				byte[] bytes = new byte[length];
+				in.getBytes(bytes);
+				check.reset();
+				check.update(bytes, 0, length);
+				if ((int) check.getValue() != sum) {
+					break;
+				}
+				ByteBuffer record = ByteBuffer.wrap(bytes);
+				byte kind = record.get();
+				if (kind == ADD) {
+					DataEntryType type = TYPES[record.get()];
+					float score = record.getFloat();
+					long timeStamp = record.getLong();
+					adds.add(new DataEntry(type, readString(record), score,
+							readString(record), timeStamp));
+					latest = Math.max(latest, timeStamp);
+				} else if (kind == DEL) {
+					flush(adds, indexer);
+					indexer.delete(readString(record));
+				} else {
+					break;
+				}
+				count++;
+				good = in.position();
+			}
+		} catch (EOFException e) {
+			// torn record
+		}
+		flush(adds, indexer);
+		DataEntry.advanceClockPast(latest);
+		if (good < file.length()) {
+			try (FileChannel channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.WRITE)) {
+				channel.truncate(good);
+			}
+		}
+		return count;
+	}
+
+	private static void flush(ArrayList<DataEntry> adds, QuoraIndexer indexer) {
+		if (adds.isEmpty() == false) {
+			indexer.addAll(adds);
+			adds.clear();
+		}
+	}
+
+	private static String readString(ByteBuffer record) {
+		char[] chars = new char[record.getInt()];
+		for (int i = 0; i < chars.length; ++i) {
+			chars[i] = record.getChar();
+		}
+		return new String(chars);
+	}
+
+	private void writeString(String s) throws IOException {
+		payloadOut.writeInt(s.length());
+		payloadOut.writeChars(s);
+	}
+
+	// frames the payload into pending; caller holds this
+	private void append() {
+		if (closed || failure != null) {
+			payload.reset();
+			throw new IllegalStateException("write-ahead log is "
+					+ (closed ? "closed" : "broken"), failure);
+		}
+		crc.reset();
+		crc.update(payload.array(), 0, payload.size());
+		boolean wasEmpty = pending.size() == 0;
+		pending.writeInt(payload.size());
+		pending.writeInt((int) crc.getValue());
+		pending.write(payload.array(), 0, payload.size());
+		payload.reset();
+		appended++;
+		if (wasEmpty) {
+			notifyAll();
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			synchronized (this) {
+				try {
+					while (pending.size() == 0 && closed == false) {
+						wait();
+					}
+					if (closed == false && syncRequested == false
+							&& fsyncIntervalMillis > 0) {
+						// let a group of records gather
+						wait(fsyncIntervalMillis);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (pending.size() == 0 && closed) {
+					return;
+				}
+			}
+			if (writeGroup() == false) {
+				return;
+			}
+		}
+	}
+
+	// takes the buffered records and writes them with one fsync; the swap
+	// happens under io so that truncate() cannot come between
+	private boolean writeGroup() {
+		LogBuffer batch;
+		long batchEnd;
+		IOException error = null;
+		synchronized (io) {
+			synchronized (this) {
+				batch = pending;
+				pending = spare;
+				spare = null;
+				batchEnd = appended;
+			}
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(batch.array(), 0,
+						batch.size());
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				channel.force(false);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		batch.reset();
+		synchronized (this) {
+			spare = batch;
+			if (error != null) {
+				failure = error;
+			} else {
+				synced = Math.max(synced, batchEnd);
+			}
+			if (synced >= appended) {
+				syncRequested = false;
+			}
+			notifyAll();
+		}
+		return error == null;
+	}
+
+	private static class LogBuffer extends ByteArrayOutputStream {
+		LogBuffer() {
+			super(1 << 16);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		void writeInt(int v) {
+			write(v >>> 24);
+			write(v >>> 16);
+			write(v >>> 8);
+			write(v);
+		}
+	}
+}
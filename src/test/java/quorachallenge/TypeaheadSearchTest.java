@@ -1,17 +1,32 @@
 package quorachallenge;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Locale;
 import java.util.Random;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
 
-import org.junit.After;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -19,8 +34,6 @@ import org.junit.Test;
 import quorachallenge.DataEntry;
 import quorachallenge.DataEntryType;
 import quorachallenge.ResultDataEntry;
-import quorachallenge.SizeComparableSet;
-import quorachallenge.TokenDictionary;
 
 public class TypeaheadSearchTest {
 
@@ -37,11 +50,6 @@ public class TypeaheadSearchTest {
 
 	}
 
-	@After
-	public void tearDown() {
-		TokenDictionary.reset();
-	}
-
 	private static ArrayList<String> generateCorpus() {
 		ArrayList<String> list = new ArrayList<>();
 
@@ -56,11 +64,33 @@ public class TypeaheadSearchTest {
 	}
 
 	@Test
-	public void testTokenDictionaryLookupAndAdd() {
+	public void testTermDictionaryLookupAndAdd() {
+		TermDictionary dict = new TermDictionary();
+		PostingList postings = new PostingList().with(1);
+		for (int i = 0; i < corpus.size(); ++i) {
+			String term = corpus.get(i);
+			dict.put(term, 0, term.length(), postings);
+		}
+		Assert.assertEquals(TOKEN_SIZE, dict.size());
+		Assert.assertSame(postings, dict.get(corpus.get(0).toUpperCase()));
+		Assert.assertSame(postings, dict.get("x" + corpus.get(0), 1,
+				corpus.get(0).length() + 1));
+		Assert.assertNull(dict.get("nothing"));
+
+		// enough churn to rebuild the table a few times
+		for (int i = 0; i < 10000; ++i) {
+			String term = "term" + i;
+			dict.put(term, 0, term.length(), postings);
+			if (i % 3 != 0) {
+				dict.remove(term, 0, term.length());
+			}
+		}
+		Assert.assertEquals(TOKEN_SIZE + 3334, dict.size());
+		Assert.assertSame(postings, dict.get("TERM9999"));
+		Assert.assertNull(dict.get("term9998"));
 		for (int i = 0; i < corpus.size(); ++i) {
-			TokenDictionary.lookupOrAdd(corpus.get(i));
+			Assert.assertSame(postings, dict.get(corpus.get(i)));
 		}
-		Assert.assertEquals(TOKEN_SIZE, TokenDictionary.getDictSize());
 	}
 
 	@Test
@@ -97,9 +127,15 @@ public class TypeaheadSearchTest {
 			sb.append(corpus.get(i));
 			sb.append(rand.nextBoolean() ? " " : "\t");
 		}
-		DataEntry.tokenize(sb.toString());
+		QuoraIndexer indexer = new QuoraIndexer();
+		indexer.add(new DataEntry(DataEntryType.user, "x1", 1.0f, sb
+				.toString()));
 		Assert.assertEquals(num_words / DENSITY_FACTOR + PREFIX_LEN,
-				TokenDictionary.getDictSize());
+				indexer.getTermCount());
+
+		// terms are reclaimed once no entry uses them
+		indexer.delete("x1");
+		Assert.assertEquals(0, indexer.getTermCount());
 	}
 
 	@Test
@@ -249,30 +285,1305 @@ public class TypeaheadSearchTest {
 	}
 
 	@Test
-	public void testSizeComparableSet() {
-		TreeSet<SizeComparableSet<Integer>> cache = new TreeSet<>();
-		SizeComparableSet<Integer> s1 = new SizeComparableSet<>();
-		SizeComparableSet<Integer> s2 = new SizeComparableSet<>();
-		Collections.addAll(s1, 1, 2, 3);
-		Collections.addAll(s2, 3, 4, 5);
+	public void testPostingList() {
+		PostingList list = new PostingList();
+		for (int doc : new int[] { 5, 1, 9, 3, 9, 7 }) {
+			list = list.with(doc);
+		}
+		Assert.assertArrayEquals(new int[] { 1, 3, 5, 7, 9 }, list.toArray());
+		Assert.assertTrue(list.contains(7));
+		Assert.assertFalse(list.contains(4));
+
+		PostingList removed = list.without(1);
+		Assert.assertSame(removed, removed.without(1));
+		Assert.assertArrayEquals(new int[] { 3, 5, 7, 9 }, removed.toArray());
+		// older versions are left untouched
+		Assert.assertArrayEquals(new int[] { 1, 3, 5, 7, 9 }, list.toArray());
+		PostingList appended = removed.with(11);
+		Assert.assertArrayEquals(new int[] { 3, 5, 7, 9 }, removed.toArray());
+		Assert.assertEquals(5, appended.size());
+		list = removed;
+
+		PostingList other = new PostingList().with(3);
+		Assert.assertTrue(other.compareTo(list) < 0);
+		Assert.assertTrue(list.compareTo(other) > 0);
+	}
+
+	@Test
+	public void testPostingIntersection() {
+		// ratios chosen to hit merge, skip pointers and galloping
+		for (int longLen : new int[] { 10, 200, 5000 }) {
+			PostingList small = new PostingList();
+			PostingList large = new PostingList();
+			PostingList other = new PostingList();
+			TreeSet<Integer> expected = new TreeSet<>();
+			for (int i = 0; i < longLen; ++i) {
+				large = large.with(rand.nextInt(longLen * 2));
+				other = other.with(rand.nextInt(longLen * 2));
+			}
+			for (int i = 0; i < 10; ++i) {
+				int doc = rand.nextInt(longLen * 2);
+				small = small.with(doc);
+				if (large.contains(doc) && other.contains(doc)) {
+					expected.add(doc);
+				}
+			}
+			PostingList[] lists = { small, large, other };
+			Arrays.sort(lists);
+			int[] out = new int[lists[0].size()];
+			int n = PostingIntersection.intersect(lists, out);
+
+			int[] expectedArr = new int[expected.size()];
+			int i = 0;
+			for (int doc : expected) {
+				expectedArr[i++] = doc;
+			}
+			Assert.assertArrayEquals(expectedArr, Arrays.copyOf(out, n));
+		}
+	}
+
+	@Test
+	public void testPackedPostingList() {
+		// gaps from consecutive ids to one that needs 31 bits
+		int[] ids = new int[3 * PostingBlocks.BLOCK + 50];
+		int doc = 0;
+		for (int i = 0; i < ids.length; ++i) {
+			doc += 1 + (i < PostingBlocks.BLOCK ? 0 : rand.nextInt(1 << (i % 20)));
+			if (i == 2 * PostingBlocks.BLOCK + 3) {
+				doc += 1 << 30;
+			}
+			ids[i] = doc;
+		}
+		PostingList plain = new PostingList();
+		PostingList packed = new PostingList();
+		for (int id : ids) {
+			plain = plain.with(id);
+			packed = packed.with(id).packed(PostingBlocks.EMPTY);
+		}
+		Assert.assertEquals(3 * PostingBlocks.BLOCK, packed.packedIds().size());
+		Assert.assertArrayEquals(ids, packed.toArray());
+		for (int i = 0; i < ids.length; i += 7) {
+			Assert.assertEquals(ids[i], packed.get(i));
+			Assert.assertTrue(packed.contains(ids[i]));
+			Assert.assertEquals(plain.contains(ids[i] + 1),
+					packed.contains(ids[i] + 1));
+		}
+
+		// changes other than appends pack the list anew
+		PostingList removed = packed.without(ids[5]);
+		Assert.assertArrayEquals(plain.without(ids[5]).toArray(),
+				removed.toArray());
+		Assert.assertArrayEquals(ids, packed.toArray());
+		Assert.assertArrayEquals(plain.with(ids[5]).toArray(), removed
+				.with(ids[5]).toArray());
+
+		// candidates in and between blocks, and past them; as many as to
+		// decode and merge, decode and search, and search without decoding
+		for (int count : new int[] { 300, 40, 4 }) {
+			int[] candidates = new int[count];
+			for (int i = 0; i < count; ++i) {
+				candidates[i] = rand.nextBoolean() ? ids[rand.nextInt(ids.length)]
+						: rand.nextInt(doc + 100);
+			}
+			Arrays.sort(candidates);
+			int n = 1;
+			for (int i = 1; i < count; ++i) {
+				if (candidates[i] != candidates[n - 1]) {
+					candidates[n++] = candidates[i];
+				}
+			}
+			int[] expected = new int[n];
+			int[] actual = new int[n];
+			int size = PostingIntersection.intersect(candidates, n,
+					plain.docs(), plain.size(), expected);
+			Assert.assertEquals(size, PostingIntersection.intersect(
+					candidates, n, packed, actual));
+			Assert.assertArrayEquals(Arrays.copyOf(expected, size),
+					Arrays.copyOf(actual, size));
+		}
+	}
+
+	@Test
+	public void testRoaringPostingList() {
+		// chunks of 65536 ids: sparse (an array), dense (a bitmap), a run,
+		// and every third id (a bitmap)
+		ArrayList<Integer> idList = new ArrayList<>();
+		for (int id = 0; id < 1 << 16; id += 1 + rand.nextInt(40)) {
+			idList.add(id);
+		}
+		for (int id = 1 << 16; id < 2 << 16; ++id) {
+			if (rand.nextInt(3) == 0) {
+				idList.add(id);
+			}
+		}
+		for (int id = 3 << 16; id < (3 << 16) + 30000; ++id) {
+			idList.add(id);
+		}
+		for (int id = 5 << 16; id < 6 << 16; id += 3) {
+			idList.add(id);
+		}
+		int[] ids = new int[idList.size() + 77];
+		for (int i = 0; i < idList.size(); ++i) {
+			ids[i] = idList.get(i);
+		}
+		ids[idList.size()] = 7 << 16;
+		for (int i = idList.size() + 1; i < ids.length; ++i) {
+			ids[i] = ids[i - 1] + 1 + rand.nextInt(1000);
+		}
+		PostingList plain = PostingList.ofSorted(PostingList.ASCENDING,
+				ids.clone(), ids.length);
+		PostingList roaring = new PostingList();
+		for (int id : ids) {
+			roaring = roaring.with(id).packed(PostingContainers.EMPTY);
+		}
+		PostingContainers containers = (PostingContainers) roaring
+				.packedIds();
+		Assert.assertEquals(2, containers.bitmaps());
+		Assert.assertArrayEquals(ids, roaring.toArray());
+		Assert.assertArrayEquals(ids, plain.packed(PostingContainers.EMPTY)
+				.toArray());
+		for (int i = 0; i < ids.length; i += 97) {
+			Assert.assertEquals(ids[i], roaring.get(i));
+			Assert.assertTrue(roaring.contains(ids[i]));
+			Assert.assertEquals(plain.contains(ids[i] + 1),
+					roaring.contains(ids[i] + 1));
+		}
+		PostingList removed = roaring.without(ids[5]);
+		Assert.assertArrayEquals(plain.without(ids[5]).toArray(),
+				removed.toArray());
+
+		// candidates looked up, and lists ANDed container by container
+		int last = ids[ids.length - 1];
+		for (int count : new int[] { 100000, 3000, 40 }) {
+			int[] candidates = new int[count];
+			for (int i = 0; i < count; ++i) {
+				candidates[i] = rand.nextInt(last + 100);
+			}
+			Arrays.sort(candidates);
+			int n = 1;
+			for (int i = 1; i < count; ++i) {
+				if (candidates[i] != candidates[n - 1]) {
+					candidates[n++] = candidates[i];
+				}
+			}
+			PostingList other = PostingList.ofSorted(PostingList.ASCENDING,
+					candidates, n);
+			int[] expected = new int[n];
+			int size = PostingIntersection.intersect(candidates, n,
+					plain.docs(), plain.size(), expected);
+			int[] actual = new int[n];
+			Assert.assertEquals(size, PostingIntersection.intersect(
+					candidates, n, roaring, actual));
+			Assert.assertArrayEquals(Arrays.copyOf(expected, size),
+					Arrays.copyOf(actual, size));
+
+			PostingList[] lists = { other.packed(PostingContainers.EMPTY),
+					roaring, removed };
+			Arrays.sort(lists);
+			actual = new int[lists[0].size()];
+			int actualSize = PostingIntersection.intersect(lists, actual);
+			size = PostingIntersection.intersect(expected, size,
+					removed.docs(), removed.size(), expected);
+			Assert.assertArrayEquals(Arrays.copyOf(expected, size),
+					Arrays.copyOf(actual, actualSize));
+		}
+	}
+
+	@Test
+	public void testTopKSelector() {
+		ArrayList<ResultDataEntry> all = new ArrayList<>();
+		TopKSelector topK = new TopKSelector(QUERY_NUM_RESULTS);
+		for (int i = 0; i < 500; ++i) {
+			// few distinct scores, so the timestamp tie-break matters
+			float score = rand.nextInt(10) / 10f;
+			DataEntry entry = new DataEntry(DataEntryType.user, "u" + i,
+					score, "");
+			all.add(new ResultDataEntry(entry, score));
+			topK.offer(entry, score);
+		}
+		Collections.sort(all, Collections.reverseOrder());
+
+		ResultDataEntry[] selected = topK.toSortedArray();
+		Assert.assertEquals(QUERY_NUM_RESULTS, selected.length);
+		for (int i = 0; i < selected.length; ++i) {
+			Assert.assertSame(all.get(i).getEntry(), selected[i].getEntry());
+		}
+	}
+
+	@Test
+	public void testCommandParser() {
+		CommandParser parser = new CommandParser();
+		Assert.assertEquals(CommandParser.Command.ADD,
+				parser.parse("ADD question q1 0.5 What does\tAdam  do?"));
+		Assert.assertEquals(DataEntryType.question, parser.getType());
+		Assert.assertEquals("q1", parser.getId());
+		Assert.assertEquals(0.5f, parser.getScore(), 0);
+		Assert.assertEquals("What does\tAdam  do?", parser.getData());
+
+		Assert.assertEquals(CommandParser.Command.WQUERY,
+				parser.parse("WQUERY 2 2 topic:9.99  u1:1e3 Adam D'A"));
+		Assert.assertEquals(2, parser.getNumResult());
+		Assert.assertEquals(2, parser.getNumBoosts());
+		Assert.assertEquals("topic", parser.getBoostKey(0));
+		Assert.assertEquals(9.99f, parser.getBoostValue(0), 0);
+		Assert.assertEquals("u1", parser.getBoostKey(1));
+		Assert.assertEquals(1000f, parser.getBoostValue(1), 0);
+		Assert.assertEquals("Adam D'A",
+				parser.toString().substring(parser.getQueryFrom()));
+
+		Assert.assertEquals(CommandParser.Command.QUERY,
+				parser.parse("QUERY 10 lear H"));
+		Assert.assertEquals(10, parser.getNumResult());
+		Assert.assertEquals("lear H",
+				parser.toString().substring(parser.getQueryFrom()));
+
+		Assert.assertEquals(CommandParser.Command.UNKNOWN,
+				parser.parse("FIND 10 x"));
+		Assert.assertEquals("FIND", parser.getVerb());
+
+		// in-place float parsing matches Float.parseFloat
+		for (int i = 0; i < 10000; ++i) {
+			String score = rand.nextBoolean() ? Float.toString(rand
+					.nextFloat() * rand.nextInt(1000)) : String.format(
+					Locale.ROOT, "%." + rand.nextInt(8) + "f",
+					rand.nextDouble() * 100);
+			parser.parse("ADD user u1 " + score + " x");
+			Assert.assertEquals(score, Float.parseFloat(score),
+					parser.getScore(), 0);
+		}
+	}
+
+	@Test
+	public void testCommandParserMatchesRegexes() {
+		String[] accepted = { "ADD user u1 1.0 Adam D'Angelo",
+				"ADD user u1 +1.5 a", "ADD user u1 .5 a", "ADD user u1 5. a",
+				"ADD user u1 -0 a", "ADD user u1 1e3 a", "ADD user u1 1E-2 a",
+				"ADD user u1 1f a", "ADD user u1 0x1p3 a", "ADD user u1 NaN a",
+				"ADD user u1 16777217 a", "ADD user u1 0.00000000001 a",
+				"ADD user u1 123456789.123456789 a", "ADD user u1 0.99999999 a",
+				"ADD user u1 0.1", "ADD\tuser\tu1\t0.3\t\tdata  with\u000Bspace ",
+				"QUERY 5 a b", "QUERY 5abc", "QUERY 10\t\tx y", "QUERY 0 ",
+				"QUERY 5", "QUERY 007 a", "WQUERY 10 0 a",
+				"WQUERY 10 2 user:2.5 u1:.5 adam", "WQUERY +3 1 a:1:2 q",
+				"WQUERY 3 1 :5 q", "WQUERY 3 1 k:1e2", "WQUERY 3  1\tk:2  q",
+				"DEL u1", "DEL  u1 x" };
+		for (String input : accepted) {
+			Assert.assertEquals(input, parseWithRegexes(input),
+					parseInPlace(input));
+		}
+		for (int i = 0; i < 10000; ++i) {
+			String input = "ADD user u1 " + randomDecimal() + " x";
+			Assert.assertEquals(input, parseWithRegexes(input),
+					parseInPlace(input));
+		}
+
+		String[] rejected = { "ADD user u1", "ADD  user u1 1 a",
+				"ADD user u1 . a", "ADD user u1 1..0 a", "ADD user u1 - a",
+				"ADD fish u1 1 a", "QUERY x a", "QUERY  5 a", "QUERY -1 a",
+				"QUERY 99999999999 a", "WQUERY 3 1 k q", "WQUERY 3 1 k: q",
+				"WQUERY 3 0", "WQUERY x 0 q" };
+		for (String input : rejected) {
+			try {
+				parseWithRegexes(input);
+				Assert.fail(input);
+			} catch (RuntimeException e) {
+				// as before
+			}
+			try {
+				parseInPlace(input);
+				Assert.fail(input);
+			} catch (IllegalArgumentException e) {
+				// now always this one
+			}
+		}
+	}
+
+	// digits around an optional dot, sometimes more than a float holds
+	private String randomDecimal() {
+		StringBuilder sb = new StringBuilder();
+		if (rand.nextInt(4) == 0) {
+			sb.append(rand.nextBoolean() ? '-' : '+');
+		}
+		int digits = rand.nextInt(12);
+		int dot = rand.nextInt(digits + 1);
+		for (int i = 0; i < digits; ++i) {
+			if (i == dot) {
+				sb.append('.');
+			}
+			sb.append((char) ('0' + rand.nextInt(10)));
+		}
+		if (digits == 0 || dot == digits && rand.nextBoolean()) {
+			sb.append(digits == 0 ? "1." : ".");
+		}
+		return sb.toString();
+	}
+
+	// what TypeaheadSearch did before CommandParser, fields joined by |
+	private static String parseWithRegexes(String input) {
+		Matcher space = Pattern.compile("\\s+").matcher(input);
+		space.find();
+		String command = input.substring(0, space.start());
+		String body = input.substring(space.start() + 1);
+		if (command.equals("ADD")) {
+			Matcher m = Pattern.compile("(\\S+)\\s+(\\S+)\\s+(\\S+)\\s*(.*)")
+					.matcher(body);
+			m.matches();
+			return "ADD|" + DataEntryType.valueOf(m.group(1)) + "|"
+					+ m.group(2) + "|"
+					+ Float.floatToIntBits(Float.parseFloat(m.group(3))) + "|"
+					+ m.group(4);
+		} else if (command.equals("DEL")) {
+			return "DEL|" + body;
+		} else if (command.equals("QUERY")) {
+			Matcher m = Pattern.compile("(\\d+)\\s*(.*)").matcher(body);
+			m.matches();
+			return "QUERY|" + Integer.parseInt(m.group(1)) + "|" + m.group(2);
+		}
+		Matcher m = Pattern.compile("\\s+").matcher(body);
+		m.find();
+		StringBuilder sb = new StringBuilder("WQUERY|");
+		sb.append(Integer.parseInt(body.substring(0, m.start()))).append('|');
+		int from = m.end();
+		m.find();
+		int numBoost = Integer.parseInt(body.substring(from, m.start()));
+		from = m.end();
+		for (int i = 0; i < numBoost; ++i) {
+			int to = m.find() ? m.start() : body.length();
+			String[] pair = body.substring(from, to).split(":");
+			sb.append(pair[0]).append(':')
+					.append(Float.floatToIntBits(Float.parseFloat(pair[1])))
+					.append('|');
+			from = to == body.length() ? to : m.end();
+		}
+		return sb.append(body.substring(from)).toString();
+	}
+
+	private static String parseInPlace(String input) {
+		CommandParser p = new CommandParser();
+		switch (p.parse(input)) {
+		case ADD:
+			return "ADD|" + p.getType() + "|" + p.getId() + "|"
+					+ Float.floatToIntBits(p.getScore()) + "|" + p.getData();
+		case DEL:
+			return "DEL|" + p.getId();
+		case QUERY:
+			return "QUERY|" + p.getNumResult() + "|"
+					+ p.toString().substring(p.getQueryFrom());
+		case WQUERY:
+			StringBuilder sb = new StringBuilder("WQUERY|");
+			sb.append(p.getNumResult()).append('|');
+			for (int i = 0; i < p.getNumBoosts(); ++i) {
+				sb.append(p.getBoostKey(i)).append(':')
+						.append(Float.floatToIntBits(p.getBoostValue(i)))
+						.append('|');
+			}
+			return sb.append(p.toString().substring(p.getQueryFrom()))
+					.toString();
+		default:
+			return "UNKNOWN";
+		}
+	}
+
+	@Test
+	public void testSampleInput() {
+		String[] input = { "ADD user u1 1.0 Adam D'Angelo",
+				"ADD user u2 1.0 Adam Black",
+				"ADD topic t1 0.8 Adam D'Angelo",
+				"ADD question q1 0.5 What does Adam D'Angelo do at Quora?",
+				"ADD question q2 0.5 How did Adam D'Angelo learn programming?",
+				"QUERY 10 Adam", "QUERY 10 Adam D'A", "QUERY 10 Adam Cheever",
+				"QUERY 10 LEARN how", "QUERY 1 lear H", "QUERY 0 lea",
+				"WQUERY 10 0 Adam D'A", "WQUERY 2 1 topic:9.99 Adam D'A",
+				"DEL u2", "QUERY 2 Adam" };
+		String[] expected = { "u2 u1 t1 q2 q1", "u1 t1 q2 q1", "", "q2", "q2",
+				"", "u1 t1 q2 q1", "t1 u1", "u1 t1" };
+
+		Assert.assertArrayEquals(expected, execute(new TypeaheadSearch(), input));
+		Assert.assertArrayEquals(expected,
+				execute(new TypeaheadSearch(new IndexOptions()
+						.setPostingOrder(PostingOrder.SCORE)), input));
+	}
+
+	@Test
+	public void testBoostRules() {
+		String[] input = { "ADD user u1 1.0 Adam", "ADD topic t1 0.9 Adam",
+				"ADD question user 0.8 Adam", "ADD user u2 0.7 Adam",
+				// the type boost wins over the id boost of t1
+				"WQUERY 2 2 t1:100 topic:0.1 Adam",
+				// the last boost of a key counts
+				"WQUERY 1 2 u2:0.1 u2:10 Adam",
+				// ids match with case, types are ids too
+				"WQUERY 1 1 U2:10 Adam", "WQUERY 2 1 user:2 Adam",
+				"WQUERY 4 0 Adam",
+				// a negative boost count is no boosts
+				"WQUERY 2 -1 Adam" };
+		String[] expected = { "u1 user", "u2", "u1", "u1 user",
+				"u1 t1 user u2", "u1 t1" };
+		Assert.assertArrayEquals(expected, execute(new TypeaheadSearch(), input));
+		Assert.assertArrayEquals(expected,
+				execute(new TypeaheadSearch(new IndexOptions()
+						.setPostingOrder(PostingOrder.SCORE)), input));
+	}
+
+	@Test
+	public void testQueryCacheNeverStale() {
+		TypeaheadSearch search = new TypeaheadSearch(new IndexOptions()
+				.setCacheSize(10));
+		Assert.assertArrayEquals(new String[] { "u1", "u1", "u2 u1", "u2 u1",
+				"u1" }, execute(search, "ADD user u1 1.0 adam", "QUERY 5 a",
+				"QUERY 5 a", "ADD user u2 2.0 adam", "QUERY 5 a",
+				// an ADD that a matches not is no reason to recompute
+				"ADD user b1 3.0 bob", "QUERY 5 a", "DEL u2", "QUERY 5 a"));
+		Assert.assertEquals(2, search.getQueryCache().getHits());
+		Assert.assertEquals(2, search.getQueryCache().getInvalidations());
+
+		// writes between queries, then the same queries again without any
+		ArrayList<String> lines = new ArrayList<>();
+		Collections.addAll(lines, randomCommands(4000));
+		for (int i = 0; i < 4000; ++i) {
+			if (lines.get(i).contains("QUERY")) {
+				lines.add(lines.get(i));
+			}
+		}
+		String[] input = lines.toArray(new String[lines.size()]);
+		for (PostingOrder order : PostingOrder.values()) {
+			TypeaheadSearch cached = new TypeaheadSearch(new IndexOptions()
+					.setPostingOrder(order).setCacheSize(1000));
+			Assert.assertArrayEquals(execute(new TypeaheadSearch(),
+					input), execute(cached, input));
+			QueryCache cache = cached.getQueryCache();
+			Assert.assertTrue(cache.getHits() > 0);
+			Assert.assertTrue(cache.getInvalidations() > 0);
+			Assert.assertTrue(cache.size() <= 1000);
+		}
+	}
+
+	@Test
+	public void testSessionRefinementMatchesFullQueries() {
+		TypeaheadSearch session = new TypeaheadSearch(new IndexOptions()
+				.setSessionCount(1));
+		ByteArrayOutputStream typed = new ByteArrayOutputStream();
+		PrintStream typedOut = new PrintStream(typed);
+		for (String line : new String[] { "ADD user u1 1.0 adam black",
+				"ADD user u2 2.0 adam", "QUERY 5 a", "QUERY 5 ad",
+				"QUERY 5 adam b",
+				// an ADD in between must not be missed by the next keystroke
+				"ADD user u3 3.0 adam blue", "QUERY 5 adam bl",
+				"DEL u1", "QUERY 5 adam blu",
+				// not an extension: a query of its own
+				"QUERY 5 a" }) {
+			session.executeInput("client", line, typedOut);
+		}
+		typedOut.flush();
+		String n = System.lineSeparator();
+		Assert.assertEquals("u2 u1" + n + "u2 u1" + n + "u1" + n + "u3 u1"
+				+ n + "u3" + n + "u3 u2" + n, typed.toString());
+		Assert.assertTrue(session.getQuerySessions().getRefinements() > 0);
+
+		// every query typed a keystroke at a time, with writes in between
+		ArrayList<String> lines = new ArrayList<>();
+		for (String line : randomCommands(3000)) {
+			if (line.startsWith("QUERY")) {
+				int body = line.indexOf(' ', "QUERY ".length()) + 1;
+				for (int end = body + 1; end < line.length(); ++end) {
+					lines.add(line.substring(0, end));
+				}
+			}
+			lines.add(line);
+		}
+		String[] input = lines.toArray(new String[lines.size()]);
+		TypeaheadSearch search = new TypeaheadSearch(new IndexOptions()
+				.setSessionCount(4));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		for (String line : input) {
+			search.executeInput("client", line, out);
+		}
+		out.flush();
+		StringBuilder expected = new StringBuilder();
+		for (String line : execute(new TypeaheadSearch(), input)) {
+			expected.append(line).append(System.lineSeparator());
+		}
+		Assert.assertEquals(expected.toString(), bytes.toString());
+		Assert.assertTrue(search.getQuerySessions().getRefinements() > 0);
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		Histogram histogram = new Histogram();
+		for (int v = 1; v <= 100000; ++v) {
+			histogram.record(v);
+		}
+		Assert.assertEquals(100000, histogram.count());
+		Assert.assertEquals(100000, histogram.max());
+		// within a bucket, 1/32 of the value
+		Assert.assertEquals(50000, histogram.percentile(50), 50000 / 32);
+		Assert.assertEquals(99000, histogram.percentile(99), 99000 / 32);
+		Assert.assertEquals(0, new Histogram().percentile(99));
+
+		TypeaheadSearch search = new TypeaheadSearch(
+				new IndexOptions().setMetricsEnabled(true));
+		execute(search, "ADD user u1 1.0 Adam D'Angelo",
+				"ADD user u2 1.0 Adam Black", "DEL u2", "QUERY 10 Adam",
+				"WQUERY 10 1 user:2 Ad", "QUERY 10 Zzz");
+		Metrics metrics = search.getMetrics();
+		Assert.assertEquals(Long.valueOf(2),
+				metrics.getCommandCounts().get("ADD"));
+		Assert.assertEquals(6, metrics.getHistogram(Metrics.Phase.PARSE)
+				.count());
+		Assert.assertEquals(3, metrics.getResultSizes().count());
+		Assert.assertEquals(1, metrics.getResultSizes().max());
+		Assert.assertEquals(1, metrics.getEntryCount());
+
+		metrics.register();
+		try {
+			Assert.assertEquals(Long.valueOf(1), ManagementFactory
+					.getPlatformMBeanServer().getAttribute(
+							new ObjectName(Metrics.OBJECT_NAME),
+							"ResultSizeP99"));
+		} finally {
+			metrics.unregister();
+		}
+
+		// disabled: nothing recorded
+		TypeaheadSearch off = new TypeaheadSearch();
+		execute(off, "ADD user u1 1.0 Adam", "QUERY 10 Adam");
+		Assert.assertEquals(0, off.getMetrics()
+				.getHistogram(Metrics.Phase.PARSE).count());
+	}
 
-		cache.add(s1);
-		
-		Assert.assertFalse(cache.contains(s2));
-		
-		cache.add(s2);
+	@Test
+	public void testServerPipelining() throws Exception {
+		String[] input = randomCommands(500);
+		StringBuilder sb = new StringBuilder();
+		for (String line : input) {
+			sb.append(line).append('\n');
+		}
+		// a line split across writes
+		byte[] bytes = sb.toString().getBytes("UTF-8");
+		int half = bytes.length / 2;
 
-		Assert.assertNotEquals(s1, s2);
+		IndexOptions options = new IndexOptions().setSessionCount(10);
+		TypeaheadServer server = new TypeaheadServer(new TypeaheadSearch(
+				options), new InetSocketAddress("127.0.0.1", 0), 2).start();
+		StringBuilder actual = new StringBuilder();
+		try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+			socket.getOutputStream().write(bytes, 0, half);
+			socket.getOutputStream().flush();
+			socket.getOutputStream().write(bytes, half, bytes.length - half);
+			socket.shutdownOutput();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				actual.append(line).append('\n');
+			}
+		} finally {
+			server.close();
+		}
 
-		HashSet<Integer> resultSet = null;
-		Iterator<SizeComparableSet<Integer>> it = cache.iterator();
-		if (it.hasNext()) {
-			resultSet = it.next();
+		StringBuilder expected = new StringBuilder();
+		for (String line : execute(new TypeaheadSearch(options), input)) {
+			expected.append(line).append('\n');
 		}
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	// a dead worker would leave the second client hanging
+	@Test(timeout = 10000)
+	public void testServerSurvivesFailedCommand() throws Exception {
+		TypeaheadSearch search = new TypeaheadSearch() {
+			@Override
+			void execute(CommandParser parser, char[] line, int length,
+					QuerySessions.Session session, PrintStream output) {
+				if (new String(line, 0, length).equals("QUERY 1 boom")) {
+					throw new IllegalStateException("boom");
+				}
+				super.execute(parser, line, length, session, output);
+			}
+		};
+		// one worker, so every client is served by the one that failed
+		TypeaheadServer server = new TypeaheadServer(search,
+				new InetSocketAddress("127.0.0.1", 0), 1).start();
+		try {
+			Assert.assertEquals("", serve(server, "QUERY 1 boom\nQUERY 1 a\n"));
+			Assert.assertEquals("u1\n",
+					serve(server, "ADD user u1 1.0 Adam\nQUERY 1 a\n"));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testServerLastLineWithoutLineEnd() throws Exception {
+		TypeaheadServer server = new TypeaheadServer(new TypeaheadSearch(),
+				new InetSocketAddress("127.0.0.1", 0), 1).start();
+		try {
+			Assert.assertEquals("", serve(server, "ADD user u1 1.0 Adam"));
+			Assert.assertEquals("", serve(server, "ADD user u2 2.0 Adam\r"));
+			Assert.assertEquals("u2 u1\n", serve(server, "QUERY 2 a"));
+			Assert.assertEquals("u1\n", serve(server, "DEL u2\nQUERY 2 a"));
+		} finally {
+			server.close();
+		}
+	}
+
+	// what server writes back for input, read until it closes the connection
+	private static String serve(TypeaheadServer server, String input)
+			throws IOException {
+		StringBuilder actual = new StringBuilder();
+		try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+			socket.getOutputStream().write(input.getBytes("UTF-8"));
+			socket.shutdownOutput();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				actual.append(line).append('\n');
+			}
+		}
+		return actual.toString();
+	}
+
+	@Test
+	public void testShardedMatchesUnsharded() {
+		// ties across shards go to the newest, and a re-ADD replaces its
+		// id in whatever shard it was in
+		Assert.assertArrayEquals(new String[] { "u3 u2 u1", "t1 u3", "u1 t1 U2" },
+				execute(new TypeaheadSearch(new IndexOptions()
+						.setShardCount(3)), "ADD user u1 1.0 adam",
+						"ADD user u2 1.0 adam", "ADD user u3 1.0 adam",
+						"ADD topic t1 0.5 adam", "QUERY 3 a",
+						"WQUERY 2 1 topic:10 a", "DEL u3",
+						"ADD user U2 0.1 adam", "QUERY 5 a"));
+
+		String[] input = randomCommands(2000);
+		for (PostingOrder order : PostingOrder.values()) {
+			String[] expected = execute(new TypeaheadSearch(new IndexOptions()
+					.setPostingOrder(order)), input);
+			for (int shards : new int[] { 2, 5 }) {
+				IndexOptions options = new IndexOptions().setPostingOrder(order)
+						.setShardCount(shards);
+				Assert.assertArrayEquals(order + " " + shards, expected,
+						execute(new TypeaheadSearch(options), input));
+			}
+		}
+
+		// ADD batches are split among the shards
+		StringBuilder sb = new StringBuilder();
+		sb.append(input.length).append('\n');
+		for (String line : input) {
+			sb.append(line).append('\n');
+		}
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		new TypeaheadSearch().executeStream(new ByteArrayInputStream(sb
+				.toString().getBytes()), single);
+		ByteArrayOutputStream sharded = new ByteArrayOutputStream();
+		new TypeaheadSearch(new IndexOptions().setShardCount(3)
+				.setBulkLoadSize(64)).executeStream(new ByteArrayInputStream(sb
+				.toString().getBytes()), sharded);
+		Assert.assertEquals(single.toString(), sharded.toString());
+	}
+
+	@Test
+	public void testBatchMatchesOneByOne() {
+		// equal queries in a run are evaluated once, and a run ends at an
+		// ADD or DEL
+		Assert.assertArrayEquals(new String[] { null, null, "u1", "u2 u1",
+				"u2 u1", null, "u1", "u1" }, new TypeaheadSearch()
+				.executeBatch(Arrays.asList("ADD user u1 1.0 adam quora",
+						"ADD user u2 2.0 adam", "QUERY 5 adam quora",
+						"QUERY 5 ad", "QUERY 5 ad", "DEL u2", "QUERY 5 ad",
+						"WQUERY 5 1 u1:0.1 quora adam")));
+
+		String[] input = randomCommands(2000);
+		for (PostingOrder order : PostingOrder.values()) {
+			IndexOptions options = new IndexOptions().setPostingOrder(order);
+			String[] expected = execute(new TypeaheadSearch(options), input);
+			// the cache is looked up by the batch itself
+			for (IndexOptions batched : new IndexOptions[] { options,
+					new IndexOptions().setPostingOrder(order).setCacheSize(100) }) {
+				ArrayList<String> lines = new ArrayList<>();
+				for (String result : new TypeaheadSearch(batched)
+						.executeBatch(Arrays.asList(input))) {
+					if (result != null) {
+						lines.add(result);
+					}
+				}
+				Assert.assertArrayEquals(order.toString(), expected,
+						lines.toArray(new String[lines.size()]));
+			}
+		}
+
+		QuoraIndexer indexer = new QuoraIndexer();
+		indexer.add(new DataEntry(DataEntryType.user, "u1", 1, "adam an quora"));
+		indexer.add(new DataEntry(DataEntryType.user, "u2", 1, "adam angelo"));
+		indexer.add(new DataEntry(DataEntryType.user, "u3", 1, "anna"));
+		QueryBatch batch = new QueryBatch(indexer);
+		Assert.assertEquals(1,
+				batch.intersect(new String[] { "adam", "quora" }).size);
+		// the longest list comes last: adam quora is reused
+		Assert.assertEquals(1, batch.intersect(new String[] { "an", "quora",
+				"adam", "quora" }).size);
+		Assert.assertEquals(1, batch.getReused());
+		Assert.assertEquals(3, batch.getTermCount());
+	}
+
+	@Test
+	public void testLazyDeletesMatchEager() {
+		IndexOptions stopped = new IndexOptions()
+				.setDeletionMode(DeletionMode.LAZY);
+		QuoraIndexer lazyIds = new QuoraIndexer(stopped);
+		lazyIds.stopCompaction();
+		TypeaheadSearch search = new TypeaheadSearch(lazyIds, stopped);
+		// the dead stay in the lists until compact(), but are never found
+		Assert.assertArrayEquals(new String[] { "u1", "u1 U2", "U2" },
+				execute(search, "ADD user u1 1.0 adam", "ADD user u2 2.0 adam",
+						"DEL u2", "QUERY 5 a", "ADD user U2 0.5 adam",
+						"QUERY 5 a", "DEL u1", "WQUERY 5 1 user:2 a"));
+		Assert.assertEquals(2, lazyIds.getDeadCount());
+		lazyIds.compact();
+		Assert.assertEquals(0, lazyIds.getDeadCount());
+		Assert.assertArrayEquals(new String[] { "U2" }, execute(search,
+				"QUERY 5 a"));
+
+		String[] input = randomCommands(6000);
+		for (IndexMode mode : IndexMode.values()) {
+			for (PostingOrder order : PostingOrder.values()) {
+				IndexOptions eager = new IndexOptions().setIndexMode(mode)
+						.setPostingOrder(order);
+				QuoraIndexer eagerIndexer = new QuoraIndexer(eager);
+				String[] expected = execute(new TypeaheadSearch(eagerIndexer,
+						eager), input);
+
+				// compactions run meanwhile, in the background
+				IndexOptions lazy = new IndexOptions().setIndexMode(mode)
+						.setPostingOrder(order)
+						.setDeletionMode(DeletionMode.LAZY)
+						.setCompactRatio(0.01);
+				QuoraIndexer lazyIndexer = new QuoraIndexer(lazy);
+				Assert.assertArrayEquals(mode + " " + order, expected,
+						execute(new TypeaheadSearch(lazyIndexer, lazy), input));
+
+				lazyIndexer.compact();
+				Assert.assertEquals(0, lazyIndexer.getDeadCount());
+				Assert.assertEquals(eagerIndexer.getTermCount(),
+						lazyIndexer.getTermCount());
+				Assert.assertEquals(eagerIndexer.getEntryCount(),
+						lazyIndexer.getEntryCount());
+			}
+		}
+
+		// a stopped compactor leaves the dead to compact()
+		QuoraIndexer indexer = new QuoraIndexer(new IndexOptions()
+				.setDeletionMode(DeletionMode.LAZY).setCompactRatio(0.01));
+		indexer.stopCompaction();
+		for (int i = 0; i < 1000; ++i) {
+			indexer.add(new DataEntry(DataEntryType.user, "u" + i, 1, "adam"));
+			indexer.delete("u" + i);
+		}
+		Assert.assertEquals(1000, indexer.getDeadCount());
+		Assert.assertEquals(0, indexer.getCompactions());
+		indexer.compact();
+		Assert.assertEquals(0, indexer.getDeadCount());
+	}
+
+	@Test
+	public void testPackedPostingsMatchPlain() {
+		String[] input = randomCommands(6000);
+		for (IndexMode mode : IndexMode.values()) {
+			for (DeletionMode deletes : DeletionMode.values()) {
+				IndexOptions plain = new IndexOptions().setIndexMode(mode)
+						.setDeletionMode(deletes);
+				String[] expected = execute(new TypeaheadSearch(plain), input);
+				for (PostingFormat format : new PostingFormat[] {
+						PostingFormat.PACKED, PostingFormat.ROARING }) {
+					IndexOptions packed = new IndexOptions().setIndexMode(mode)
+							.setDeletionMode(deletes).setPostingFormat(format);
+					Assert.assertArrayEquals(mode + " " + deletes + " "
+							+ format, expected, execute(new TypeaheadSearch(
+							packed), input));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTopKMatchesFullQueries() throws IOException {
+		for (DeletionMode deletes : DeletionMode.values()) {
+			TypeaheadSearch search = new TypeaheadSearch(new IndexOptions()
+					.setDeletionMode(deletes).setTopK(2));
+			Assert.assertArrayEquals(new String[] { "u1 u2", "u2 u3", "u4",
+					"u4 u5", "u4 u5", "u4 u5 u6" }, execute(search,
+					"ADD user u1 0.9 adam", "ADD user u2 0.8 adam",
+					"ADD user u3 0.7 adam", "ADD user u4 0.6 adam",
+					"QUERY 2 a", "DEL u1",
+					// one left of two: repaired from the full list
+					"QUERY 2 ad", "DEL u2", "DEL u3", "QUERY 2 a",
+					"ADD user u5 0.1 adam", "QUERY 2 a",
+					// ranks below both kept ones: the prefixes stay as they are
+					"ADD user u6 0.05 adam", "QUERY 2 ad",
+					// longer than kept, and more than K
+					"QUERY 3 ada"));
+		}
+
+		// K below most numResults, and DELs that often leave too few, so
+		// queries fall back to the full lists and repair the prefixes
+		String[] input = randomCommands(6000);
+		String[] more = randomCommands(1000);
+		int k = QUERY_NUM_RESULTS / 2;
+		for (IndexMode mode : IndexMode.values()) {
+			for (DeletionMode deletes : DeletionMode.values()) {
+				IndexOptions plain = new IndexOptions().setIndexMode(mode)
+						.setDeletionMode(deletes);
+				TypeaheadSearch expected = new TypeaheadSearch(plain);
+				IndexOptions options = new IndexOptions().setIndexMode(mode)
+						.setDeletionMode(deletes).setTopK(k);
+				TypeaheadSearch actual = new TypeaheadSearch(options);
+				Assert.assertArrayEquals(mode + " " + deletes, execute(
+						expected, input), execute(actual, input));
+
+				// a restored index ranks its prefixes anew
+				File file = File.createTempFile("index", ".snapshot");
+				file.deleteOnExit();
+				actual.writeSnapshot(file);
+				QuoraIndexer restored = QuoraIndexer.readSnapshot(file,
+						options);
+				Assert.assertArrayEquals(execute(expected, more), execute(
+						new TypeaheadSearch(restored, options), more));
+			}
+		}
+	}
+
+	@Test
+	public void testExecuteStream() {
+		String[] input = randomCommands(500);
+		StringBuilder sb = new StringBuilder();
+		sb.append(input.length).append('\n');
+		for (String line : input) {
+			sb.append(line).append('\n');
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new TypeaheadSearch().executeStream(new ByteArrayInputStream(sb
+				.toString().getBytes()), bytes);
+
+		StringBuilder expected = new StringBuilder();
+		for (String line : execute(new TypeaheadSearch(), input)) {
+			expected.append(line).append(System.lineSeparator());
+		}
+		Assert.assertEquals(expected.toString(), bytes.toString());
+	}
+
+	@Test
+	public void testLineReaderLineEnds() throws IOException {
+		String input = "a\r\nb\n\r\nc\rd\r\n";
+		String[] expected = { "a", "b", "", "c", "d" };
+		Assert.assertArrayEquals(expected, readLines(new StringReader(input)));
+		// a \r\n split across reads
+		Assert.assertArrayEquals(expected, readLines(new StringReader(input) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return super.read(cbuf, off, Math.min(len, 1));
+			}
+		}));
+		Assert.assertArrayEquals(new String[] { "" },
+				readLines(new StringReader("\r\n")));
+		Assert.assertArrayEquals(new String[] { "a" },
+				readLines(new StringReader("a")));
+
+		// a trailing \r\n is not one more command
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new TypeaheadSearch().executeStream(new ByteArrayInputStream(
+				"3\r\nADD user u1 1.0 Adam\r\nQUERY 1 a\r\n".getBytes()),
+				bytes);
+		Assert.assertEquals("u1" + System.lineSeparator(), bytes.toString());
+	}
+
+	private static String[] readLines(Reader reader) throws IOException {
+		LineReader in = new LineReader(reader);
+		ArrayList<String> lines = new ArrayList<>();
+		while (in.readLine()) {
+			lines.add(new String(in.line(), 0, in.length()));
+		}
+		return lines.toArray(new String[0]);
+	}
+
+	@Test
+	public void testScoreOrderMatchesEntryIdOrder() {
+		String[] input = randomCommands(2000);
+		Assert.assertArrayEquals(execute(new TypeaheadSearch(), input),
+				execute(new TypeaheadSearch(new IndexOptions()
+						.setPostingOrder(PostingOrder.SCORE)), input));
+	}
+
+	@Test
+	public void testWordIndexMatchesPrefixIndex() {
+		for (DeletionMode deletes : DeletionMode.values()) {
+			TypeaheadSearch search = new TypeaheadSearch(new IndexOptions()
+					.setIndexMode(IndexMode.WORD).setDeletionMode(deletes));
+			// "ada" unions adam and adams, then is served from its cache
+			// until a word it matches changes
+			Assert.assertArrayEquals(new String[] { "u2 u1", "u2 u1",
+					"u3 u2 u1", "u3 u2 u1", "u3 u1", "u3 u1 u4" }, execute(
+					search, "ADD user u1 0.1 adam", "ADD user u2 0.2 adams",
+					"QUERY 5 ada", "ADD user u9 0.9 bob", "QUERY 5 ada",
+					"ADD user u3 0.3 adamant", "QUERY 5 ada", "QUERY 5 adam",
+					"DEL u2", "QUERY 5 ada", "ADD user u4 0.0 ADAMS",
+					"QUERY 5 ada"));
+		}
+
+		String[] input = randomCommands(2000);
+		String[] expected = execute(new TypeaheadSearch(), input);
+		Assert.assertArrayEquals(expected, execute(new TypeaheadSearch(
+				new IndexOptions().setIndexMode(IndexMode.WORD)), input));
+		Assert.assertArrayEquals(expected, execute(new TypeaheadSearch(
+				new IndexOptions().setIndexMode(IndexMode.WORD)
+						.setPostingOrder(PostingOrder.SCORE)), input));
+	}
+
+	@Test
+	public void testOffHeapEntriesMatchHeap() {
+		String[] input = randomCommands(2000);
+		Assert.assertArrayEquals(execute(new TypeaheadSearch(), input),
+				execute(new TypeaheadSearch(new IndexOptions().setEntryStorage(
+						EntryStorage.OFF_HEAP).setPostingOrder(
+						PostingOrder.SCORE)), input));
+
+		// chars beyond Latin-1, and ids matched ignoring case; printed ids
+		// are ASCII, whatever the default charset
+		String[] wide = { "ADD user u1 1.0 Zo\u00eb \u00c5berg",
+				"ADD topic T2 0.5 \u6771\u4eac Zo\u00eb",
+				"ADD question q1 0.5 Z\u00fcrich", "ADD user U1 2.0 Zola",
+				"QUERY 10 zo", "WQUERY 10 1 T2:9.0 zo", "DEL t2",
+				"QUERY 10 \u6771", "QUERY 10 Z" };
+		String[] expectedWide = { "U1 T2", "T2 U1", "", "U1 q1" };
+		for (EntryStorage storage : EntryStorage.values()) {
+			Assert.assertArrayEquals(expectedWide, execute(new TypeaheadSearch(
+					new IndexOptions().setEntryStorage(storage)), wide));
+		}
+
+		// megabytes of re-ADDed text: the text of replaced entries is
+		// released and the pages compacted, the rest must read back the same
+		char[] filler = new char[400];
+		Arrays.fill(filler, ' ');
+		ArrayList<String> churn = new ArrayList<>();
+		ArrayList<String> last = new ArrayList<>();
+		for (int i = 0; i < 6000; ++i) {
+			String line = "ADD user u" + i % 20 + " " + i + " w" + i % 7
+					+ (i % 3 == 0 ? " \u6771" : " x") + new String(filler);
+			churn.add(line);
+			if (i >= 6000 - 20) {
+				last.add(line);
+			}
+		}
+		String[] queries = { "QUERY 20 w3", "QUERY 20 \u6771",
+				"WQUERY 20 2 u4:100 u17:2 w", "DEL u5", "QUERY 20 x" };
+		churn.addAll(Arrays.asList(queries));
+		last.addAll(Arrays.asList(queries));
+		String[] expected = execute(new TypeaheadSearch(),
+				last.toArray(new String[0]));
+		for (EntryStorage storage : EntryStorage.values()) {
+			for (DeletionMode mode : DeletionMode.values()) {
+				Assert.assertArrayEquals(storage + " " + mode, expected,
+						execute(new TypeaheadSearch(new IndexOptions()
+								.setEntryStorage(storage).setDeletionMode(mode)),
+								churn.toArray(new String[0])));
+			}
+		}
+	}
+
+	@Test
+	public void testBulkLoadMatchesSequentialAdds() {
+		// only the last ADD of an id within a batch counts, a batch is cut
+		// short by any other command, and ties still go to the newest
+		String batches = "7\nADD user u1 1.0 adam\nADD user u2 1.0 adam\n"
+				+ "ADD user U1 0.5 adam black\nADD user u3 1.0 black\n"
+				+ "QUERY 5 a\nDEL u2\nQUERY 5 b\n";
+		String n = System.lineSeparator();
+		for (PostingFormat format : PostingFormat.values()) {
+			ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+			new TypeaheadSearch(new IndexOptions().setBulkLoadSize(3)
+					.setPostingFormat(format)).executeStream(
+					new ByteArrayInputStream(batches.getBytes()), loaded);
+			Assert.assertEquals(format.toString(), "u2 U1" + n + "u3 U1" + n,
+					loaded.toString());
+		}
+
+		// a cold start: thousands of ADDs, then a mixed workload that re-ADDs
+		// and deletes some of them
+		ArrayList<String> lines = new ArrayList<>();
+		for (String line : randomCommands(8000)) {
+			if (line.startsWith("ADD")) {
+				lines.add(line);
+			}
+		}
+		Collections.addAll(lines, randomCommands(2000));
+		StringBuilder sb = new StringBuilder();
+		sb.append(lines.size()).append('\n');
+		for (String line : lines) {
+			sb.append(line).append('\n');
+		}
+		byte[] input = sb.toString().getBytes();
+
+		for (IndexMode mode : IndexMode.values()) {
+			for (PostingOrder order : PostingOrder.values()) {
+				IndexOptions options = new IndexOptions().setIndexMode(mode)
+						.setPostingOrder(order);
+				ByteArrayOutputStream expected = new ByteArrayOutputStream();
+				new TypeaheadSearch(options).executeStream(
+						new ByteArrayInputStream(input), expected);
+				ByteArrayOutputStream actual = new ByteArrayOutputStream();
+				new TypeaheadSearch(options.setBulkLoadSize(3000))
+						.executeStream(new ByteArrayInputStream(input), actual);
+				Assert.assertEquals(expected.toString(), actual.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotRestore() throws IOException {
+		File file = File.createTempFile("index", ".snapshot");
+		file.deleteOnExit();
+		TypeaheadSearch saved = new TypeaheadSearch();
+		execute(saved, "ADD user u1 1.0 adam", "ADD topic t1 2.0 adam black",
+				"ADD user u2 1.0 adam", "DEL u2");
+		saved.writeSnapshot(file);
+		QuoraIndexer mapped = QuoraIndexer.readSnapshot(file,
+				new IndexOptions());
+		// read from the file until a write other than an append
+		Assert.assertTrue(mapped.query("a").packedIds() instanceof MappedIds);
+		TypeaheadSearch restarted = new TypeaheadSearch(mapped,
+				new IndexOptions());
+		// ids, scores and the order of ties survive; deleted entries do not
+		Assert.assertArrayEquals(new String[] { "t1 u1", "t1 u3 u1",
+				"u3 u1 t1", "u3" }, execute(restarted, "QUERY 5 a",
+				"ADD user u3 1.0 adam", "QUERY 5 a", "WQUERY 5 1 user:3 a",
+				"DEL U1", "DEL t1", "QUERY 5 a"));
+		Assert.assertNull(mapped.query("a").packedIds());
+
+		// re-ADDs release most of the text read from the file, and what is
+		// left is copied out of it
+		char[] filler = new char[300];
+		Arrays.fill(filler, ' ');
+		ArrayList<String> adds = new ArrayList<>();
+		for (int i = 0; i < 5000; ++i) {
+			adds.add("ADD user u" + i + " " + i + " w" + i % 7
+					+ new String(filler));
+		}
+		TypeaheadSearch large = new TypeaheadSearch();
+		execute(large, adds.toArray(new String[0]));
+		large.writeSnapshot(file);
+		adds.clear();
+		for (int i = 0; i < 4500; ++i) {
+			adds.add("ADD user u" + i + " " + i + " v");
+		}
+		adds.add("QUERY 5 w3");
+		adds.add("QUERY 3 v");
+		for (DeletionMode deletes : DeletionMode.values()) {
+			IndexOptions options = new IndexOptions()
+					.setDeletionMode(deletes);
+			Assert.assertArrayEquals(new String[] {
+					"u4994 u4987 u4980 u4973 u4966", "u4499 u4498 u4497" },
+					execute(new TypeaheadSearch(QuoraIndexer.readSnapshot(
+							file, options), options), adds
+							.toArray(new String[0])));
+		}
+
+		String[] history = randomCommands(3000);
+		String[] more = randomCommands(1000);
+		for (IndexMode mode : IndexMode.values()) {
+			for (PostingOrder order : PostingOrder.values()) {
+				IndexOptions options = new IndexOptions().setIndexMode(mode)
+						.setPostingOrder(order);
+				TypeaheadSearch original = new TypeaheadSearch(options);
+				execute(original, history);
+				original.writeSnapshot(file);
+
+				IndexOptions defaults = new IndexOptions();
+				QuoraIndexer restored = QuoraIndexer.readSnapshot(file,
+						defaults);
+				Assert.assertEquals(order, restored.getPostingOrder());
+				Assert.assertEquals(mode, restored.getIndexMode());
+				// the caller's options are left as they were
+				Assert.assertEquals(PostingOrder.ENTRY_ID,
+						defaults.getPostingOrder());
+				Assert.assertEquals(IndexMode.PREFIX, defaults.getIndexMode());
+				// entries added after the restart are the newest
+				String[] expected = execute(original, more);
+				Assert.assertArrayEquals(expected, execute(
+						new TypeaheadSearch(restored, options), more));
+				// writes to lists read from the file, compacted and packed
+				IndexOptions lazy = new IndexOptions().setIndexMode(mode)
+						.setPostingOrder(order)
+						.setDeletionMode(DeletionMode.LAZY)
+						.setCompactRatio(0.01)
+						.setPostingFormat(PostingFormat.PACKED);
+				Assert.assertArrayEquals(expected, execute(new TypeaheadSearch(
+						QuoraIndexer.readSnapshot(file, lazy), lazy), more));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAheadLogReplay() throws IOException {
+		File file = File.createTempFile("index", ".wal");
+		file.deleteOnExit();
+		Assert.assertTrue(file.delete());
+		QuoraIndexer first = new QuoraIndexer();
+		WriteAheadLog firstLog = WriteAheadLog.open(file, 1);
+		first.attachLog(firstLog);
+		// a DEL of an unknown id is not logged, a re-ADD is
+		execute(new TypeaheadSearch(first, new IndexOptions()),
+				"ADD user u1 1.0 adam", "ADD user u2 2.0 adam black",
+				"DEL nobody", "ADD user U1 3.0 adam", "DEL u2");
+		firstLog.sync();
+		first.attachLog(null);
+		firstLog.close();
+		QuoraIndexer recovered = new QuoraIndexer();
+		Assert.assertEquals(4, WriteAheadLog.replay(file, recovered));
+		Assert.assertArrayEquals(new String[] { "U1", "" }, execute(
+				new TypeaheadSearch(recovered, new IndexOptions()),
+				"QUERY 5 a", "QUERY 5 b"));
+
+		String[] history = randomCommands(3000);
+		String[] more = randomCommands(1000);
+		for (PostingOrder order : PostingOrder.values()) {
+			IndexOptions options = new IndexOptions().setPostingOrder(order);
+			Assert.assertTrue(file.delete());
+			QuoraIndexer logged = new QuoraIndexer(options);
+			WriteAheadLog log = WriteAheadLog.open(file, 1);
+			logged.attachLog(log);
+			TypeaheadSearch original = new TypeaheadSearch(logged, options);
+			execute(original, history);
+			log.sync();
+			logged.attachLog(null);
+			log.close();
+
+			// a crash in the middle of a group write leaves a torn record
+			long length = file.length();
+			try (FileOutputStream out = new FileOutputStream(file, true)) {
+				out.write(new byte[] { 0, 0, 0, 42, 1, 2 });
+			}
+			QuoraIndexer replayed = new QuoraIndexer(options);
+			Assert.assertTrue(WriteAheadLog.replay(file, replayed) > 0);
+			Assert.assertEquals(length, file.length());
+			Assert.assertEquals(logged.getTermCount(), replayed.getTermCount());
+			Assert.assertArrayEquals(execute(original, more), execute(
+					new TypeaheadSearch(replayed, options), more));
+		}
+	}
+
+	@Test
+	public void testConcurrentQueriesDuringWrites() throws Exception {
+		final String[] input = randomCommands(4000);
+		final TypeaheadSearch search = new TypeaheadSearch();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final PrintStream sink = new PrintStream(new ByteArrayOutputStream());
+
+		Thread[] readers = new Thread[4];
+		final Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (String line : input) {
+					if (line.startsWith("ADD") || line.startsWith("DEL")) {
+						search.executeInput(line, sink);
+					}
+				}
+			}
+		};
+		for (int t = 0; t < readers.length; ++t) {
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (writer.isAlive()) {
+							for (String line : input) {
+								if (line.contains("QUERY")) {
+									search.executeInput(line, sink);
+								}
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+		}
+		writer.start();
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		writer.join();
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		Assert.assertNull(failure.get());
+
+		// once the writer is done the index matches a sequential replay
+		TypeaheadSearch sequential = new TypeaheadSearch();
+		ArrayList<String> queries = new ArrayList<>();
+		for (String line : input) {
+			if (line.contains("QUERY")) {
+				queries.add(line);
+			} else {
+				sequential.executeInput(line, sink);
+			}
+		}
+		String[] queryArr = queries.toArray(new String[queries.size()]);
+		Assert.assertArrayEquals(execute(sequential, queryArr),
+				execute(search, queryArr));
+	}
+
+	// ADD/DEL/QUERY/WQUERY over a small vocabulary, so queries do match
+	static String[] randomCommands(int n) {
+		String[] words = { "adam", "angelo", "quora", "what", "how", "learn",
+				"programming", "black", "board", "topic" };
+		String[] types = { "user", "topic", "question", "board" };
+		String[] commands = new String[n];
+		int added = 0;
+		for (int i = 0; i < n; ++i) {
+			int kind = rand.nextInt(10);
+			StringBuilder sb = new StringBuilder();
+			if (kind < 5 || added == 0) {
+				sb.append("ADD ").append(types[rand.nextInt(types.length)])
+						.append(" e").append(added++).append(' ')
+						.append(rand.nextInt(5) / 4f);
+				for (int j = 1 + rand.nextInt(4); j > 0; --j) {
+					sb.append(' ').append(words[rand.nextInt(words.length)]);
+				}
+			} else if (kind < 6) {
+				sb.append("DEL e").append(rand.nextInt(added));
+			} else {
+				if (kind < 8) {
+					sb.append("QUERY ").append(rand.nextInt(QUERY_NUM_RESULTS));
+				} else {
+					sb.append("WQUERY ").append(rand.nextInt(QUERY_NUM_RESULTS))
+							.append(" 2 ").append(types[rand.nextInt(types.length)])
+							.append(":2.5 e").append(rand.nextInt(added))
+							.append(":0.5");
+				}
+				for (int j = 1 + rand.nextInt(2); j > 0; --j) {
+					String word = words[rand.nextInt(words.length)];
+					sb.append(' ').append(
+							word.substring(0, 1 + rand.nextInt(word.length())));
+				}
+			}
+			commands[i] = sb.toString();
+		}
+		return commands;
+	}
 
-		while (it.hasNext()) {
-			resultSet.retainAll(it.next());
+	static String[] execute(TypeaheadSearch search, String... input) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(bytes);
+		for (String line : input) {
+			search.executeInput(line, out);
 		}
-		System.out.println(resultSet);
+		out.flush();
+		ArrayList<String> lines = new ArrayList<>();
+		Collections.addAll(lines, bytes.toString().split("\\r?\\n", -1));
+		// drop what follows the last line separator
+		lines.remove(lines.size() - 1);
+		return lines.toArray(new String[lines.size()]);
 	}
 }